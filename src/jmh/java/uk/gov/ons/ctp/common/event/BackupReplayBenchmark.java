@@ -0,0 +1,65 @@
+package uk.gov.ons.ctp.common.event;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.gov.ons.ctp.common.event.EventBuilder.SendInfo;
+import uk.gov.ons.ctp.common.event.EventPublisher.Channel;
+import uk.gov.ons.ctp.common.event.EventPublisher.EventType;
+import uk.gov.ons.ctp.common.event.EventPublisher.Source;
+import uk.gov.ons.ctp.common.event.persistence.EventBackupData;
+
+/**
+ * Resending a backed up event by rebuilding it, which deserialises the stored JSON and serialises a
+ * new event, compared with publishing the stored JSON unchanged.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BackupReplayBenchmark {
+
+  @Param({"CASE_UPDATED", "FULFILMENT_REQUESTED", "UAC_UPDATED"})
+  private EventType eventType;
+
+  private EventPublisher eventPublisher;
+  private EventBackupData backup;
+
+  @Setup
+  public void setup() throws Exception {
+    InMemoryEventSender sender = new InMemoryEventSender(1024, true);
+    eventPublisher = EventPublisher.createWithoutEventPersistence(sender);
+    SendInfo sendInfo =
+        new SendInfo(
+            BenchmarkFixtures.load(eventType.getPayloadType()),
+            Source.CONTACT_CENTRE_API,
+            Channel.CC);
+    backup = new EventBackupData();
+    backup.setEventType(eventType);
+    backup.setEvent(
+        BenchmarkFixtures.objectMapper()
+            .writeValueAsString(
+                eventType.getBuilder().create(sendInfo, EventHeaderFactory.DEFAULT)));
+  }
+
+  @Benchmark
+  public String rebuild() {
+    return eventPublisher.sendEvent(backup);
+  }
+
+  @Benchmark
+  public String rawPassthrough() {
+    return eventPublisher.sendRawEvent(backup);
+  }
+}
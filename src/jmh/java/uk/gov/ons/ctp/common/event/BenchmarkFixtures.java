@@ -0,0 +1,42 @@
+package uk.gov.ons.ctp.common.event;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import uk.gov.ons.ctp.common.jackson.CustomObjectMapper;
+
+/** Loads benchmark data from the same package fixtures as the unit tests. */
+final class BenchmarkFixtures {
+
+  private static final ObjectMapper objectMapper = new CustomObjectMapper();
+
+  private BenchmarkFixtures() {}
+
+  /**
+   * Load the first object from the package fixture for a class.
+   *
+   * @param type the class of the fixture, such as an event or payload.
+   * @return the object.
+   */
+  static <T> T load(Class<T> type) {
+    String resource =
+        "/uk/gov/ons/ctp/common/event/PackageFixture." + type.getSimpleName() + ".json";
+    try (InputStream in = BenchmarkFixtures.class.getResourceAsStream(resource)) {
+      List<T> objects =
+          objectMapper
+              .readerFor(objectMapper.getTypeFactory().constructCollectionType(List.class, type))
+              .with(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY)
+              .readValue(in);
+      return objects.get(0);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to load " + resource, e);
+    }
+  }
+
+  static ObjectMapper objectMapper() {
+    return objectMapper;
+  }
+}
@@ -0,0 +1,77 @@
+package uk.gov.ons.ctp.common.event;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.gov.ons.ctp.common.event.EventBuilder.SendInfo;
+import uk.gov.ons.ctp.common.event.EventPublisher.Channel;
+import uk.gov.ons.ctp.common.event.EventPublisher.EventType;
+import uk.gov.ons.ctp.common.event.EventPublisher.Source;
+import uk.gov.ons.ctp.common.event.model.GenericEvent;
+
+/**
+ * Building each type of event from its payload, and recreating the send information from the JSON
+ * of a backed up event as is done when replaying events.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class EventBuilderBenchmark {
+
+  @Param({
+    "ADDRESS_MODIFIED",
+    "ADDRESS_NOT_VALID",
+    "ADDRESS_TYPE_CHANGED",
+    "CASE_CREATED",
+    "CASE_UPDATED",
+    "FEEDBACK",
+    "FULFILMENT_REQUESTED",
+    "NEW_ADDRESS_REPORTED",
+    "QUESTIONNAIRE_LINKED",
+    "REFUSAL_RECEIVED",
+    "RESPONDENT_AUTHENTICATED",
+    "SURVEY_LAUNCHED",
+    "UAC_CREATED",
+    "UAC_UPDATED"
+  })
+  private EventType eventType;
+
+  private EventBuilder builder;
+  private SendInfo sendInfo;
+  private String backupJson;
+
+  @Setup
+  public void setup() throws Exception {
+    builder = eventType.getBuilder();
+    sendInfo =
+        new SendInfo(
+            BenchmarkFixtures.load(eventType.getPayloadType()),
+            Source.CONTACT_CENTRE_API,
+            Channel.CC);
+    backupJson =
+        BenchmarkFixtures.objectMapper()
+            .writeValueAsString(builder.create(sendInfo, EventHeaderFactory.DEFAULT));
+  }
+
+  @Benchmark
+  public GenericEvent create() {
+    return builder.create(sendInfo, EventHeaderFactory.DEFAULT);
+  }
+
+  @Benchmark
+  public SendInfo createFromBackup() {
+    return builder.create(backupJson);
+  }
+}
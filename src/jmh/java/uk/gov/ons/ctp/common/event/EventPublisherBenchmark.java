@@ -0,0 +1,84 @@
+package uk.gov.ons.ctp.common.event;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.cloud.circuitbreaker.resilience4j.Resilience4JCircuitBreakerFactory;
+import org.springframework.cloud.client.circuitbreaker.CircuitBreaker;
+import uk.gov.ons.ctp.common.event.EventPublisher.Channel;
+import uk.gov.ons.ctp.common.event.EventPublisher.EventType;
+import uk.gov.ons.ctp.common.event.EventPublisher.Source;
+import uk.gov.ons.ctp.common.event.model.SurveyLaunchedResponse;
+import uk.gov.ons.ctp.common.event.persistence.EventPersistence;
+
+/**
+ * End to end cost of EventPublisher.sendEvent, up to the point the event is handed to the sender.
+ * The InMemoryEventSender serialises the event as a Rabbit sender would, so no broker is needed. In
+ * the configurations with persistence a share of sends fail, so that the cost of persisting events
+ * is included.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EventPublisherBenchmark {
+
+  /** How the publisher is created, and the share of sends which fail. */
+  public enum Configuration {
+    PLAIN(0),
+    PERSISTENCE(0.1),
+    CIRCUIT_BREAKER_AND_PERSISTENCE(0.1);
+
+    // Low enough that the circuit breaker stays closed
+    private final double failureRate;
+
+    Configuration(double failureRate) {
+      this.failureRate = failureRate;
+    }
+  }
+
+  @Param private Configuration configuration;
+
+  private EventPublisher eventPublisher;
+  private SurveyLaunchedResponse payload;
+
+  @Setup
+  public void setup(Blackhole blackhole) {
+    InMemoryEventSender sender = new InMemoryEventSender(1024, true);
+    sender.setFailureRate(configuration.failureRate);
+    EventPersistence persistence = (eventType, genericEvent) -> blackhole.consume(genericEvent);
+    switch (configuration) {
+      case PLAIN:
+        eventPublisher = EventPublisher.createWithoutEventPersistence(sender);
+        break;
+      case PERSISTENCE:
+        eventPublisher = EventPublisher.createWithEventPersistence(sender, persistence, null);
+        break;
+      default:
+        CircuitBreaker circuitBreaker =
+            new Resilience4JCircuitBreakerFactory().create("eventPublisherBenchmark");
+        eventPublisher =
+            EventPublisher.createWithEventPersistence(sender, persistence, circuitBreaker);
+        break;
+    }
+    payload = BenchmarkFixtures.load(SurveyLaunchedResponse.class);
+  }
+
+  @Benchmark
+  public String sendEvent() {
+    return eventPublisher.sendEvent(
+        EventType.SURVEY_LAUNCHED, Source.RESPONDENT_HOME, Channel.RH, payload);
+  }
+}
@@ -0,0 +1,71 @@
+package uk.gov.ons.ctp.common.event;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.gov.ons.ctp.common.event.model.GenericEvent;
+
+/**
+ * Compares serialising each event type through an intermediate String with serialising straight to
+ * UTF-8 bytes using EventSerialiser. Run with "-prof gc" to see the bytes allocated per event.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class EventSerialisationBenchmark {
+
+  @Param({
+    "AddressModifiedEvent",
+    "AddressNotValidEvent",
+    "AddressTypeChangedEvent",
+    "CaseEvent",
+    "FeedbackEvent",
+    "FulfilmentRequestedEvent",
+    "NewAddressReportedEvent",
+    "QuestionnaireLinkedEvent",
+    "RespondentAuthenticatedEvent",
+    "RespondentRefusalEvent",
+    "SurveyLaunchedEvent",
+    "UACEvent"
+  })
+  private String eventClass;
+
+  private ObjectMapper objectMapper;
+  private EventSerialiser eventSerialiser;
+  private GenericEvent event;
+
+  @Setup
+  public void setup() throws Exception {
+    objectMapper = BenchmarkFixtures.objectMapper();
+    eventSerialiser = new EventSerialiser(objectMapper);
+    event =
+        (GenericEvent)
+            BenchmarkFixtures.load(
+                Class.forName("uk.gov.ons.ctp.common.event.model." + eventClass));
+  }
+
+  @Benchmark
+  public byte[] writeValueAsString() throws IOException {
+    return objectMapper.writeValueAsString(event).getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Benchmark
+  public byte[] eventSerialiser() throws IOException {
+    return eventSerialiser.serialise(event);
+  }
+}
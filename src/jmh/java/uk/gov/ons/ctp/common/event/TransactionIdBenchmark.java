@@ -0,0 +1,64 @@
+package uk.gov.ons.ctp.common.event;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Throughput of each TransactionIdGenerator as the number of publishing threads grows. Run main()
+ * to compare them at 1 to 64 threads, or a single thread count with "-t", e.g.:
+ *
+ * <pre>
+ * mvn -Pbenchmark test-compile exec:exec -Djmh.args="TransactionIdBenchmark -t 16"
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransactionIdBenchmark {
+
+  private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16, 32, 64};
+
+  private final TransactionIdGenerator randomUuid = TransactionIdGenerator.RANDOM_UUID;
+  private final TransactionIdGenerator fastRandomUuid = TransactionIdGenerator.FAST_RANDOM_UUID;
+  private final TransactionIdGenerator timeOrderedUuid = TransactionIdGenerator.TIME_ORDERED_UUID;
+
+  @Benchmark
+  public String randomUuid() {
+    return randomUuid.generate();
+  }
+
+  @Benchmark
+  public String fastRandomUuid() {
+    return fastRandomUuid.generate();
+  }
+
+  @Benchmark
+  public String timeOrderedUuid() {
+    return timeOrderedUuid.generate();
+  }
+
+  public static void main(String[] args) throws Exception {
+    for (int threads : THREAD_COUNTS) {
+      Options options =
+          new OptionsBuilder()
+              .include(TransactionIdBenchmark.class.getSimpleName())
+              .threads(threads)
+              .build();
+      new Runner(options).run();
+    }
+  }
+}
@@ -0,0 +1,14 @@
+package uk.gov.ons.ctp.common.event;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+import uk.gov.ons.ctp.common.event.EventPublisher.EventType;
+
+/**
+ * Adjusts the AMQP properties sent with events of a given type, for example to change the priority
+ * or content type. It is called once per event type when the sender is created, not per message.
+ */
+@FunctionalInterface
+public interface BasicPropertiesCustomiser {
+
+  void customise(EventType eventType, BasicProperties.Builder builder);
+}
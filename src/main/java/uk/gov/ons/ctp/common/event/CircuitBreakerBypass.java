@@ -0,0 +1,101 @@
+package uk.gov.ons.ctp.common.event;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import uk.gov.ons.ctp.common.event.CircuitBreakerState.State;
+
+/**
+ * Decides whether the EventPublisher should skip the broker and save an event straight to the
+ * persistent store because the circuit breaker is open.
+ *
+ * <p>While the breaker is open every event is bypassed. While it is half open only a fraction of
+ * events are sent to the broker as probes, spread evenly rather than randomly, and the rest are
+ * bypassed. Instead of logging each bypassed event a summary is logged at most once per interval.
+ */
+final class CircuitBreakerBypass {
+  private static final Logger log = LoggerFactory.getLogger(CircuitBreakerBypass.class);
+
+  static final double DEFAULT_HALF_OPEN_PROBE_FRACTION = 0.1;
+  static final long SUMMARY_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+  private final CircuitBreakerState circuitBreakerState;
+  private final double halfOpenProbeFraction;
+  private final String circuitBreakerId;
+
+  private final AtomicLong halfOpenEvents = new AtomicLong();
+  private final AtomicLong bypassedSinceSummary = new AtomicLong();
+  private final AtomicLong nextSummaryNanos = new AtomicLong(System.nanoTime());
+
+  /**
+   * Create the bypass.
+   *
+   * @param circuitBreakerState reports the state of the breaker.
+   * @param halfOpenProbeFraction the fraction of events sent to the broker while the breaker is
+   *     half open, from 0 to 1.
+   */
+  CircuitBreakerBypass(CircuitBreakerState circuitBreakerState, double halfOpenProbeFraction) {
+    this(circuitBreakerState, halfOpenProbeFraction, null);
+  }
+
+  /**
+   * Create the bypass for one of several circuit breakers.
+   *
+   * @param circuitBreakerState reports the state of the breaker.
+   * @param halfOpenProbeFraction the fraction of events sent to the broker while the breaker is
+   *     half open, from 0 to 1.
+   * @param circuitBreakerId the id of the breaker, which is included in the summary log.
+   */
+  CircuitBreakerBypass(
+      CircuitBreakerState circuitBreakerState,
+      double halfOpenProbeFraction,
+      String circuitBreakerId) {
+    if (halfOpenProbeFraction < 0 || halfOpenProbeFraction > 1) {
+      throw new IllegalArgumentException("Half open probe fraction must be between 0 and 1");
+    }
+    this.circuitBreakerState = circuitBreakerState;
+    this.halfOpenProbeFraction = halfOpenProbeFraction;
+    this.circuitBreakerId = circuitBreakerId;
+  }
+
+  /**
+   * Decide whether to bypass the broker for the next event. If the answer is true the event is
+   * counted towards the next summary log.
+   *
+   * @return true to save the event straight to the persistent store.
+   */
+  boolean shouldBypass() {
+    State state = circuitBreakerState.getState();
+    boolean bypass;
+    switch (state) {
+      case OPEN:
+        bypass = true;
+        break;
+      case HALF_OPEN:
+        long n = halfOpenEvents.getAndIncrement();
+        // Event n is a probe if the number of probes due after n + 1 events is more than after n
+        bypass = (long) ((n + 1) * halfOpenProbeFraction) == (long) (n * halfOpenProbeFraction);
+        break;
+      default:
+        bypass = false;
+        break;
+    }
+    if (bypass) {
+      bypassedSinceSummary.incrementAndGet();
+      logSummary(state);
+    }
+    return bypass;
+  }
+
+  private void logSummary(State state) {
+    long now = System.nanoTime();
+    long next = nextSummaryNanos.get();
+    if (now - next >= 0 && nextSummaryNanos.compareAndSet(next, now + SUMMARY_INTERVAL_NANOS)) {
+      log.with("circuitBreaker", circuitBreakerId)
+          .with("state", state)
+          .with("bypassed", bypassedSinceSummary.getAndSet(0))
+          .warn("Circuit breaker is not closed. Saving events straight to persistent store");
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package uk.gov.ons.ctp.common.event;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import java.util.function.Function;
+
+/**
+ * Reports the state of the circuit breaker used by an EventPublisher, so that the publisher can
+ * avoid calling it while it is open. The Spring CircuitBreaker the publisher runs sends in does not
+ * expose its state, so this is given to the publisher separately.
+ */
+@FunctionalInterface
+public interface CircuitBreakerState {
+
+  enum State {
+    /** Events are sent to the broker. */
+    CLOSED,
+    /** Events are not sent to the broker. */
+    OPEN,
+    /** Some events are sent to the broker to find out if it has recovered. */
+    HALF_OPEN;
+  }
+
+  State getState();
+
+  /**
+   * Report the state of a Resilience4j circuit breaker, such as the one a
+   * Resilience4JCircuitBreakerFactory creates for the publisher. Disabled and metrics only breakers
+   * are reported as closed, and forced open breakers as open.
+   *
+   * @param circuitBreaker the circuit breaker.
+   * @return the state reporter.
+   */
+  static CircuitBreakerState of(
+      io.github.resilience4j.circuitbreaker.CircuitBreaker circuitBreaker) {
+    return () -> stateOf(circuitBreaker);
+  }
+
+  /**
+   * Report the states of the Resilience4j circuit breakers in a registry, such as the one used by a
+   * Resilience4JCircuitBreakerFactory, by id. A breaker which has not been created yet is reported
+   * as closed. Looking the breaker up by id rather than creating it means it is still created with
+   * the configuration the factory gives it.
+   *
+   * @param registry the registry.
+   * @return the state reporter for each circuit breaker id.
+   */
+  static Function<String, CircuitBreakerState> lookup(CircuitBreakerRegistry registry) {
+    return id -> () -> registry.find(id).map(CircuitBreakerState::stateOf).orElse(State.CLOSED);
+  }
+
+  private static State stateOf(
+      io.github.resilience4j.circuitbreaker.CircuitBreaker circuitBreaker) {
+    switch (circuitBreaker.getState()) {
+      case OPEN:
+      case FORCED_OPEN:
+        return State.OPEN;
+      case HALF_OPEN:
+        return State.HALF_OPEN;
+      default:
+        return State.CLOSED;
+    }
+  }
+}
@@ -2,8 +2,6 @@ package uk.gov.ons.ctp.common.event;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import java.util.Date;
-import java.util.UUID;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -30,7 +28,6 @@ import uk.gov.ons.ctp.common.event.model.FulfilmentPayload;
 import uk.gov.ons.ctp.common.event.model.FulfilmentRequest;
 import uk.gov.ons.ctp.common.event.model.FulfilmentRequestedEvent;
 import uk.gov.ons.ctp.common.event.model.GenericEvent;
-import uk.gov.ons.ctp.common.event.model.Header;
 import uk.gov.ons.ctp.common.event.model.NewAddress;
 import uk.gov.ons.ctp.common.event.model.NewAddressPayload;
 import uk.gov.ons.ctp.common.event.model.NewAddressReportedEvent;
@@ -76,9 +73,10 @@ public abstract class EventBuilder {
    * Create event ready for send.
    *
    * @param sendInfo object containing payload , source and channel.
+   * @param headers creates the header of the event.
    * @return event
    */
-  abstract GenericEvent create(SendInfo sendInfo);
+  abstract GenericEvent create(SendInfo sendInfo, EventHeaderFactory headers);
 
   /**
    * Create information required to send the event based on the serialised backup event supplied.
@@ -96,16 +94,6 @@ public abstract class EventBuilder {
     }
   }
 
-  static Header buildHeader(EventType type, Source source, Channel channel) {
-    return Header.builder()
-        .type(type)
-        .source(source)
-        .channel(channel)
-        .dateTime(new Date())
-        .transactionId(UUID.randomUUID().toString())
-        .build();
-  }
-
   @Data
   @AllArgsConstructor
   @Builder
@@ -127,7 +115,7 @@ public abstract class EventBuilder {
 
   public static class NullEventBuilder extends EventBuilder {
     @Override
-    GenericEvent create(SendInfo sendInfo) {
+    GenericEvent create(SendInfo sendInfo, EventHeaderFactory headers) {
       return null;
     }
 
@@ -139,10 +127,11 @@ public abstract class EventBuilder {
 
   public static class FulfilmentRequestedBuilder extends EventBuilder {
     @Override
-    GenericEvent create(SendInfo sendInfo) {
+    GenericEvent create(SendInfo sendInfo, EventHeaderFactory headers) {
       FulfilmentRequestedEvent fulfilmentRequestedEvent = new FulfilmentRequestedEvent();
       fulfilmentRequestedEvent.setEvent(
-          buildHeader(EventType.FULFILMENT_REQUESTED, sendInfo.getSource(), sendInfo.getChannel()));
+          headers.create(
+              EventType.FULFILMENT_REQUESTED, sendInfo.getSource(), sendInfo.getChannel()));
       FulfilmentPayload fulfilmentPayload =
           new FulfilmentPayload((FulfilmentRequest) sendInfo.getPayload());
       fulfilmentRequestedEvent.setPayload(fulfilmentPayload);
@@ -160,10 +149,10 @@ public abstract class EventBuilder {
 
   public static class SurveyLaunchedBuilder extends EventBuilder {
     @Override
-    GenericEvent create(SendInfo sendInfo) {
+    GenericEvent create(SendInfo sendInfo, EventHeaderFactory headers) {
       SurveyLaunchedEvent surveyLaunchedEvent = new SurveyLaunchedEvent();
       surveyLaunchedEvent.setEvent(
-          buildHeader(EventType.SURVEY_LAUNCHED, sendInfo.getSource(), sendInfo.getChannel()));
+          headers.create(EventType.SURVEY_LAUNCHED, sendInfo.getSource(), sendInfo.getChannel()));
       surveyLaunchedEvent.getPayload().setResponse((SurveyLaunchedResponse) sendInfo.getPayload());
       return surveyLaunchedEvent;
     }
@@ -178,11 +167,11 @@ public abstract class EventBuilder {
 
   public static class RespondentAuthenticatedBuilder extends EventBuilder {
     @Override
-    GenericEvent create(SendInfo sendInfo) {
+    GenericEvent create(SendInfo sendInfo, EventHeaderFactory headers) {
       RespondentAuthenticatedEvent respondentAuthenticatedEvent =
           new RespondentAuthenticatedEvent();
       respondentAuthenticatedEvent.setEvent(
-          buildHeader(
+          headers.create(
               EventType.RESPONDENT_AUTHENTICATED, sendInfo.getSource(), sendInfo.getChannel()));
       respondentAuthenticatedEvent
           .getPayload()
@@ -201,10 +190,10 @@ public abstract class EventBuilder {
 
   public static class CaseCreatedBuilder extends EventBuilder {
     @Override
-    GenericEvent create(SendInfo sendInfo) {
+    GenericEvent create(SendInfo sendInfo, EventHeaderFactory headers) {
       CaseEvent caseEvent = new CaseEvent();
       caseEvent.setEvent(
-          buildHeader(EventType.CASE_CREATED, sendInfo.getSource(), sendInfo.getChannel()));
+          headers.create(EventType.CASE_CREATED, sendInfo.getSource(), sendInfo.getChannel()));
       CasePayload casePayload = new CasePayload((CollectionCase) sendInfo.getPayload());
       caseEvent.setPayload(casePayload);
       return caseEvent;
@@ -220,10 +209,10 @@ public abstract class EventBuilder {
 
   public static class CaseUpdatedBuilder extends EventBuilder {
     @Override
-    GenericEvent create(SendInfo sendInfo) {
+    GenericEvent create(SendInfo sendInfo, EventHeaderFactory headers) {
       CaseEvent caseEvent = new CaseEvent();
       caseEvent.setEvent(
-          buildHeader(EventType.CASE_UPDATED, sendInfo.getSource(), sendInfo.getChannel()));
+          headers.create(EventType.CASE_UPDATED, sendInfo.getSource(), sendInfo.getChannel()));
       CasePayload casePayload = new CasePayload((CollectionCase) sendInfo.getPayload());
       caseEvent.setPayload(casePayload);
       return caseEvent;
@@ -239,10 +228,10 @@ public abstract class EventBuilder {
 
   public static class RefusalReceivedBuilder extends EventBuilder {
     @Override
-    GenericEvent create(SendInfo sendInfo) {
+    GenericEvent create(SendInfo sendInfo, EventHeaderFactory headers) {
       RespondentRefusalEvent respondentRefusalEvent = new RespondentRefusalEvent();
       respondentRefusalEvent.setEvent(
-          buildHeader(EventType.REFUSAL_RECEIVED, sendInfo.getSource(), sendInfo.getChannel()));
+          headers.create(EventType.REFUSAL_RECEIVED, sendInfo.getSource(), sendInfo.getChannel()));
       RespondentRefusalPayload respondentRefusalPayload =
           new RespondentRefusalPayload((RespondentRefusalDetails) sendInfo.getPayload());
       respondentRefusalEvent.setPayload(respondentRefusalPayload);
@@ -259,10 +248,10 @@ public abstract class EventBuilder {
 
   public static class UacCreatedBuilder extends EventBuilder {
     @Override
-    GenericEvent create(SendInfo sendInfo) {
+    GenericEvent create(SendInfo sendInfo, EventHeaderFactory headers) {
       UACEvent uacEvent = new UACEvent();
       uacEvent.setEvent(
-          buildHeader(EventType.UAC_CREATED, sendInfo.getSource(), sendInfo.getChannel()));
+          headers.create(EventType.UAC_CREATED, sendInfo.getSource(), sendInfo.getChannel()));
       UACPayload uacPayload = new UACPayload((UAC) sendInfo.getPayload());
       uacEvent.setPayload(uacPayload);
       return uacEvent;
@@ -278,10 +267,10 @@ public abstract class EventBuilder {
 
   public static class UacUpdatedBuilder extends EventBuilder {
     @Override
-    GenericEvent create(SendInfo sendInfo) {
+    GenericEvent create(SendInfo sendInfo, EventHeaderFactory headers) {
       UACEvent uacEvent = new UACEvent();
       uacEvent.setEvent(
-          buildHeader(EventType.UAC_UPDATED, sendInfo.getSource(), sendInfo.getChannel()));
+          headers.create(EventType.UAC_UPDATED, sendInfo.getSource(), sendInfo.getChannel()));
       UACPayload uacPayload = new UACPayload((UAC) sendInfo.getPayload());
       uacEvent.setPayload(uacPayload);
       return uacEvent;
@@ -297,10 +286,10 @@ public abstract class EventBuilder {
 
   public static class AddressModifiedBuilder extends EventBuilder {
     @Override
-    GenericEvent create(SendInfo sendInfo) {
+    GenericEvent create(SendInfo sendInfo, EventHeaderFactory headers) {
       AddressModifiedEvent addressModifiedEvent = new AddressModifiedEvent();
       addressModifiedEvent.setEvent(
-          buildHeader(EventType.ADDRESS_MODIFIED, sendInfo.getSource(), sendInfo.getChannel()));
+          headers.create(EventType.ADDRESS_MODIFIED, sendInfo.getSource(), sendInfo.getChannel()));
       AddressModifiedPayload addressModifiedPayload =
           new AddressModifiedPayload((AddressModification) sendInfo.getPayload());
       addressModifiedEvent.setPayload(addressModifiedPayload);
@@ -318,10 +307,10 @@ public abstract class EventBuilder {
 
   public static class AddressNotValidBuilder extends EventBuilder {
     @Override
-    GenericEvent create(SendInfo sendInfo) {
+    GenericEvent create(SendInfo sendInfo, EventHeaderFactory headers) {
       AddressNotValidEvent addrNotValidEvent = new AddressNotValidEvent();
       addrNotValidEvent.setEvent(
-          buildHeader(EventType.ADDRESS_NOT_VALID, sendInfo.getSource(), sendInfo.getChannel()));
+          headers.create(EventType.ADDRESS_NOT_VALID, sendInfo.getSource(), sendInfo.getChannel()));
       AddressNotValidPayload addrNotValidPayload =
           new AddressNotValidPayload((AddressNotValid) sendInfo.getPayload());
       addrNotValidEvent.setPayload(addrNotValidPayload);
@@ -338,10 +327,11 @@ public abstract class EventBuilder {
 
   public static class AddressTypeChangedBuilder extends EventBuilder {
     @Override
-    GenericEvent create(SendInfo sendInfo) {
+    GenericEvent create(SendInfo sendInfo, EventHeaderFactory headers) {
       AddressTypeChangedEvent addressTypeChangedEvent = new AddressTypeChangedEvent();
       addressTypeChangedEvent.setEvent(
-          buildHeader(EventType.ADDRESS_TYPE_CHANGED, sendInfo.getSource(), sendInfo.getChannel()));
+          headers.create(
+              EventType.ADDRESS_TYPE_CHANGED, sendInfo.getSource(), sendInfo.getChannel()));
       AddressTypeChangedPayload addressTypeChangedPayload =
           new AddressTypeChangedPayload((AddressTypeChanged) sendInfo.getPayload());
       addressTypeChangedEvent.setPayload(addressTypeChangedPayload);
@@ -359,10 +349,11 @@ public abstract class EventBuilder {
 
   public static class NewAddressReportedBuilder extends EventBuilder {
     @Override
-    GenericEvent create(SendInfo sendInfo) {
+    GenericEvent create(SendInfo sendInfo, EventHeaderFactory headers) {
       NewAddressReportedEvent newAddressReportedEvent = new NewAddressReportedEvent();
       newAddressReportedEvent.setEvent(
-          buildHeader(EventType.NEW_ADDRESS_REPORTED, sendInfo.getSource(), sendInfo.getChannel()));
+          headers.create(
+              EventType.NEW_ADDRESS_REPORTED, sendInfo.getSource(), sendInfo.getChannel()));
       NewAddressPayload newAddressPayload =
           new NewAddressPayload((NewAddress) sendInfo.getPayload());
       newAddressReportedEvent.setPayload(newAddressPayload);
@@ -379,10 +370,10 @@ public abstract class EventBuilder {
 
   public static class FeedbackBuilder extends EventBuilder {
     @Override
-    GenericEvent create(SendInfo sendInfo) {
+    GenericEvent create(SendInfo sendInfo, EventHeaderFactory headers) {
       FeedbackEvent feedbackEvent = new FeedbackEvent();
       feedbackEvent.setEvent(
-          buildHeader(EventType.FEEDBACK, sendInfo.getSource(), sendInfo.getChannel()));
+          headers.create(EventType.FEEDBACK, sendInfo.getSource(), sendInfo.getChannel()));
       FeedbackPayload feedbackPayload = new FeedbackPayload((Feedback) sendInfo.getPayload());
       feedbackEvent.setPayload(feedbackPayload);
       return feedbackEvent;
@@ -398,10 +389,11 @@ public abstract class EventBuilder {
 
   public static class QuestionnaireLinkedBuilder extends EventBuilder {
     @Override
-    GenericEvent create(SendInfo sendInfo) {
+    GenericEvent create(SendInfo sendInfo, EventHeaderFactory headers) {
       QuestionnaireLinkedEvent questionnaireLinkedEvent = new QuestionnaireLinkedEvent();
       questionnaireLinkedEvent.setEvent(
-          buildHeader(EventType.QUESTIONNAIRE_LINKED, sendInfo.getSource(), sendInfo.getChannel()));
+          headers.create(
+              EventType.QUESTIONNAIRE_LINKED, sendInfo.getSource(), sendInfo.getChannel()));
       QuestionnaireLinkedPayload questionnaireLinkedPayload =
           new QuestionnaireLinkedPayload((QuestionnaireLinkedDetails) sendInfo.getPayload());
       questionnaireLinkedEvent.setPayload(questionnaireLinkedPayload);
@@ -0,0 +1,9 @@
+package uk.gov.ons.ctp.common.event;
+
+public class EventBulkheadFullException extends EventPublishException {
+  private static final long serialVersionUID = -3468207714652093528L;
+
+  public EventBulkheadFullException(String message) {
+    super(message);
+  }
+}
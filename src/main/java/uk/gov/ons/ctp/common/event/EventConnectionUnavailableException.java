@@ -0,0 +1,14 @@
+package uk.gov.ons.ctp.common.event;
+
+import lombok.Getter;
+
+public class EventConnectionUnavailableException extends EventPublishException {
+  private static final long serialVersionUID = 2470188326745390875L;
+
+  @Getter private final RabbitConnectionState connectionState;
+
+  public EventConnectionUnavailableException(RabbitConnectionState connectionState) {
+    super("Rabbit connection is " + connectionState);
+    this.connectionState = connectionState;
+  }
+}
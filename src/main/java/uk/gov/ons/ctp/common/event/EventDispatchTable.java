@@ -0,0 +1,117 @@
+package uk.gov.ons.ctp.common.event;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import uk.gov.ons.ctp.common.event.EventPublisher.EventType;
+import uk.gov.ons.ctp.common.event.EventPublisher.RoutingKey;
+import uk.gov.ons.ctp.common.event.model.EventPayload;
+
+/**
+ * Everything needed to send each EventType, in an array indexed by the ordinal of the type, so that
+ * sending an event needs a single lookup rather than searching the RoutingKey values.
+ *
+ * <p>The default table is built and checked when the class is loaded, so an event type which is
+ * routed more than once, or which has a payload but no routing key or builder, stops the
+ * application starting rather than failing on its first send. Tables are immutable; routing
+ * overrides produce a new table.
+ */
+final class EventDispatchTable {
+  private static final Logger log = LoggerFactory.getLogger(EventDispatchTable.class);
+
+  static final EventDispatchTable DEFAULT = createDefault();
+
+  private final Route[] routes;
+
+  /** Where and how to send one EventType. */
+  @Getter
+  @AllArgsConstructor
+  static final class Route {
+    private final EventType eventType;
+    private final RoutingKey routingKey;
+    private final Class<? extends EventPayload> payloadType;
+    private final EventBuilder builder;
+  }
+
+  private EventDispatchTable(Route[] routes) {
+    this.routes = routes;
+  }
+
+  /**
+   * Find the route for an event type.
+   *
+   * @param eventType the event type.
+   * @return the route. Its routing key is null if the type is not routed.
+   */
+  Route get(EventType eventType) {
+    return routes[eventType.ordinal()];
+  }
+
+  /**
+   * Create a copy of this table with some event types sent to a different routing key.
+   *
+   * @param overrides the new routing key for each event type to re-route.
+   * @return the new table.
+   * @throws IllegalArgumentException if an override has no routing key.
+   */
+  EventDispatchTable withOverrides(Map<EventType, RoutingKey> overrides) {
+    Route[] overridden = routes.clone();
+    for (Map.Entry<EventType, RoutingKey> override : overrides.entrySet()) {
+      EventType eventType = override.getKey();
+      RoutingKey routingKey = override.getValue();
+      if (eventType == null || routingKey == null) {
+        throw new IllegalArgumentException(
+            "Routing override for eventType '" + eventType + "' has no routing key");
+      }
+      Route route = routes[eventType.ordinal()];
+      overridden[eventType.ordinal()] =
+          new Route(eventType, routingKey, route.getPayloadType(), route.getBuilder());
+      log.with("eventType", eventType)
+          .with("routingKey", routingKey)
+          .info("Routing override applied");
+    }
+    return new EventDispatchTable(overridden);
+  }
+
+  private static EventDispatchTable createDefault() {
+    EventType[] eventTypes = EventType.values();
+    RoutingKey[] routingKeys = new RoutingKey[eventTypes.length];
+    List<String> errors = new ArrayList<>();
+
+    for (RoutingKey routingKey : RoutingKey.values()) {
+      for (EventType eventType : routingKey.getEventTypes()) {
+        RoutingKey existing = routingKeys[eventType.ordinal()];
+        if (existing != null) {
+          errors.add(
+              "EventType '" + eventType + "' routed to both " + existing + " and " + routingKey);
+        }
+        routingKeys[eventType.ordinal()] = routingKey;
+      }
+    }
+
+    Route[] routes = new Route[eventTypes.length];
+    for (EventType eventType : eventTypes) {
+      RoutingKey routingKey = routingKeys[eventType.ordinal()];
+      if (eventType.getPayloadType() != null) {
+        if (routingKey == null) {
+          errors.add("EventType '" + eventType + "' has a payload but no routing key");
+        }
+        if (eventType.getBuilder() == EventBuilder.NONE) {
+          errors.add("EventType '" + eventType + "' has a payload but no builder");
+        }
+      }
+      routes[eventType.ordinal()] =
+          new Route(eventType, routingKey, eventType.getPayloadType(), eventType.getBuilder());
+    }
+
+    if (!errors.isEmpty()) {
+      log.with("errors", errors).error("Event routing is misconfigured");
+      throw new IllegalStateException("Event routing is misconfigured: " + errors);
+    }
+    return new EventDispatchTable(routes);
+  }
+}
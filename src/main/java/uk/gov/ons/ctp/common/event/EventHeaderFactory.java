@@ -0,0 +1,43 @@
+package uk.gov.ons.ctp.common.event;
+
+import java.time.Clock;
+import java.util.Date;
+import uk.gov.ons.ctp.common.event.EventPublisher.Channel;
+import uk.gov.ons.ctp.common.event.EventPublisher.EventType;
+import uk.gov.ons.ctp.common.event.EventPublisher.Source;
+import uk.gov.ons.ctp.common.event.model.Header;
+
+/**
+ * Creates the headers of new events for one EventPublisher, so that each publisher can have its own
+ * clock and way of creating transactionIds.
+ */
+final class EventHeaderFactory {
+  static final EventHeaderFactory DEFAULT =
+      new EventHeaderFactory(TransactionIdGenerator.RANDOM_UUID, Clock.systemUTC());
+
+  private final TransactionIdGenerator transactionIdGenerator;
+  private final Clock clock;
+
+  EventHeaderFactory(TransactionIdGenerator transactionIdGenerator, Clock clock) {
+    this.transactionIdGenerator = transactionIdGenerator;
+    this.clock = clock;
+  }
+
+  EventHeaderFactory withTransactionIdGenerator(TransactionIdGenerator generator) {
+    return new EventHeaderFactory(generator, clock);
+  }
+
+  EventHeaderFactory withClock(Clock eventClock) {
+    return new EventHeaderFactory(transactionIdGenerator, eventClock);
+  }
+
+  Header create(EventType type, Source source, Channel channel) {
+    return Header.builder()
+        .type(type)
+        .source(source)
+        .channel(channel)
+        .dateTime(new Date(clock.millis()))
+        .transactionId(transactionIdGenerator.generate())
+        .build();
+  }
+}
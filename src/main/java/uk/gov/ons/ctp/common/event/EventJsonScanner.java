@@ -0,0 +1,145 @@
+package uk.gov.ons.ctp.common.event;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import uk.gov.ons.ctp.common.event.EventPublisher.Channel;
+import uk.gov.ons.ctp.common.event.EventPublisher.EventType;
+import uk.gov.ons.ctp.common.event.EventPublisher.Source;
+import uk.gov.ons.ctp.common.event.model.Header;
+
+/**
+ * Reads single values from the JSON of a serialised event with a streaming parser, without
+ * deserialising the whole event into its model classes.
+ */
+public final class EventJsonScanner {
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  private EventJsonScanner() {}
+
+  /**
+   * Read the header of an event. Only the type, source, channel and transactionId are read; the
+   * dateTime is left null. Reading stops at the end of the header, so the payload is not parsed.
+   *
+   * @param json the serialised event.
+   * @return the header, or null if the event has no header or the JSON cannot be read.
+   */
+  public static Header readHeader(String json) {
+    if (json == null) {
+      return null;
+    }
+    try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        return null;
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.getCurrentName();
+        JsonToken value = parser.nextToken();
+        if ("event".equals(name) && value == JsonToken.START_OBJECT) {
+          return readHeaderFields(parser);
+        }
+        parser.skipChildren();
+      }
+      return null;
+    } catch (IOException | IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  // Read the fields of the header object the parser is at the start of
+  private static Header readHeaderFields(JsonParser parser) throws IOException {
+    Header header = new Header();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      JsonToken value = parser.nextToken();
+      if (value != JsonToken.VALUE_STRING) {
+        parser.skipChildren();
+        continue;
+      }
+      switch (name) {
+        case "type":
+          header.setType(EventType.valueOf(parser.getText()));
+          break;
+        case "source":
+          header.setSource(Source.valueOf(parser.getText()));
+          break;
+        case "channel":
+          header.setChannel(Channel.valueOf(parser.getText()));
+          break;
+        case "transactionId":
+          header.setTransactionId(parser.getText());
+          break;
+        default:
+          break;
+      }
+    }
+    return header;
+  }
+
+  /**
+   * Find the id of the case an event is about. This is the first caseId field in the event or, for
+   * events which carry a collection case, the id of the first collectionCase object.
+   *
+   * @param json the serialised event.
+   * @return the case id, or null if the event has neither field or the JSON cannot be read.
+   */
+  public static String findCaseId(String json) {
+    if (json == null) {
+      return null;
+    }
+    try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+      String collectionCaseId = null;
+      // Depth of the collectionCase object being read, or -1 if not inside one
+      int collectionCaseDepth = -1;
+      int depth = 0;
+      JsonToken token;
+      while ((token = parser.nextToken()) != null) {
+        switch (token) {
+          case START_OBJECT:
+          case START_ARRAY:
+            depth++;
+            break;
+          case END_OBJECT:
+          case END_ARRAY:
+            if (depth == collectionCaseDepth) {
+              collectionCaseDepth = -1;
+            }
+            depth--;
+            break;
+          case FIELD_NAME:
+            String name = parser.getCurrentName();
+            if ("caseId".equals(name)) {
+              if (parser.nextToken() == JsonToken.VALUE_STRING) {
+                return parser.getText();
+              }
+              parser.skipChildren();
+            } else if ("collectionCase".equals(name) && collectionCaseId == null) {
+              // A collectionCase which is not an object, such as null, is skipped, so that the id
+              // of the next object is not taken for its id
+              if (parser.nextToken() == JsonToken.START_OBJECT) {
+                depth++;
+                collectionCaseDepth = depth;
+              } else {
+                parser.skipChildren();
+              }
+            } else if ("id".equals(name)
+                && depth == collectionCaseDepth
+                && collectionCaseId == null) {
+              if (parser.nextToken() == JsonToken.VALUE_STRING) {
+                collectionCaseId = parser.getText();
+              }
+              parser.skipChildren();
+            }
+            break;
+          default:
+            break;
+        }
+      }
+      return collectionCaseId;
+    } catch (IOException e) {
+      return null;
+    }
+  }
+}
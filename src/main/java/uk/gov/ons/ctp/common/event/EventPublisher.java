@@ -2,11 +2,29 @@ package uk.gov.ons.ctp.common.event;
 
 import com.godaddy.logging.Logger;
 import com.godaddy.logging.LoggerFactory;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import lombok.Getter;
 import org.springframework.cloud.client.circuitbreaker.CircuitBreaker;
 import uk.gov.ons.ctp.common.event.EventBuilder.SendInfo;
+import uk.gov.ons.ctp.common.event.EventDispatchTable.Route;
+import uk.gov.ons.ctp.common.event.EventSendResult.Status;
 import uk.gov.ons.ctp.common.event.model.AddressModification;
 import uk.gov.ons.ctp.common.event.model.AddressNotValid;
 import uk.gov.ons.ctp.common.event.model.AddressTypeChanged;
@@ -15,6 +33,7 @@ import uk.gov.ons.ctp.common.event.model.EventPayload;
 import uk.gov.ons.ctp.common.event.model.Feedback;
 import uk.gov.ons.ctp.common.event.model.FulfilmentRequest;
 import uk.gov.ons.ctp.common.event.model.GenericEvent;
+import uk.gov.ons.ctp.common.event.model.Header;
 import uk.gov.ons.ctp.common.event.model.NewAddress;
 import uk.gov.ons.ctp.common.event.model.QuestionnaireLinkedDetails;
 import uk.gov.ons.ctp.common.event.model.RespondentAuthenticatedResponse;
@@ -29,11 +48,30 @@ public class EventPublisher {
 
   private static final Logger log = LoggerFactory.getLogger(EventPublisher.class);
 
+  /** Number of publishing threads used by sendEventAsync if no executor has been set. */
+  public static final int DEFAULT_ASYNC_THREADS =
+      Math.max(2, Runtime.getRuntime().availableProcessors());
+
+  /** Number of events which may wait for an async publishing thread if no executor has been set. */
+  public static final int DEFAULT_ASYNC_QUEUE_CAPACITY = 1000;
+
   private EventSender sender;
   private CircuitBreaker circuitBreaker;
 
   private EventPersistence eventPersistence;
 
+  private volatile Executor asyncExecutor;
+
+  private volatile EventDispatchTable dispatchTable = EventDispatchTable.DEFAULT;
+
+  private volatile EventPublisherMetrics metrics = EventPublisherMetrics.NOOP;
+
+  private volatile EventHeaderFactory headerFactory = EventHeaderFactory.DEFAULT;
+
+  private volatile CircuitBreakerBypass circuitBreakerBypass;
+
+  private volatile RoutingKeyGuard[] routingKeyGuards;
+
   @Getter
   public enum RoutingKey {
     //// @formatter:off
@@ -71,12 +109,7 @@ public class EventPublisher {
     }
 
     public static RoutingKey forType(EventType eventType) {
-      for (RoutingKey routingKey : values()) {
-        if (routingKey.eventTypes.contains(eventType)) {
-          return routingKey;
-        }
-      }
-      return null;
+      return EventDispatchTable.DEFAULT.get(eventType).getRoutingKey();
     }
   }
 
@@ -152,6 +185,9 @@ public class EventPublisher {
     this.sender = eventSender;
     this.eventPersistence = eventPersistence;
     this.circuitBreaker = circuitBreaker;
+    if (eventSender != null) {
+      eventSender.setUndeliveredEventHandler(this::handleUndeliveredEvent);
+    }
   }
 
   /**
@@ -210,6 +246,212 @@ public class EventPublisher {
     return transactionId;
   }
 
+  /**
+   * Method to publish an event without blocking the calling thread.
+   *
+   * <p>The event is built and sent on the async executor, with the same Rabbit failure and event
+   * persistence behaviour as sendEvent(). If the executor has no capacity to accept the event then
+   * the returned future is completed exceptionally with an EventPublishException, so the caller is
+   * never held up waiting for the broker.
+   *
+   * @param eventType the event type
+   * @param source the source
+   * @param channel the channel
+   * @param payload message payload for event
+   * @return future holding the String UUID transaction Id for event
+   */
+  public CompletableFuture<String> sendEventAsync(
+      EventType eventType, Source source, Channel channel, EventPayload payload) {
+    try {
+      return CompletableFuture.supplyAsync(
+          () -> sendEvent(eventType, source, channel, payload), getAsyncExecutor());
+    } catch (RejectedExecutionException e) {
+      log.with("eventType", eventType)
+          .with("source", source)
+          .with("channel", channel)
+          .warn("Async publish queue is full. Rejecting event");
+      return CompletableFuture.failedFuture(
+          new EventPublishException("Async publish queue is full", e));
+    }
+  }
+
+  /**
+   * Set the executor used by sendEventAsync. If not set, an executor is created on first use with
+   * DEFAULT_ASYNC_THREADS threads and a queue of DEFAULT_ASYNC_QUEUE_CAPACITY events.
+   *
+   * @param asyncExecutor executor to run async sends. It should reject work when saturated rather
+   *     than block the submitting thread.
+   */
+  public void setAsyncExecutor(Executor asyncExecutor) {
+    this.asyncExecutor = asyncExecutor;
+  }
+
+  /**
+   * Create an executor suitable for sendEventAsync. It runs on daemon threads and holds at most
+   * queueCapacity waiting events, after which further submissions are rejected.
+   *
+   * @param threads the number of publishing threads.
+   * @param queueCapacity the maximum number of events waiting for a publishing thread.
+   * @return the executor.
+   */
+  public static ExecutorService createAsyncExecutor(int threads, int queueCapacity) {
+    AtomicInteger threadCount = new AtomicInteger();
+    return new ThreadPoolExecutor(
+        threads,
+        threads,
+        0L,
+        TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(queueCapacity),
+        runnable -> {
+          Thread thread =
+              new Thread(runnable, "event-publisher-async-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        },
+        new ThreadPoolExecutor.AbortPolicy());
+  }
+
+  /**
+   * Send some event types to a different routing key from the one they are normally sent to, for
+   * example as set in application configuration. Replaces any overrides set previously.
+   *
+   * @param routingOverrides the routing key to use for each re-routed event type.
+   * @throws IllegalArgumentException if an event type is mapped to no routing key.
+   */
+  public void setRoutingOverrides(Map<EventType, RoutingKey> routingOverrides) {
+    this.dispatchTable = EventDispatchTable.DEFAULT.withOverrides(routingOverrides);
+  }
+
+  /**
+   * Set how the transactionId of events created by this publisher is generated.
+   *
+   * @param generator the generator, for example TransactionIdGenerator.TIME_ORDERED_UUID.
+   */
+  public void setTransactionIdGenerator(TransactionIdGenerator generator) {
+    this.headerFactory = headerFactory.withTransactionIdGenerator(generator);
+  }
+
+  /**
+   * Set the clock which gives the dateTime of events created by this publisher, for example a fixed
+   * clock in tests.
+   *
+   * @param clock the clock.
+   */
+  public void setClock(Clock clock) {
+    this.headerFactory = headerFactory.withClock(clock);
+  }
+
+  /**
+   * Set where measurements of publishing are recorded, for example a
+   * MicrometerEventPublisherMetrics. The sender is given the same metrics, to record serialisation.
+   *
+   * @param metrics the metrics, or EventPublisherMetrics.NOOP to stop recording.
+   */
+  public void setMetrics(EventPublisherMetrics metrics) {
+    this.metrics = metrics;
+    if (sender != null) {
+      sender.setMetrics(metrics);
+    }
+  }
+
+  /**
+   * Give the publisher the state of its circuit breaker. While the breaker is open events are then
+   * saved straight to the persistent store, without calling the breaker or logging an error for
+   * each event, and while it is half open only a tenth of events are sent to the broker to probe
+   * it. This has no effect on a publisher without event persistence.
+   *
+   * @param circuitBreakerState reports the state of the breaker, or null to always call it.
+   */
+  public void setCircuitBreakerState(CircuitBreakerState circuitBreakerState) {
+    setCircuitBreakerState(
+        circuitBreakerState, CircuitBreakerBypass.DEFAULT_HALF_OPEN_PROBE_FRACTION);
+  }
+
+  /**
+   * Give the publisher the state of its circuit breaker, and the fraction of events to send to the
+   * broker while it is half open.
+   *
+   * @param circuitBreakerState reports the state of the breaker, or null to always call it.
+   * @param halfOpenProbeFraction from 0 to 1. The other events are saved to the persistent store.
+   */
+  public void setCircuitBreakerState(
+      CircuitBreakerState circuitBreakerState, double halfOpenProbeFraction) {
+    this.circuitBreakerBypass =
+        circuitBreakerState == null
+            ? null
+            : new CircuitBreakerBypass(circuitBreakerState, halfOpenProbeFraction);
+  }
+
+  /**
+   * Give each routing key its own circuit breaker and bulkhead, so that a routing key which is
+   * failing or slow does not hold up the others. If the isolation has a circuit breaker factory its
+   * breakers replace the circuit breaker and circuit breaker state the publisher was given for all
+   * routing keys. Otherwise the routing keys only get their own bulkhead, and keep sharing the
+   * publisher's circuit breaker and circuit breaker state.
+   *
+   * @param routingKeyIsolation the breaker and bulkhead settings, or null to go back to sharing the
+   *     circuit breaker the publisher was created with.
+   */
+  public void setRoutingKeyIsolation(RoutingKeyIsolation routingKeyIsolation) {
+    if (routingKeyIsolation == null) {
+      this.routingKeyGuards = null;
+      return;
+    }
+    RoutingKey[] routingKeys = RoutingKey.values();
+    RoutingKeyGuard[] guards = new RoutingKeyGuard[routingKeys.length];
+    for (RoutingKey routingKey : routingKeys) {
+      guards[routingKey.ordinal()] = new RoutingKeyGuard(routingKey, routingKeyIsolation);
+    }
+    this.routingKeyGuards = guards;
+  }
+
+  /**
+   * Get the state of the circuit breaker and bulkhead of a routing key.
+   *
+   * @param routingKey the routing key.
+   * @return the status, or null if routing key isolation has not been set.
+   */
+  public RoutingKeyStatus getRoutingKeyStatus(RoutingKey routingKey) {
+    RoutingKeyGuard guard = getRoutingKeyGuard(routingKey);
+    return guard == null ? null : guard.getStatus();
+  }
+
+  private RoutingKeyGuard getRoutingKeyGuard(RoutingKey routingKey) {
+    RoutingKeyGuard[] guards = routingKeyGuards;
+    return guards == null ? null : guards[routingKey.ordinal()];
+  }
+
+  // A routing key without a circuit breaker of its own, such as one which only has a bulkhead,
+  // uses the shared circuit breaker
+  private CircuitBreaker getCircuitBreaker(RoutingKeyGuard guard) {
+    return guard == null || guard.getCircuitBreaker() == null
+        ? circuitBreaker
+        : guard.getCircuitBreaker();
+  }
+
+  // The bypass follows the breaker the routing key sends through, so a routing key which uses the
+  // shared circuit breaker also uses the shared bypass
+  private CircuitBreakerBypass getCircuitBreakerBypass(RoutingKey routingKey) {
+    RoutingKeyGuard guard = getRoutingKeyGuard(routingKey);
+    return guard == null || guard.getCircuitBreaker() == null
+        ? circuitBreakerBypass
+        : guard.getBypass();
+  }
+
+  private Executor getAsyncExecutor() {
+    Executor executor = asyncExecutor;
+    if (executor == null) {
+      synchronized (this) {
+        executor = asyncExecutor;
+        if (executor == null) {
+          executor = createAsyncExecutor(DEFAULT_ASYNC_THREADS, DEFAULT_ASYNC_QUEUE_CAPACITY);
+          asyncExecutor = executor;
+        }
+      }
+    }
+    return executor;
+  }
+
   /**
    * Send a backup event that would have previously been stored in cloud data storage.
    *
@@ -218,7 +460,7 @@ public class EventPublisher {
    */
   public String sendEvent(EventBackupData event) {
     EventType type = event.getEventType();
-    SendInfo sendInfo = type.getBuilder().create(event.getEvent());
+    SendInfo sendInfo = dispatchTable.get(type).getBuilder().create(event.getEvent());
     if (sendInfo == null) {
       log.with("type", type).error("Unrecognised event type");
       throw new UnsupportedOperationException("Unknown event: " + type);
@@ -228,10 +470,219 @@ public class EventPublisher {
     return transactionId;
   }
 
+  /**
+   * Resend a backup event exactly as it was stored, without rebuilding it.
+   *
+   * <p>Only the header of the stored JSON is read, to find the event type and routing key, and the
+   * stored bytes are then published unchanged. This is much cheaper than
+   * sendEvent(EventBackupData), and keeps the original transactionId and dateTime, so that
+   * consumers can recognise an event they have already received. The event is not backed up again
+   * if Rabbit fails to send it, as it is already in the backup store.
+   *
+   * @param event backup event, typically recovered from firestore.
+   * @return String UUID transaction Id of the stored event.
+   * @throws EventPublishException if the header cannot be read or Rabbit failed to send the event.
+   */
+  public String sendRawEvent(EventBackupData event) {
+    Header header = EventJsonScanner.readHeader(event.getEvent());
+    if (header == null || header.getType() == null || header.getTransactionId() == null) {
+      log.with("id", event.getId()).error("Backup event has no readable header");
+      throw new EventPublishException("Backup event has no readable header: " + event.getId());
+    }
+    if (event.getEventType() != null && event.getEventType() != header.getType()) {
+      log.with("id", event.getId())
+          .with("eventType", event.getEventType())
+          .with("headerType", header.getType())
+          .error("Backup event type does not match its header");
+      throw new EventPublishException(
+          "Backup event type "
+              + event.getEventType()
+              + " does not match header "
+              + header.getType());
+    }
+
+    RoutingKey routingKey = findRoutingKey(dispatchTable.get(header.getType()));
+    try {
+      sendRawToRabbit(routingKey, header, event.getEvent().getBytes(StandardCharsets.UTF_8));
+    } catch (EventPublishException e) {
+      throw e;
+    } catch (Exception e) {
+      log.with("eventType", header.getType())
+          .with("routingKey", routingKey)
+          .error(e, "Failed to resend backup event");
+      throw new EventPublishException("Rabbit failed to send event", e);
+    }
+    log.debug("Resent {} with transactionId {}", header.getType(), header.getTransactionId());
+    return header.getTransactionId();
+  }
+
+  /**
+   * Find out if sendRawEvent(EventBackupData) can be used, which depends on the EventSender.
+   *
+   * @return true if the sender can send serialised events.
+   */
+  public boolean supportsRawEvents() {
+    return sender.supportsRawEvents();
+  }
+
+  /**
+   * Method to publish a batch of events of the same type.
+   *
+   * <p>Every event is built before any are sent, and the batch is then handed to the sender in one
+   * call so that it can publish them together and wait once for the broker to confirm them. Events
+   * which Rabbit failed to send are saved to the persistent store, if one is set. Unlike sendEvent
+   * no exception is thrown for failed events; the outcome of each event is reported in the result.
+   * While the circuit breaker is open the whole batch goes straight to the persistent store, as
+   * sendEvent does for a single event.
+   *
+   * @param eventType the event type
+   * @param source the source
+   * @param channel the channel
+   * @param payloads message payloads, one per event
+   * @return the transaction Id and outcome for each event, in the same order as the payloads
+   */
+  public List<EventSendResult> sendEvents(
+      EventType eventType, Source source, Channel channel, List<? extends EventPayload> payloads) {
+
+    log.with(eventType)
+        .with(source)
+        .with(channel)
+        .with("batchSize", payloads.size())
+        .debug("Enter sendEvents()");
+
+    Route route = dispatchTable.get(eventType);
+    RoutingKey routingKey = findRoutingKey(route);
+    // Shared by the sender and persistence, so that each event is serialised at most once
+    List<SerialisedEvent> serialisedEvents = new ArrayList<>(payloads.size());
+    for (EventPayload payload : payloads) {
+      checkPayloadType(route, payload);
+      long buildStart = System.nanoTime();
+      GenericEvent genericEvent = buildEvent(route, new SendInfo(payload, source, channel));
+      metrics.recordBuild(routingKey, genericEvent.getEvent(), System.nanoTime() - buildStart);
+      serialisedEvents.add(SerialisedEvent.of(genericEvent));
+    }
+    if (serialisedEvents.isEmpty()) {
+      return new ArrayList<>();
+    }
+
+    Set<SerialisedEvent> failed = Collections.newSetFromMap(new IdentityHashMap<>());
+    CircuitBreakerBypass bypass = getCircuitBreakerBypass(routingKey);
+    if (bypass != null && eventPersistence != null && bypass.shouldBypass()) {
+      log.with("routingKey", routingKey)
+          .with("batchSize", serialisedEvents.size())
+          .info("Circuit breaker open. Batch saved to persistent store without sending");
+      for (SerialisedEvent serialisedEvent : serialisedEvents) {
+        metrics.recordCircuitBreakerBypass(routingKey, serialisedEvent.getHeader());
+      }
+      failed.addAll(serialisedEvents);
+    } else {
+      failed.addAll(sendBatchToRabbit(routingKey, serialisedEvents));
+    }
+
+    List<EventSendResult> results = new ArrayList<>(serialisedEvents.size());
+    for (SerialisedEvent serialisedEvent : serialisedEvents) {
+      Status status =
+          failed.contains(serialisedEvent)
+              ? backupBatchEvent(eventType, routingKey, serialisedEvent)
+              : Status.SENT;
+      results.add(new EventSendResult(serialisedEvent.getHeader().getTransactionId(), status));
+    }
+
+    log.with(eventType)
+        .with(source)
+        .with(channel)
+        .with("failed", failed.size())
+        .debug("Exit sendEvents()");
+
+    return results;
+  }
+
   private String doSendEvent(EventType eventType, SendInfo sendInfo) {
-    EventPayload payload = sendInfo.getPayload();
+    Route route = dispatchTable.get(eventType);
+    checkPayloadType(route, sendInfo.getPayload());
+    RoutingKey routingKey = findRoutingKey(route);
+    long buildStart = System.nanoTime();
+    GenericEvent genericEvent = buildEvent(route, sendInfo);
+    metrics.recordBuild(routingKey, genericEvent.getEvent(), System.nanoTime() - buildStart);
+
+    // Shared by the sender and persistence, so that the event is serialised at most once
+    SerialisedEvent serialisedEvent = SerialisedEvent.of(genericEvent);
+    CircuitBreakerBypass bypass = getCircuitBreakerBypass(routingKey);
+    if (bypass != null && eventPersistence != null && bypass.shouldBypass()) {
+      metrics.recordCircuitBreakerBypass(routingKey, genericEvent.getEvent());
+      backupEvent(eventType, routingKey, serialisedEvent, null);
+      return genericEvent.getEvent().getTransactionId();
+    }
+
+    try {
+      sendToRabbit(routingKey, serialisedEvent);
+    } catch (EventBulkheadFullException e) {
+      boolean backup = eventPersistence != null;
+      log.with("eventType", eventType)
+          .with("routingKey", routingKey)
+          .with("backup", backup)
+          .warn(e.getMessage());
+
+      if (!backup) {
+        throw e;
+      }
+
+      backupEvent(eventType, routingKey, serialisedEvent, e);
+    } catch (Exception e) {
+      boolean backup = eventPersistence != null;
+      log.with("eventType", eventType)
+          .with("routingKey", routingKey)
+          .with("backup", backup)
+          .error(e, "Failed to send event but will now backup to firestore");
+
+      if (!backup) {
+        throw new EventPublishException("Rabbit failed to send event", e);
+      }
+
+      backupEvent(eventType, routingKey, serialisedEvent, e);
+    }
 
-    if (!payload.getClass().equals(eventType.getPayloadType())) {
+    return genericEvent.getEvent().getTransactionId();
+  }
+
+  // Save an event to the persistent store, either after Rabbit failed to send it or, if the
+  // rabbitFailure is null, instead of sending it because the circuit breaker is open
+  private void backupEvent(
+      EventType eventType,
+      RoutingKey routingKey,
+      SerialisedEvent serialisedEvent,
+      Exception rabbitFailure) {
+    Header header = serialisedEvent.getHeader();
+    long persistStart = System.nanoTime();
+    try {
+      eventPersistence.persistSerialisedEvent(eventType, serialisedEvent);
+      metrics.recordFallbackPersist(routingKey, header, System.nanoTime() - persistStart, true);
+      if (rabbitFailure != null) {
+        log.with("eventType", eventType)
+            .with("routingKey", routingKey)
+            .info("Event data saved to persistent store");
+      }
+    } catch (Exception epe) {
+      metrics.recordFallbackPersist(routingKey, header, System.nanoTime() - persistStart, false);
+      if (rabbitFailure == null) {
+        log.with("eventType", eventType)
+            .with("routingKey", routingKey)
+            .error(epe, "Backup event persistence failed while circuit breaker open");
+        throw new EventPublishException(
+            "Backup event persistence failed while circuit breaker open", epe);
+      }
+      // There is no hope. Neither Rabbit or Persistence are working
+      log.with("eventType", eventType)
+          .with("routingKey", routingKey)
+          .error(epe, "Backup event persistence failed following Rabbit failure");
+      throw new EventPublishException(
+          "Backup event persistence failed following Rabbit failure", rabbitFailure);
+    }
+  }
+
+  private void checkPayloadType(Route route, EventPayload payload) {
+    EventType eventType = route.getEventType();
+    if (!payload.getClass().equals(route.getPayloadType())) {
       log.with("payloadType", payload.getClass())
           .with("eventType", eventType)
           .error("Payload incompatible for event type");
@@ -243,62 +694,183 @@ public class EventPublisher {
               + "'";
       throw new IllegalArgumentException(errorMessage);
     }
+  }
 
-    RoutingKey routingKey = RoutingKey.forType(eventType);
+  private RoutingKey findRoutingKey(Route route) {
+    EventType eventType = route.getEventType();
+    RoutingKey routingKey = route.getRoutingKey();
     if (routingKey == null) {
       log.with("eventType", eventType).error("Routing key for eventType not configured");
       String errorMessage = "Routing key for eventType '" + eventType + "' not configured";
       throw new UnsupportedOperationException(errorMessage);
     }
+    return routingKey;
+  }
 
-    GenericEvent genericEvent = eventType.getBuilder().create(sendInfo);
+  private GenericEvent buildEvent(Route route, SendInfo sendInfo) {
+    EventType eventType = route.getEventType();
+    GenericEvent genericEvent = route.getBuilder().create(sendInfo, headerFactory);
     if (genericEvent == null) {
       log.with("eventType", eventType).error("Payload for eventType not configured");
       String errorMessage =
-          payload.getClass().getName() + " for EventType '" + eventType + "' not supported yet";
+          sendInfo.getPayload().getClass().getName()
+              + " for EventType '"
+              + eventType
+              + "' not supported yet";
       throw new UnsupportedOperationException(errorMessage);
     }
+    return genericEvent;
+  }
 
+  // A failure of the whole batch, including a circuit breaker rejection, is treated as every
+  // event in the batch having failed
+  private List<SerialisedEvent> sendBatchToRabbit(
+      RoutingKey routingKey, List<SerialisedEvent> serialisedEvents) {
+    log.with("routingKey", routingKey)
+        .with("batchSize", serialisedEvents.size())
+        .info("Sending batch of messages to rabbit");
+    RoutingKeyGuard guard = getRoutingKeyGuard(routingKey);
+    CircuitBreaker breaker = getCircuitBreaker(guard);
+    if (guard != null && !guard.tryAcquire()) {
+      log.with("routingKey", routingKey)
+          .with("batchSize", serialisedEvents.size())
+          .warn("Too many concurrent sends to routing key. Batch not sent");
+      for (SerialisedEvent serialisedEvent : serialisedEvents) {
+        metrics.recordBulkheadRejection(routingKey, serialisedEvent.getHeader());
+      }
+      return serialisedEvents;
+    }
     try {
-      sendToRabbit(routingKey, genericEvent);
+      List<SerialisedEvent> failed;
+      if (breaker == null) {
+        failed = sender.sendSerialisedEvents(routingKey, serialisedEvents);
+      } else {
+        failed =
+            breaker.run(
+                () -> sender.sendSerialisedEvents(routingKey, serialisedEvents),
+                throwable -> {
+                  throw new EventCircuitBreakerException(throwable);
+                });
+      }
+      log.with("routingKey", routingKey)
+          .with("batchSize", serialisedEvents.size())
+          .with("failed", failed.size())
+          .info("Batch of messages sent to rabbit");
+      return failed;
     } catch (Exception e) {
-      boolean backup = eventPersistence != null;
+      // An open circuit breaker is expected while Rabbit is down, so it is not logged as an error
+      if (e.getCause() instanceof CallNotPermittedException) {
+        log.with("routingKey", routingKey)
+            .with("batchSize", serialisedEvents.size())
+            .warn("Circuit breaker open. Batch of messages not sent to rabbit");
+        for (SerialisedEvent serialisedEvent : serialisedEvents) {
+          metrics.recordCircuitBreakerRejection(routingKey, serialisedEvent.getHeader());
+        }
+      } else {
+        log.with("routingKey", routingKey)
+            .with("batchSize", serialisedEvents.size())
+            .error(e, "Failed to send batch of messages to rabbit");
+      }
+      return serialisedEvents;
+    } finally {
+      if (guard != null) {
+        guard.release();
+      }
+    }
+  }
+
+  private Status backupBatchEvent(
+      EventType eventType, RoutingKey routingKey, SerialisedEvent serialisedEvent) {
+    if (eventPersistence == null) {
+      return Status.FAILED;
+    }
+    Header header = serialisedEvent.getHeader();
+    long persistStart = System.nanoTime();
+    try {
+      eventPersistence.persistSerialisedEvent(eventType, serialisedEvent);
+      metrics.recordFallbackPersist(routingKey, header, System.nanoTime() - persistStart, true);
+      return Status.PERSISTED;
+    } catch (Exception epe) {
+      metrics.recordFallbackPersist(routingKey, header, System.nanoTime() - persistStart, false);
       log.with("eventType", eventType)
           .with("routingKey", routingKey)
-          .with("backup", backup)
-          .error(e, "Failed to send event but will now backup to firestore");
+          .with("transactionId", header.getTransactionId())
+          .error(epe, "Backup event persistence failed following Rabbit failure");
+      return Status.FAILED;
+    }
+  }
 
-      if (!backup) {
-        throw new EventPublishException("Rabbit failed to send event", e);
-      }
+  // Called by the sender, after sendEvent has returned, for an event which the broker did not
+  // confirm. There is no caller to report a failure to, so the outcome is only logged.
+  private void handleUndeliveredEvent(
+      RoutingKey routingKey, SerialisedEvent serialisedEvent, Throwable cause) {
+    Header header = serialisedEvent.getHeader();
+    EventType eventType = header.getType();
+    boolean backup = eventPersistence != null;
+    log.with("eventType", eventType)
+        .with("routingKey", routingKey)
+        .with("transactionId", header.getTransactionId())
+        .with("backup", backup)
+        .error(cause, "Rabbit did not confirm event");
 
-      // Save event to persistent store
+    if (backup) {
+      long persistStart = System.nanoTime();
       try {
-        eventPersistence.persistEvent(eventType, genericEvent);
+        eventPersistence.persistSerialisedEvent(eventType, serialisedEvent);
+        metrics.recordFallbackPersist(routingKey, header, System.nanoTime() - persistStart, true);
         log.with("eventType", eventType)
             .with("routingKey", routingKey)
-            .info("Event data saved to persistent store");
+            .info("Unconfirmed event data saved to persistent store");
       } catch (Exception epe) {
-        // There is no hope. Neither Rabbit or Persistence are working
+        metrics.recordFallbackPersist(routingKey, header, System.nanoTime() - persistStart, false);
         log.with("eventType", eventType)
             .with("routingKey", routingKey)
-            .error(epe, "Backup event persistence failed following Rabbit failure");
-        throw new EventPublishException(
-            "Backup event persistence failed following Rabbit failure", e);
+            .with("transactionId", header.getTransactionId())
+            .error(epe, "Backup event persistence failed following Rabbit confirm failure");
       }
     }
+  }
 
-    return genericEvent.getEvent().getTransactionId();
+  private void sendToRabbit(RoutingKey routingKey, SerialisedEvent serialisedEvent) {
+    publish(
+        routingKey,
+        serialisedEvent.getHeader(),
+        () -> sender.sendSerialisedEvent(routingKey, serialisedEvent));
+  }
+
+  private void sendRawToRabbit(RoutingKey routingKey, Header header, byte[] body) {
+    publish(routingKey, header, () -> sender.sendRawEvent(routingKey, header, body));
+  }
+
+  // Sends run in the routing key's bulkhead, if it has one. A bulkhead rejection is not passed to
+  // the circuit breaker, as it says nothing about the health of the broker.
+  private void publish(RoutingKey routingKey, Header header, Runnable send) {
+    RoutingKeyGuard guard = getRoutingKeyGuard(routingKey);
+    if (guard == null) {
+      publishInCircuitBreaker(routingKey, header, send, circuitBreaker);
+      return;
+    }
+    if (!guard.tryAcquire()) {
+      metrics.recordBulkheadRejection(routingKey, header);
+      throw new EventBulkheadFullException(
+          "Too many concurrent sends to routing key " + routingKey.getKey());
+    }
+    try {
+      publishInCircuitBreaker(routingKey, header, send, getCircuitBreaker(guard));
+    } finally {
+      guard.release();
+    }
   }
 
-  private void sendToRabbit(RoutingKey routingKey, GenericEvent genericEvent) {
+  private void publishInCircuitBreaker(
+      RoutingKey routingKey, Header header, Runnable send, CircuitBreaker circuitBreaker) {
     if (circuitBreaker == null) {
-      sendToRabbit(routingKey, genericEvent, "");
+      publish(routingKey, header, send, "");
     } else {
       try {
-        this.circuitBreaker.run(
+        circuitBreaker.run(
             () -> {
-              sendToRabbit(routingKey, genericEvent, "within circuit-breaker");
+              publish(routingKey, header, send, "within circuit-breaker");
               return null;
             },
             throwable -> {
@@ -306,18 +878,26 @@ public class EventPublisher {
             });
       } catch (EventCircuitBreakerException e) {
         log.debug("{}: {}", e.getMessage(), e.getCause().getMessage());
+        if (e.getCause() instanceof CallNotPermittedException) {
+          metrics.recordCircuitBreakerRejection(routingKey, header);
+        }
         throw e;
       }
     }
   }
 
-  private void sendToRabbit(
-      RoutingKey routingKey, GenericEvent genericEvent, String loggingMsgSuffix) {
-    EventType eventType = genericEvent.getEvent().getType();
+  private void publish(
+      RoutingKey routingKey, Header header, Runnable send, String loggingMsgSuffix) {
+    EventType eventType = header.getType();
     log.with("eventType", eventType)
         .with("routingKey", routingKey)
         .info("Sending message to rabbit {}", loggingMsgSuffix);
-    sender.sendEvent(routingKey, genericEvent);
+    long publishStart = System.nanoTime();
+    try {
+      send.run();
+    } finally {
+      metrics.recordPublish(routingKey, header, System.nanoTime() - publishStart);
+    }
     log.with("eventType", eventType)
         .with("routingKey", routingKey)
         .info("Message sent successfully to rabbit");
@@ -0,0 +1,51 @@
+package uk.gov.ons.ctp.common.event;
+
+import uk.gov.ons.ctp.common.event.EventPublisher.RoutingKey;
+import uk.gov.ons.ctp.common.event.model.Header;
+
+/**
+ * Receives measurements from the stages of publishing an event. The event type, source and channel
+ * are taken from the header of the event.
+ *
+ * <p>Every method does nothing by default, and NOOP is used unless metrics are set on the
+ * EventPublisher, so publishing has no dependency on a metrics library.
+ */
+public interface EventPublisherMetrics {
+
+  EventPublisherMetrics NOOP = new EventPublisherMetrics() {};
+
+  /** Time taken to build an event from its payload. */
+  default void recordBuild(RoutingKey routingKey, Header header, long nanos) {}
+
+  /** Time taken to serialise an event, and the size of the message body. */
+  default void recordSerialisation(RoutingKey routingKey, Header header, long nanos, int bytes) {}
+
+  /** Time taken to hand an event to the broker, whether or not it succeeded. */
+  default void recordPublish(RoutingKey routingKey, Header header, long nanos) {}
+
+  /** An event was not sent because the circuit breaker was open. */
+  default void recordCircuitBreakerRejection(RoutingKey routingKey, Header header) {}
+
+  /**
+   * An event was saved straight to the persistent store, without calling the circuit breaker,
+   * because the breaker was open or half open.
+   */
+  default void recordCircuitBreakerBypass(RoutingKey routingKey, Header header) {}
+
+  /**
+   * An event was not sent because the maximum number of sends to its routing key were already in
+   * progress.
+   */
+  default void recordBulkheadRejection(RoutingKey routingKey, Header header) {}
+
+  /** Time for which the broker blocked the connection, recorded when it is unblocked. */
+  default void recordConnectionBlocked(long nanos) {}
+
+  /**
+   * Time taken to save an event to the persistent store after Rabbit failed to send it.
+   *
+   * @param success false if the event could not be saved either.
+   */
+  default void recordFallbackPersist(
+      RoutingKey routingKey, Header header, long nanos, boolean success) {}
+}
@@ -0,0 +1,24 @@
+package uk.gov.ons.ctp.common.event;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/** The outcome of publishing one event from a batch. */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class EventSendResult {
+
+  public enum Status {
+    /** Event was sent to Rabbit. */
+    SENT,
+    /** Rabbit failed to send the event, but it was saved to the persistent store. */
+    PERSISTED,
+    /** Neither Rabbit or the persistent store accepted the event. */
+    FAILED;
+  }
+
+  private String transactionId;
+  private Status status;
+}
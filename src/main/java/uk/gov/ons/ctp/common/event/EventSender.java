@@ -1,11 +1,146 @@
 package uk.gov.ons.ctp.common.event;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import uk.gov.ons.ctp.common.event.EventPublisher.RoutingKey;
 import uk.gov.ons.ctp.common.event.model.GenericEvent;
+import uk.gov.ons.ctp.common.event.model.Header;
 
 public interface EventSender {
 
   void sendEvent(RoutingKey routingKey, GenericEvent genericEvent);
 
+  /**
+   * Send a batch of events which share a routing key. Implementations which can confirm delivery
+   * should wait once for the whole batch rather than per event.
+   *
+   * @param routingKey the routing key for every event in the batch.
+   * @param genericEvents the events to send.
+   * @return the events which could not be sent. An empty list means the whole batch was sent.
+   */
+  default List<GenericEvent> sendEvents(RoutingKey routingKey, List<GenericEvent> genericEvents) {
+    List<GenericEvent> failed = new ArrayList<>();
+    for (GenericEvent genericEvent : genericEvents) {
+      try {
+        sendEvent(routingKey, genericEvent);
+      } catch (RuntimeException e) {
+        failed.add(genericEvent);
+      }
+    }
+    return failed;
+  }
+
+  /**
+   * Send a batch of events which share a routing key, taking the JSON of each from its
+   * SerialisedEvent, so that a sender which has to look at the JSON to decide where to send an
+   * event does not cause it to be serialised again. The default sends the events which have a
+   * GenericEvent with sendEvents, and any others one at a time with sendSerialisedEvent.
+   *
+   * @param routingKey the routing key for every event in the batch.
+   * @param serialisedEvents the events to send.
+   * @return the events which could not be sent. An empty list means the whole batch was sent.
+   */
+  default List<SerialisedEvent> sendSerialisedEvents(
+      RoutingKey routingKey, List<SerialisedEvent> serialisedEvents) {
+    List<GenericEvent> genericEvents = new ArrayList<>(serialisedEvents.size());
+    Map<GenericEvent, SerialisedEvent> byGenericEvent = new IdentityHashMap<>();
+    List<SerialisedEvent> failed = new ArrayList<>();
+    for (SerialisedEvent serialisedEvent : serialisedEvents) {
+      GenericEvent genericEvent = serialisedEvent.getGenericEvent();
+      if (genericEvent != null) {
+        genericEvents.add(genericEvent);
+        byGenericEvent.put(genericEvent, serialisedEvent);
+      } else {
+        try {
+          sendSerialisedEvent(routingKey, serialisedEvent);
+        } catch (RuntimeException e) {
+          failed.add(serialisedEvent);
+        }
+      }
+    }
+    if (!genericEvents.isEmpty()) {
+      for (GenericEvent genericEvent : sendEvents(routingKey, genericEvents)) {
+        failed.add(byGenericEvent.get(genericEvent));
+      }
+    }
+    return failed;
+  }
+
+  /**
+   * Send an event, taking its JSON from the SerialisedEvent so that it is serialised at most once
+   * even if the EventPublisher later has to persist it. Senders which do their own serialisation
+   * can rely on the default, which sends the GenericEvent, or the raw JSON if there is no
+   * GenericEvent.
+   *
+   * @param routingKey the routing key.
+   * @param serialisedEvent the event.
+   */
+  default void sendSerialisedEvent(RoutingKey routingKey, SerialisedEvent serialisedEvent) {
+    if (serialisedEvent.getGenericEvent() != null) {
+      sendEvent(routingKey, serialisedEvent.getGenericEvent());
+    } else {
+      try {
+        sendRawEvent(routingKey, serialisedEvent.getHeader(), serialisedEvent.getBody());
+      } catch (IOException e) {
+        throw new EventPublishException("Failed to serialise event", e);
+      }
+    }
+  }
+
+  /**
+   * Send an event which is already serialised, such as a backup event being replayed, without
+   * changing its body. Unlike sendEvent, a sender which confirms delivery waits for the broker to
+   * confirm the event before returning, so that the caller knows it can discard its copy.
+   *
+   * @param routingKey the routing key.
+   * @param header the header of the event, which must match the header in the body.
+   * @param body the serialised event.
+   * @throws UnsupportedOperationException if the sender cannot send serialised events.
+   */
+  default void sendRawEvent(RoutingKey routingKey, Header header, byte[] body) {
+    throw new UnsupportedOperationException(
+        getClass().getSimpleName() + " cannot send serialised events");
+  }
+
+  /**
+   * Find out if the sender implements sendRawEvent, so that a caller which needs it can check
+   * before it starts rather than failing on every event.
+   *
+   * @return true if sendRawEvent is supported.
+   */
+  default boolean supportsRawEvents() {
+    return false;
+  }
+
+  /**
+   * Register the handler to be told about events which were accepted by sendEvent but later found
+   * not to have been delivered. Senders which only report failures by throwing from sendEvent can
+   * ignore this.
+   *
+   * @param undeliveredEventHandler the handler.
+   */
+  default void setUndeliveredEventHandler(UndeliveredEventHandler undeliveredEventHandler) {}
+
+  /**
+   * Set where the sender records measurements, such as the time taken to serialise events.
+   *
+   * @param metrics the metrics.
+   */
+  default void setMetrics(EventPublisherMetrics metrics) {}
+
+  /**
+   * Find out if the sender can currently send events, so that a ShardedEventSender can move events
+   * away from a sender whose connection is down. Senders which cannot tell should rely on the
+   * default.
+   *
+   * @return false if a send would fail straight away.
+   */
+  default boolean isAvailable() {
+    return true;
+  }
+
   default void close() throws Exception {}
 }
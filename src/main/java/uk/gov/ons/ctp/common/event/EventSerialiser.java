@@ -0,0 +1,99 @@
+package uk.gov.ons.ctp.common.event;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import uk.gov.ons.ctp.common.event.model.GenericEvent;
+import uk.gov.ons.ctp.common.jackson.CustomObjectMapper;
+
+/**
+ * Serialises events into the UTF-8 JSON message body.
+ *
+ * <p>Jackson writes the UTF-8 bytes directly into a buffer which is reused by each thread, using an
+ * ObjectWriter which is created once per event class. The only allocation per event is the returned
+ * array, which is exactly the length of the message.
+ */
+public class EventSerialiser {
+
+  // Threads which have serialised an unusually large event do not hold on to the large buffer
+  private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+  private static final int INITIAL_BUFFER_SIZE = 2 * 1024;
+
+  private final ObjectMapper objectMapper;
+
+  private final ClassValue<ObjectWriter> writers =
+      new ClassValue<>() {
+        @Override
+        protected ObjectWriter computeValue(Class<?> type) {
+          return objectMapper.writerFor(type);
+        }
+      };
+
+  private final ThreadLocal<ReusableOutputStream> buffers =
+      ThreadLocal.withInitial(ReusableOutputStream::new);
+
+  public EventSerialiser() {
+    this(new CustomObjectMapper());
+  }
+
+  public EventSerialiser(ObjectMapper objectMapper) {
+    this.objectMapper = objectMapper;
+  }
+
+  /**
+   * Serialise an event.
+   *
+   * @param genericEvent the event.
+   * @return the UTF-8 encoded JSON for the event.
+   * @throws IOException if the event could not be serialised.
+   */
+  public byte[] serialise(GenericEvent genericEvent) throws IOException {
+    ReusableOutputStream buffer = buffers.get();
+    buffer.reset();
+    writers.get(genericEvent.getClass()).writeValue(buffer, genericEvent);
+    byte[] body = buffer.toByteArray();
+    if (buffer.capacity() > MAX_RETAINED_BUFFER_SIZE) {
+      buffers.remove();
+    }
+    return body;
+  }
+
+  /** Unsynchronised equivalent of ByteArrayOutputStream, for use by a single thread. */
+  private static class ReusableOutputStream extends OutputStream {
+    private byte[] buf = new byte[INITIAL_BUFFER_SIZE];
+    private int count;
+
+    @Override
+    public void write(int b) {
+      ensureCapacity(count + 1);
+      buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      ensureCapacity(count + len);
+      System.arraycopy(b, off, buf, count, len);
+      count += len;
+    }
+
+    void reset() {
+      count = 0;
+    }
+
+    int capacity() {
+      return buf.length;
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(buf, count);
+    }
+
+    private void ensureCapacity(int required) {
+      if (required > buf.length) {
+        buf = Arrays.copyOf(buf, Math.max(required, buf.length * 2));
+      }
+    }
+  }
+}
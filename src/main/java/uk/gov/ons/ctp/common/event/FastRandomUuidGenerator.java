@@ -0,0 +1,20 @@
+package uk.gov.ons.ctp.common.event;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Generates version 4 UUIDs from ThreadLocalRandom, so that publishing threads do not contend on a
+ * shared SecureRandom. The ids are unique but not cryptographically unpredictable, which is all
+ * that is needed for a transactionId.
+ */
+public class FastRandomUuidGenerator implements TransactionIdGenerator {
+
+  @Override
+  public String generate() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    long mostSigBits = (random.nextLong() & ~0xF000L) | 0x4000L;
+    long leastSigBits = (random.nextLong() & ~(0xC000000000000000L)) | 0x8000000000000000L;
+    return new UUID(mostSigBits, leastSigBits).toString();
+  }
+}
@@ -0,0 +1,237 @@
+package uk.gov.ons.ctp.common.event;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import uk.gov.ons.ctp.common.event.EventPublisher.RoutingKey;
+import uk.gov.ons.ctp.common.event.model.GenericEvent;
+import uk.gov.ons.ctp.common.event.model.Header;
+
+/**
+ * EventSender which keeps events in memory instead of sending them to a broker, for benchmarks,
+ * load tests and the tests of services which publish events.
+ *
+ * <p>The most recent events are kept in a fixed size ring buffer, which is written without locks so
+ * that it adds little to the cost of sending and does not grow however many events are sent. If
+ * serialisation is enabled each event is turned into the message body exactly as the
+ * NativeRabbitEventSender would do it.
+ *
+ * <p>A latency can be added to every send, and a proportion of sends can be made to fail, to
+ * exercise the circuit breaker and persistence fallback of the EventPublisher. Failures are spread
+ * evenly rather than randomly, so that a given number of sends always produces the same number of
+ * failures.
+ */
+public class InMemoryEventSender implements EventSender {
+
+  private static final long AWAIT_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final int capacity;
+  private final boolean serialise;
+  private final EventSerialiser eventSerialiser = new EventSerialiser();
+
+  private final AtomicReferenceArray<CapturedEvent> buffer;
+  private final AtomicLong sequence = new AtomicLong();
+  private final AtomicLong attempts = new AtomicLong();
+  private final AtomicLongArray sentCounts = new AtomicLongArray(RoutingKey.values().length);
+
+  private volatile long latencyNanos;
+  private volatile double failureRate;
+
+  /** An event which was sent, in the order sent. */
+  @Getter
+  @AllArgsConstructor
+  public static class CapturedEvent {
+    private final long sequence;
+    private final RoutingKey routingKey;
+    /** The event, or null if it was sent already serialised with sendRawEvent. */
+    private final GenericEvent genericEvent;
+    /** The serialised message body, or null if serialisation is not enabled. */
+    private final byte[] body;
+  }
+
+  /**
+   * Create a sender.
+   *
+   * @param capacity the number of most recent events to keep.
+   * @param serialise true to serialise each event, as a Rabbit sender would.
+   */
+  public InMemoryEventSender(int capacity, boolean serialise) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive");
+    }
+    this.capacity = capacity;
+    this.serialise = serialise;
+    this.buffer = new AtomicReferenceArray<>(capacity);
+  }
+
+  /**
+   * Set a delay to add to every send.
+   *
+   * @param latency the delay.
+   * @param unit the unit of the delay.
+   */
+  public void setLatency(long latency, TimeUnit unit) {
+    this.latencyNanos = unit.toNanos(latency);
+  }
+
+  /**
+   * Set the proportion of sends which fail by throwing an EventPublishException. Events which fail
+   * are not captured.
+   *
+   * @param failureRate from 0, for no failures, to 1, for every send to fail.
+   */
+  public void setFailureRate(double failureRate) {
+    if (failureRate < 0 || failureRate > 1) {
+      throw new IllegalArgumentException("Failure rate must be between 0 and 1");
+    }
+    this.failureRate = failureRate;
+  }
+
+  @Override
+  public void sendEvent(RoutingKey routingKey, GenericEvent genericEvent) {
+    byte[] body = null;
+    if (serialise) {
+      try {
+        body = eventSerialiser.serialise(genericEvent);
+      } catch (IOException e) {
+        throw new EventPublishException("Failed to serialise event", e);
+      }
+    }
+
+    capture(routingKey, genericEvent, body);
+  }
+
+  @Override
+  public void sendSerialisedEvent(RoutingKey routingKey, SerialisedEvent serialisedEvent) {
+    byte[] body = null;
+    if (serialise || serialisedEvent.getGenericEvent() == null) {
+      try {
+        body = serialisedEvent.getBody();
+      } catch (IOException e) {
+        throw new EventPublishException("Failed to serialise event", e);
+      }
+    }
+    capture(routingKey, serialisedEvent.getGenericEvent(), body);
+  }
+
+  @Override
+  public void sendRawEvent(RoutingKey routingKey, Header header, byte[] body) {
+    capture(routingKey, null, body);
+  }
+
+  @Override
+  public boolean supportsRawEvents() {
+    return true;
+  }
+
+  private void capture(RoutingKey routingKey, GenericEvent genericEvent, byte[] body) {
+    long latency = latencyNanos;
+    if (latency > 0) {
+      LockSupport.parkNanos(latency);
+    }
+    if (shouldFail(attempts.getAndIncrement())) {
+      throw new EventPublishException("Injected failure sending to " + routingKey.getKey());
+    }
+
+    long seq = sequence.getAndIncrement();
+    buffer.set((int) (seq % capacity), new CapturedEvent(seq, routingKey, genericEvent, body));
+    sentCounts.incrementAndGet(routingKey.ordinal());
+  }
+
+  // Send n fails if the number of failures due after n + 1 sends is more than after n sends
+  private boolean shouldFail(long attempt) {
+    double rate = failureRate;
+    return rate > 0 && (long) ((attempt + 1) * rate) > (long) (attempt * rate);
+  }
+
+  /**
+   * Get the number of events sent successfully with a routing key, including those no longer in the
+   * buffer.
+   *
+   * @param routingKey the routing key.
+   * @return the number of events.
+   */
+  public long getSentCount(RoutingKey routingKey) {
+    return sentCounts.get(routingKey.ordinal());
+  }
+
+  /**
+   * Get the number of events sent successfully, including those no longer in the buffer.
+   *
+   * @return the number of events.
+   */
+  public long getSentCount() {
+    return sequence.get();
+  }
+
+  /**
+   * Wait until a number of events have been sent with a routing key.
+   *
+   * @param routingKey the routing key.
+   * @param count the number of events to wait for, counting from creation or the last clear().
+   * @param timeout the maximum time to wait.
+   * @param unit the unit of the timeout.
+   * @return true if the events were sent, or false if the timeout expired first.
+   */
+  public boolean awaitSent(RoutingKey routingKey, long count, long timeout, TimeUnit unit) {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (getSentCount(routingKey) < count) {
+      if (System.nanoTime() - deadline >= 0 || Thread.currentThread().isInterrupted()) {
+        return false;
+      }
+      LockSupport.parkNanos(AWAIT_POLL_NANOS);
+    }
+    return true;
+  }
+
+  /**
+   * Get the events in the buffer, oldest first. Events which are overwritten while this runs are
+   * left out.
+   *
+   * @return the events.
+   */
+  public List<CapturedEvent> getCaptured() {
+    return getCaptured(null);
+  }
+
+  /**
+   * Get the events in the buffer that were sent with a routing key, oldest first.
+   *
+   * @param routingKey the routing key, or null for all events.
+   * @return the events.
+   */
+  public List<CapturedEvent> getCaptured(RoutingKey routingKey) {
+    long end = sequence.get();
+    long start = Math.max(0, end - capacity);
+    List<CapturedEvent> captured = new ArrayList<>((int) (end - start));
+    for (long seq = start; seq < end; seq++) {
+      CapturedEvent event = buffer.get((int) (seq % capacity));
+      // The slot may not be written yet, or may already hold a later event
+      if (event != null
+          && event.getSequence() == seq
+          && (routingKey == null || event.getRoutingKey() == routingKey)) {
+        captured.add(event);
+      }
+    }
+    return captured;
+  }
+
+  /** Discard the captured events and reset the counts. Only call this while nothing is sending. */
+  public void clear() {
+    for (int i = 0; i < capacity; i++) {
+      buffer.set(i, null);
+    }
+    for (int i = 0; i < sentCounts.length(); i++) {
+      sentCounts.set(i, 0);
+    }
+    sequence.set(0);
+    attempts.set(0);
+  }
+}
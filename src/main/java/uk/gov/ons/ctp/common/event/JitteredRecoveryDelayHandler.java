@@ -0,0 +1,49 @@
+package uk.gov.ons.ctp.common.event;
+
+import com.rabbitmq.client.RecoveryDelayHandler;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Delays between attempts to recover a Rabbit connection which double with each attempt, up to a
+ * maximum, with a random jitter of up to half of each delay. The jitter spreads out the reconnects
+ * of the many pods which lose their connections when the broker restarts, so that they do not all
+ * reconnect at the same moment.
+ */
+public class JitteredRecoveryDelayHandler implements RecoveryDelayHandler {
+
+  private final long initialDelayMillis;
+  private final long maxDelayMillis;
+
+  /**
+   * Create the handler.
+   *
+   * @param initialDelayMillis the delay before the first attempt, before jitter.
+   * @param maxDelayMillis the longest delay, before jitter.
+   */
+  public JitteredRecoveryDelayHandler(long initialDelayMillis, long maxDelayMillis) {
+    if (initialDelayMillis <= 0 || maxDelayMillis < initialDelayMillis) {
+      throw new IllegalArgumentException(
+          "Recovery delays must be positive, with the maximum at least the initial delay");
+    }
+    this.initialDelayMillis = initialDelayMillis;
+    this.maxDelayMillis = maxDelayMillis;
+  }
+
+  /**
+   * Get the delay before a recovery attempt.
+   *
+   * @param recoveryAttempts the number of attempts made so far.
+   * @return the delay in milliseconds, between half of the backoff delay and the whole of it.
+   */
+  @Override
+  public long getDelay(int recoveryAttempts) {
+    // Stop doubling once the maximum is reached, so that the shift cannot overflow
+    int doublings = Math.min(Math.max(recoveryAttempts, 0), 62);
+    long delay = maxDelayMillis;
+    if (doublings < Long.numberOfLeadingZeros(initialDelayMillis) - 1) {
+      delay = Math.min(maxDelayMillis, initialDelayMillis << doublings);
+    }
+    long half = delay / 2;
+    return delay - half + ThreadLocalRandom.current().nextLong(half + 1);
+  }
+}
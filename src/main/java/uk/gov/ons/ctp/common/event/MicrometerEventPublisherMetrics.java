@@ -0,0 +1,177 @@
+package uk.gov.ons.ctp.common.event;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import uk.gov.ons.ctp.common.event.EventPublisher.Channel;
+import uk.gov.ons.ctp.common.event.EventPublisher.EventType;
+import uk.gov.ons.ctp.common.event.EventPublisher.RoutingKey;
+import uk.gov.ons.ctp.common.event.EventPublisher.Source;
+import uk.gov.ons.ctp.common.event.model.Header;
+
+/**
+ * Records publishing metrics in a Micrometer MeterRegistry, tagged with eventType, routingKey,
+ * source and channel. The time for which the connection was blocked is not tagged, as it is not
+ * specific to an event.
+ *
+ * <p>The meters for each combination of tags are held in an array indexed by the ordinals of the
+ * tag values, so recording does not allocate or look anything up in the registry. The meters for a
+ * combination are registered by preRegister(), or otherwise when it is first used.
+ *
+ * <p>This is the only class which uses Micrometer. Micrometer is an optional dependency, so is only
+ * needed by applications which create one of these.
+ */
+public class MicrometerEventPublisherMetrics implements EventPublisherMetrics {
+
+  private static final String NONE = "none";
+
+  private static final int TYPES = EventType.values().length;
+  private static final int ROUTING_KEYS = RoutingKey.values().length;
+  private static final int SOURCES = Source.values().length + 1;
+  private static final int CHANNELS = Channel.values().length + 1;
+
+  private final MeterRegistry registry;
+  private final Timer connectionBlocked;
+  private final AtomicReferenceArray<Meters> meters =
+      new AtomicReferenceArray<>(TYPES * ROUTING_KEYS * SOURCES * CHANNELS);
+
+  /** The meters for one combination of tags. */
+  private static final class Meters {
+    private final Timer build;
+    private final Timer serialise;
+    private final DistributionSummary serialisedBytes;
+    private final Timer publish;
+    private final Counter circuitBreakerRejections;
+    private final Counter circuitBreakerBypasses;
+    private final Counter bulkheadRejections;
+    private final Timer fallbackPersist;
+    private final Counter fallbackFailures;
+
+    Meters(MeterRegistry registry, Tags tags) {
+      build = Timer.builder("event.publisher.build").tags(tags).register(registry);
+      serialise = Timer.builder("event.publisher.serialise").tags(tags).register(registry);
+      serialisedBytes =
+          DistributionSummary.builder("event.publisher.serialised.bytes")
+              .baseUnit("bytes")
+              .tags(tags)
+              .register(registry);
+      publish = Timer.builder("event.publisher.publish").tags(tags).register(registry);
+      circuitBreakerRejections =
+          Counter.builder("event.publisher.circuitbreaker.rejections")
+              .tags(tags)
+              .register(registry);
+      circuitBreakerBypasses =
+          Counter.builder("event.publisher.circuitbreaker.bypassed").tags(tags).register(registry);
+      bulkheadRejections =
+          Counter.builder("event.publisher.bulkhead.rejections").tags(tags).register(registry);
+      fallbackPersist =
+          Timer.builder("event.publisher.fallback.persist").tags(tags).register(registry);
+      fallbackFailures =
+          Counter.builder("event.publisher.fallback.failures").tags(tags).register(registry);
+    }
+  }
+
+  public MicrometerEventPublisherMetrics(MeterRegistry registry) {
+    this.registry = registry;
+    this.connectionBlocked = Timer.builder("event.publisher.connection.blocked").register(registry);
+  }
+
+  /**
+   * Register the meters for every routed event type sent with the given source and channel, so that
+   * they are reported before the first event is sent.
+   *
+   * @param source the source events are sent from.
+   * @param channel the channel events are sent from.
+   * @return this object.
+   */
+  public MicrometerEventPublisherMetrics preRegister(Source source, Channel channel) {
+    for (RoutingKey routingKey : RoutingKey.values()) {
+      for (EventType eventType : routingKey.getEventTypes()) {
+        meters(eventType, routingKey, source, channel);
+      }
+    }
+    return this;
+  }
+
+  @Override
+  public void recordBuild(RoutingKey routingKey, Header header, long nanos) {
+    meters(routingKey, header).build.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void recordSerialisation(RoutingKey routingKey, Header header, long nanos, int bytes) {
+    Meters m = meters(routingKey, header);
+    m.serialise.record(nanos, TimeUnit.NANOSECONDS);
+    m.serialisedBytes.record(bytes);
+  }
+
+  @Override
+  public void recordPublish(RoutingKey routingKey, Header header, long nanos) {
+    meters(routingKey, header).publish.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void recordCircuitBreakerRejection(RoutingKey routingKey, Header header) {
+    meters(routingKey, header).circuitBreakerRejections.increment();
+  }
+
+  @Override
+  public void recordCircuitBreakerBypass(RoutingKey routingKey, Header header) {
+    meters(routingKey, header).circuitBreakerBypasses.increment();
+  }
+
+  @Override
+  public void recordBulkheadRejection(RoutingKey routingKey, Header header) {
+    meters(routingKey, header).bulkheadRejections.increment();
+  }
+
+  @Override
+  public void recordConnectionBlocked(long nanos) {
+    connectionBlocked.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void recordFallbackPersist(
+      RoutingKey routingKey, Header header, long nanos, boolean success) {
+    Meters m = meters(routingKey, header);
+    m.fallbackPersist.record(nanos, TimeUnit.NANOSECONDS);
+    if (!success) {
+      m.fallbackFailures.increment();
+    }
+  }
+
+  private Meters meters(RoutingKey routingKey, Header header) {
+    return meters(header.getType(), routingKey, header.getSource(), header.getChannel());
+  }
+
+  private Meters meters(
+      EventType eventType, RoutingKey routingKey, Source source, Channel channel) {
+    int index =
+        ((eventType.ordinal() * ROUTING_KEYS + routingKey.ordinal()) * SOURCES
+                    + (source == null ? 0 : source.ordinal() + 1))
+                * CHANNELS
+            + (channel == null ? 0 : channel.ordinal() + 1);
+    Meters m = meters.get(index);
+    if (m == null) {
+      // The registry returns the existing meters if another thread registers them first
+      m =
+          new Meters(
+              registry,
+              Tags.of(
+                  "eventType",
+                  eventType.name(),
+                  "routingKey",
+                  routingKey.getKey(),
+                  "source",
+                  source == null ? NONE : source.name(),
+                  "channel",
+                  channel == null ? NONE : channel.name()));
+      meters.set(index, m);
+    }
+    return m;
+  }
+}
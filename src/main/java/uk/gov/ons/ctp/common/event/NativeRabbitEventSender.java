@@ -1,63 +1,151 @@
 package uk.gov.ons.ctp.common.event;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.godaddy.logging.Logger;
 import com.godaddy.logging.LoggerFactory;
 import com.rabbitmq.client.AMQP.BasicProperties;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryListener;
+import com.rabbitmq.client.ShutdownSignalException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import uk.gov.ons.ctp.common.error.CTPException;
 import uk.gov.ons.ctp.common.error.CTPException.Fault;
 import uk.gov.ons.ctp.common.event.EventPublisher.EventType;
 import uk.gov.ons.ctp.common.event.EventPublisher.RoutingKey;
+import uk.gov.ons.ctp.common.event.RabbitChannelPool.PooledChannel;
 import uk.gov.ons.ctp.common.event.model.GenericEvent;
-import uk.gov.ons.ctp.common.jackson.CustomObjectMapper;
+import uk.gov.ons.ctp.common.event.model.Header;
 
 public class NativeRabbitEventSender implements EventSender {
   private static final Logger log = LoggerFactory.getLogger(NativeRabbitEventSender.class);
 
+  private static final int PERSISTENT_DELIVERY_MODE = 2;
+  private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
   private Connection connection;
   private String exchange;
-  private Channel channel;
+  private RabbitChannelPool channelPool;
   private boolean addRmProperties;
+  private RabbitSenderOptions options;
+
+  private ScheduledExecutorService confirmExecutor;
+  private volatile UndeliveredEventHandler undeliveredEventHandler;
+  private volatile EventPublisherMetrics metrics = EventPublisherMetrics.NOOP;
+
+  private volatile RabbitConnectionState connectionState = RabbitConnectionState.OPEN;
+  private final List<RabbitConnectionStateListener> connectionStateListeners =
+      new CopyOnWriteArrayList<>();
 
-  private ObjectMapper objectMapper;
+  // Set while the broker has blocked the connection, which is written before the reason
+  private volatile String blockedReason;
+  private volatile long blockedSinceNanos;
+
+  private Map<EventType, BasicProperties> propertiesByType;
 
   public NativeRabbitEventSender(
       Connection rabbitConnection, String exchange, boolean addRmProperties) throws CTPException {
+    this(rabbitConnection, exchange, addRmProperties, RabbitSenderOptions.builder().build());
+  }
+
+  public NativeRabbitEventSender(
+      Connection rabbitConnection,
+      String exchange,
+      boolean addRmProperties,
+      RabbitSenderOptions options)
+      throws CTPException {
     this.connection = rabbitConnection;
     this.addRmProperties = addRmProperties;
+    this.options = options;
 
     try {
       this.exchange = exchange;
-      channel = connection.createChannel();
-      channel.exchangeDeclare(exchange, "topic", true);
+      channelPool =
+          new RabbitChannelPool(
+              connection,
+              this::getConnectionState,
+              exchange,
+              options.getChannelPoolSize(),
+              options.isPublisherConfirms(),
+              options.getChannelBorrowTimeoutMillis());
     } catch (IOException e) {
       String errorMessage = "Failed to create Rabbit channel";
       log.with("exchange", exchange).error(e, errorMessage);
       throw new CTPException(Fault.SYSTEM_ERROR, errorMessage);
     }
 
-    objectMapper = new CustomObjectMapper();
+    propertiesByType = createPropertiesByType();
+    connection.addBlockedListener(this::connectionBlocked, this::connectionUnblocked);
+    watchForRecovery();
+
+    if (options.isPublisherConfirms()) {
+      startConfirmMonitor();
+    }
   }
 
   public NativeRabbitEventSender(
       RabbitConnectionDetails connectionDetails, String exchange, boolean addRmProperties)
       throws CTPException {
-    this(createRabbitConnection(connectionDetails), exchange, addRmProperties);
+    this(connectionDetails, exchange, addRmProperties, RabbitSenderOptions.builder().build());
   }
 
-  private static Connection createRabbitConnection(RabbitConnectionDetails connectionDetails)
+  public NativeRabbitEventSender(
+      RabbitConnectionDetails connectionDetails,
+      String exchange,
+      boolean addRmProperties,
+      RabbitSenderOptions options)
       throws CTPException {
+    this(createRabbitConnection(connectionDetails, options), exchange, addRmProperties, options);
+  }
+
+  // Start the background task which fails events that the broker has not confirmed within the
+  // timeout. Its thread also runs the undelivered event handler.
+  private void startConfirmMonitor() {
+    confirmExecutor =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "rabbit-confirm-monitor");
+              thread.setDaemon(true);
+              return thread;
+            });
+    long timeoutMillis = options.getConfirmTimeoutMillis();
+    long sweepMillis = Math.max(10, timeoutMillis / 2);
+    confirmExecutor.scheduleWithFixedDelay(
+        () -> channelPool.expireConfirms(TimeUnit.MILLISECONDS.toNanos(timeoutMillis)),
+        sweepMillis,
+        sweepMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  // The connection reconnects by itself if it is lost, re-opening its channels and re-declaring
+  // the exchange, with a jittered backoff between attempts
+  private static Connection createRabbitConnection(
+      RabbitConnectionDetails connectionDetails, RabbitSenderOptions options) throws CTPException {
     ConnectionFactory factory = new ConnectionFactory();
     factory.setHost(connectionDetails.getHost());
     factory.setPort(connectionDetails.getPort());
     factory.setUsername(connectionDetails.getUsername());
     factory.setPassword(connectionDetails.getPassword());
+    factory.setAutomaticRecoveryEnabled(true);
+    factory.setTopologyRecoveryEnabled(true);
+    factory.setRecoveryDelayHandler(
+        new JitteredRecoveryDelayHandler(
+            options.getRecoveryInitialDelayMillis(), options.getRecoveryMaxDelayMillis()));
 
     try {
       return factory.newConnection();
@@ -68,50 +156,535 @@ public class NativeRabbitEventSender implements EventSender {
     }
   }
 
+  // Track the state of the connection. A connection created with automatic recovery enabled is
+  // Recoverable, and reconnects by itself after it is lost. Any other connection stays closed.
+  private void watchForRecovery() {
+    connection.addShutdownListener(this::connectionLost);
+    if (connection instanceof Recoverable) {
+      ((Recoverable) connection)
+          .addRecoveryListener(
+              new RecoveryListener() {
+                @Override
+                public void handleRecoveryStarted(Recoverable recoverable) {
+                  setConnectionState(RabbitConnectionState.RECOVERING, null);
+                }
+
+                @Override
+                public void handleRecovery(Recoverable recoverable) {
+                  connectionRecovered();
+                }
+              });
+    }
+  }
+
+  private void connectionLost(ShutdownSignalException cause) {
+    boolean recovering = !cause.isInitiatedByApplication() && connection instanceof Recoverable;
+    setConnectionState(
+        recovering ? RabbitConnectionState.RECOVERING : RabbitConnectionState.CLOSED, cause);
+  }
+
+  // The state is open before the exchange is declared, so that the pool may replace a channel
+  // which did not recover
+  private void connectionRecovered() {
+    setConnectionState(RabbitConnectionState.OPEN, null);
+    try {
+      channelPool.redeclareExchange();
+    } catch (IOException | RuntimeException e) {
+      log.with("exchange", exchange).warn(e, "Failed to declare exchange after recovery");
+    }
+  }
+
+  private void setConnectionState(RabbitConnectionState state, Throwable cause) {
+    RabbitConnectionState previous = connectionState;
+    connectionState = state;
+    if (previous == state) {
+      return;
+    }
+    switch (state) {
+      case OPEN:
+        log.with("exchange", exchange).info("Rabbit connection recovered");
+        break;
+      case RECOVERING:
+        log.with("exchange", exchange)
+            .warn(cause, "Rabbit connection lost. Events will not be sent until it is recovered");
+        break;
+      default:
+        if (cause instanceof ShutdownSignalException
+            && ((ShutdownSignalException) cause).isInitiatedByApplication()) {
+          log.with("exchange", exchange).info("Rabbit connection closed");
+        } else {
+          log.with("exchange", exchange)
+              .warn(cause, "Rabbit connection lost and will not be recovered");
+        }
+        break;
+    }
+    for (RabbitConnectionStateListener listener : connectionStateListeners) {
+      try {
+        listener.stateChanged(state, cause);
+      } catch (RuntimeException e) {
+        log.with("state", state).error(e, "Rabbit connection state listener failed");
+      }
+    }
+  }
+
+  /**
+   * Get the state of the connection. Sends fail straight away unless it is open.
+   *
+   * @return the state.
+   */
+  public RabbitConnectionState getConnectionState() {
+    return connectionState;
+  }
+
+  /**
+   * Be told when the connection is lost, and when it is recovered.
+   *
+   * @param listener called with each new state.
+   */
+  public void addConnectionStateListener(RabbitConnectionStateListener listener) {
+    connectionStateListeners.add(listener);
+  }
+
+  /**
+   * Find out if events can be sent, which they cannot while the connection is being recovered,
+   * closed or blocked.
+   *
+   * @return true if the connection is open and not blocked.
+   */
+  @Override
+  public boolean isAvailable() {
+    return connectionState == RabbitConnectionState.OPEN && blockedReason == null;
+  }
+
+  // The broker blocks publishing connections when it raises a memory or disk alarm. A publish
+  // would then hang until the alarm clears, so sends fail fast instead, and the EventPublisher
+  // saves the events to its persistent store.
+  private void connectionBlocked(String reason) {
+    blockedSinceNanos = System.nanoTime();
+    blockedReason = reason == null ? "unknown" : reason;
+    log.with("reason", reason)
+        .warn("Rabbit connection blocked by broker. Events will not be sent until it is unblocked");
+  }
+
+  private void connectionUnblocked() {
+    String reason = blockedReason;
+    if (reason == null) {
+      return;
+    }
+    long blockedNanos = System.nanoTime() - blockedSinceNanos;
+    blockedReason = null;
+    metrics.recordConnectionBlocked(blockedNanos);
+    log.with("reason", reason)
+        .with("blockedMillis", TimeUnit.NANOSECONDS.toMillis(blockedNanos))
+        .info("Rabbit connection unblocked by broker");
+  }
+
+  /**
+   * Find out if the broker has blocked the connection, for example because it is short of memory or
+   * disk space. While it is blocked every send fails straight away.
+   *
+   * @return true if the connection is blocked.
+   */
+  public boolean isBlocked() {
+    return blockedReason != null;
+  }
+
+  /**
+   * Get the reason the broker gave for blocking the connection.
+   *
+   * @return the reason, or null if the connection is not blocked.
+   */
+  public String getBlockedReason() {
+    return blockedReason;
+  }
+
+  // Fail straight away, rather than waiting on a connection which cannot send
+  private void checkCanSend() {
+    RabbitConnectionState state = connectionState;
+    if (state != RabbitConnectionState.OPEN) {
+      throw new EventConnectionUnavailableException(state);
+    }
+    String reason = blockedReason;
+    if (reason != null) {
+      throw new EventPublishException("Rabbit connection blocked by broker: " + reason);
+    }
+  }
+
+  @Override
+  public void setUndeliveredEventHandler(UndeliveredEventHandler undeliveredEventHandler) {
+    this.undeliveredEventHandler = undeliveredEventHandler;
+  }
+
+  @Override
+  public void setMetrics(EventPublisherMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * Close the connection. Events still waiting for a confirm are passed to the undelivered event
+   * handler before this returns.
+   *
+   * @throws IOException if the connection could not be closed cleanly.
+   */
   @Override
   public void close() throws IOException {
-    connection.close();
+    try {
+      connection.close();
+    } finally {
+      if (confirmExecutor != null) {
+        // Closing the connection normally fails unconfirmed events through the shutdown listeners
+        // of their channels, but fail any which are left so none are lost
+        channelPool.failAllConfirms(new EventPublishException("Rabbit sender closed"));
+        confirmExecutor.shutdown();
+        awaitUndeliveredHandlers();
+      }
+    }
   }
 
-  // create basic properties that may optionally partially simulate RM message properties.
-  private BasicProperties createBasicProperties(GenericEvent genericEvent) {
-    BasicProperties props = null;
-    if (this.addRmProperties) {
-      var headers = new HashMap<String, Object>();
-      EventType type = genericEvent.getEvent().getType();
-      switch (type) {
-        case CASE_CREATED:
-        case CASE_UPDATED:
-        case UAC_CREATED:
-        case UAC_UPDATED:
-          headers.put("__TypeId__", "uk.gov.ons.census.casesvc.model.dto.ResponseManagementEvent");
-          break;
-        default:
-          break;
+  private void awaitUndeliveredHandlers() {
+    try {
+      if (!confirmExecutor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        log.with("exchange", exchange)
+            .warn("Undelivered event handler still running when Rabbit sender closed");
       }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // Properties only depend on the event type, so are built once for each type rather than per
+  // message. They may optionally partially simulate RM message properties.
+  private Map<EventType, BasicProperties> createPropertiesByType() {
+    Map<EventType, BasicProperties> properties = new EnumMap<>(EventType.class);
+    for (EventType type : EventType.values()) {
+      BasicProperties.Builder builder =
+          new BasicProperties.Builder().deliveryMode(PERSISTENT_DELIVERY_MODE);
+      if (this.addRmProperties) {
+        var headers = new HashMap<String, Object>();
+        switch (type) {
+          case CASE_CREATED:
+          case CASE_UPDATED:
+          case UAC_CREATED:
+          case UAC_UPDATED:
+            headers.put(
+                "__TypeId__", "uk.gov.ons.census.casesvc.model.dto.ResponseManagementEvent");
+            break;
+          default:
+            break;
+        }
 
-      props =
-          new BasicProperties.Builder()
-              .contentType("application/json")
-              .contentEncoding("UTF-8")
-              .headers(headers)
-              .priority(0)
-              .build();
+        builder
+            .contentType("application/json")
+            .contentEncoding("UTF-8")
+            .headers(Collections.unmodifiableMap(headers))
+            .priority(0);
+      }
+      if (options.getPropertiesCustomiser() != null) {
+        options.getPropertiesCustomiser().customise(type, builder);
+      }
+      properties.put(type, builder.build());
     }
-    return props;
+    return Collections.unmodifiableMap(properties);
+  }
+
+  // The message id is the transaction id of the event, so that the broker can detect duplicates
+  private BasicProperties createBasicProperties(GenericEvent genericEvent) {
+    return createBasicProperties(genericEvent.getEvent());
+  }
+
+  private BasicProperties createBasicProperties(Header header) {
+    return propertiesByType
+        .get(header.getType())
+        .builder()
+        .messageId(header.getTransactionId())
+        .build();
   }
 
   @Override
   public void sendEvent(RoutingKey routingKey, GenericEvent genericEvent) {
+    sendSerialisedEvent(routingKey, SerialisedEvent.of(genericEvent));
+  }
+
+  @Override
+  public void sendSerialisedEvent(RoutingKey routingKey, SerialisedEvent serialisedEvent) {
+    GenericEvent genericEvent = serialisedEvent.getGenericEvent();
+    if (genericEvent == null) {
+      EventSender.super.sendSerialisedEvent(routingKey, serialisedEvent);
+      return;
+    }
+    checkCanSend();
     BasicProperties props = createBasicProperties(genericEvent);
     try {
-      channel.basicPublish(
-          exchange,
-          routingKey.getKey(),
-          props,
-          objectMapper.writeValueAsString(genericEvent).getBytes("UTF-8"));
+      byte[] body = serialise(routingKey, serialisedEvent);
+      CompletableFuture<Void> confirmation = null;
+      PooledChannel pooled = channelPool.borrow();
+      try {
+        confirmation = publish(pooled, routingKey, props, body);
+      } finally {
+        channelPool.release(pooled);
+      }
+
+      if (confirmation != null) {
+        confirmation.whenComplete(
+            (ok, failure) -> {
+              if (failure != null) {
+                dispatchUndelivered(routingKey, serialisedEvent, failure);
+              }
+            });
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Send an event which is already serialised. With publisher confirms enabled this waits up to the
+   * confirm timeout for the broker to confirm the event.
+   *
+   * @param routingKey the routing key.
+   * @param header the header of the event, which must match the header in the body.
+   * @param body the serialised event.
+   * @throws EventPublishException if the event could not be published or was not confirmed, or the
+   *     connection is blocked.
+   */
+  @Override
+  public void sendRawEvent(RoutingKey routingKey, Header header, byte[] body) {
+    checkCanSend();
+    BasicProperties props = createBasicProperties(header);
+    CompletableFuture<Void> confirmation;
+    try {
+      PooledChannel pooled = channelPool.borrow();
+      try {
+        confirmation = publish(pooled, routingKey, props, body);
+      } finally {
+        channelPool.release(pooled);
+      }
+    } catch (IOException e) {
+      throw new EventPublishException("Failed to publish event", e);
+    }
+
+    if (confirmation != null) {
+      try {
+        confirmation.get(options.getConfirmTimeoutMillis(), TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new EventPublishException("Interrupted waiting for broker to confirm event", e);
+      } catch (ExecutionException | TimeoutException e) {
+        throw new EventPublishException("Event not confirmed by broker", e);
+      }
+    }
+  }
+
+  @Override
+  public boolean supportsRawEvents() {
+    return true;
+  }
+
+  /**
+   * Send a batch of events. The whole batch is published on one channel. With publisher confirms
+   * enabled a single wait is then made for the broker to confirm the batch, rather than a round
+   * trip per event. Events in the batch are not passed to the undelivered event handler, as the
+   * caller is told about them directly. Events not confirmed within the confirm timeout are
+   * returned as failed, and any confirm which arrives for them later is ignored.
+   *
+   * @param routingKey the routing key for every event in the batch.
+   * @param genericEvents the events to send.
+   * @return the events which could not be published, or were not confirmed by the broker.
+   * @throws EventPublishException if the connection is blocked or being recovered.
+   */
+  @Override
+  public List<GenericEvent> sendEvents(RoutingKey routingKey, List<GenericEvent> genericEvents) {
+    List<SerialisedEvent> serialisedEvents = new ArrayList<>(genericEvents.size());
+    for (GenericEvent genericEvent : genericEvents) {
+      serialisedEvents.add(SerialisedEvent.of(genericEvent));
+    }
+    List<GenericEvent> failed = new ArrayList<>();
+    for (SerialisedEvent serialisedEvent : sendSerialisedEvents(routingKey, serialisedEvents)) {
+      failed.add(serialisedEvent.getGenericEvent());
+    }
+    return failed;
+  }
+
+  /**
+   * Send a batch of events in the same way as sendEvents, using the JSON of each SerialisedEvent
+   * rather than serialising the events again.
+   *
+   * @param routingKey the routing key for every event in the batch.
+   * @param serialisedEvents the events to send.
+   * @return the events which could not be published, or were not confirmed by the broker.
+   * @throws EventPublishException if the connection is blocked or being recovered.
+   */
+  @Override
+  public List<SerialisedEvent> sendSerialisedEvents(
+      RoutingKey routingKey, List<SerialisedEvent> serialisedEvents) {
+    checkCanSend();
+    int size = serialisedEvents.size();
+    byte[][] bodies = new byte[size][];
+    for (int i = 0; i < size; i++) {
+      try {
+        bodies[i] = serialise(routingKey, serialisedEvents.get(i));
+      } catch (IOException e) {
+        log.with("transactionId", serialisedEvents.get(i).getHeader().getTransactionId())
+            .error(e, "Failed to serialise event in batch");
+      }
+    }
+
+    PooledChannel pooled;
+    try {
+      pooled = channelPool.borrow();
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
+
+    PublisherConfirmTracker confirmTracker = pooled.getConfirmTracker();
+    List<CompletableFuture<Void>> confirmations = new ArrayList<>(size);
+    long[] deliveryTags = new long[size];
+    try {
+      for (int i = 0; i < size; i++) {
+        CompletableFuture<Void> confirmation = null;
+        if (bodies[i] != null) {
+          try {
+            BasicProperties props = createBasicProperties(serialisedEvents.get(i).getHeader());
+            if (confirmTracker != null) {
+              deliveryTags[i] = pooled.getChannel().getNextPublishSeqNo();
+            }
+            confirmation = publish(pooled, routingKey, props, bodies[i], deliveryTags[i]);
+            if (confirmation == null) {
+              confirmation = CompletableFuture.completedFuture(null);
+            }
+          } catch (IOException | RuntimeException e) {
+            log.with("routingKey", routingKey).error(e, "Failed to publish event in batch");
+          }
+        }
+        confirmations.add(confirmation);
+      }
+    } finally {
+      channelPool.release(pooled);
+    }
+
+    if (confirmTracker != null) {
+      awaitConfirms(confirmations);
+      abandonUnconfirmed(confirmTracker, confirmations, deliveryTags);
+    }
+
+    List<SerialisedEvent> failed = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      CompletableFuture<Void> confirmation = confirmations.get(i);
+      if (confirmation == null || confirmation.isCompletedExceptionally()) {
+        failed.add(serialisedEvents.get(i));
+      }
+    }
+    return failed;
+  }
+
+  // Wait until every published event in a batch is acked, nacked or the confirm timeout expires
+  private void awaitConfirms(List<CompletableFuture<Void>> confirmations) {
+    CompletableFuture<?>[] published =
+        confirmations.stream().filter(c -> c != null).toArray(CompletableFuture<?>[]::new);
+    try {
+      CompletableFuture.allOf(published)
+          .get(options.getConfirmTimeoutMillis(), TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException | TimeoutException e) {
+      // Outcome of each event is checked individually by the caller
+    }
+  }
+
+  // Stop tracking the events which were not confirmed in time, so that the caller's decision to
+  // treat them as failed is final and a late ack or nack is ignored. An event confirmed just
+  // before it is failed here keeps its confirm.
+  private void abandonUnconfirmed(
+      PublisherConfirmTracker confirmTracker,
+      List<CompletableFuture<Void>> confirmations,
+      long[] deliveryTags) {
+    for (int i = 0; i < deliveryTags.length; i++) {
+      CompletableFuture<Void> confirmation = confirmations.get(i);
+      if (confirmation != null && !confirmation.isDone()) {
+        confirmTracker.untrack(deliveryTags[i]);
+        confirmation.completeExceptionally(
+            new EventPublishException("Timed out waiting for broker confirm"));
+      }
+    }
+  }
+
+  /**
+   * Get the number of events published on every channel which the broker has not yet confirmed.
+   *
+   * @return the number of events.
+   */
+  int getOutstandingConfirmCount() {
+    return channelPool.getOutstandingConfirmCount();
+  }
+
+  // Only time the serialisation if it has not already been done
+  private byte[] serialise(RoutingKey routingKey, SerialisedEvent serialisedEvent)
+      throws IOException {
+    if (serialisedEvent.isSerialised()) {
+      return serialisedEvent.getBody();
+    }
+    long start = System.nanoTime();
+    byte[] body = serialisedEvent.getBody();
+    metrics.recordSerialisation(
+        routingKey, serialisedEvent.getHeader(), System.nanoTime() - start, body.length);
+    return body;
+  }
+
+  // Publish on a borrowed channel. If the channel is in confirm mode the publish is tracked and
+  // the returned future completes when the broker confirms it, otherwise null is returned.
+  private CompletableFuture<Void> publish(
+      PooledChannel pooled, RoutingKey routingKey, BasicProperties props, byte[] body)
+      throws IOException {
+    long deliveryTag =
+        pooled.getConfirmTracker() == null ? 0 : pooled.getChannel().getNextPublishSeqNo();
+    return publish(pooled, routingKey, props, body, deliveryTag);
+  }
+
+  private CompletableFuture<Void> publish(
+      PooledChannel pooled,
+      RoutingKey routingKey,
+      BasicProperties props,
+      byte[] body,
+      long deliveryTag)
+      throws IOException {
+    Channel channel = pooled.getChannel();
+    PublisherConfirmTracker confirmTracker = pooled.getConfirmTracker();
+    if (confirmTracker == null) {
+      channel.basicPublish(exchange, routingKey.getKey(), props, body);
+      return null;
+    }
+
+    CompletableFuture<Void> confirmation = confirmTracker.track(deliveryTag);
+    try {
+      channel.basicPublish(exchange, routingKey.getKey(), props, body);
+    } catch (IOException | RuntimeException e) {
+      confirmTracker.untrack(deliveryTag);
+      throw e;
+    }
+    return confirmation;
+  }
+
+  // Confirms arrive on the connection thread, so hand failures off rather than block it. Once the
+  // sender has closed the handler runs on the calling thread instead.
+  private void dispatchUndelivered(
+      RoutingKey routingKey, SerialisedEvent serialisedEvent, Throwable cause) {
+    try {
+      confirmExecutor.execute(() -> handleUndelivered(routingKey, serialisedEvent, cause));
+    } catch (RejectedExecutionException e) {
+      handleUndelivered(routingKey, serialisedEvent, cause);
+    }
+  }
+
+  private void handleUndelivered(
+      RoutingKey routingKey, SerialisedEvent serialisedEvent, Throwable cause) {
+    UndeliveredEventHandler handler = undeliveredEventHandler;
+    if (handler == null) {
+      log.with("eventType", serialisedEvent.getHeader().getType())
+          .with("routingKey", routingKey)
+          .with("transactionId", serialisedEvent.getHeader().getTransactionId())
+          .error(cause, "Event not confirmed by broker and no undelivered event handler is set");
+    } else {
+      handler.undelivered(routingKey, serialisedEvent, cause);
+    }
   }
 }
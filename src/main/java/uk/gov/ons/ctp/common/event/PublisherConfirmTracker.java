@@ -0,0 +1,116 @@
+package uk.gov.ons.ctp.common.event;
+
+import com.rabbitmq.client.ConfirmListener;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Tracks the events published on a channel in confirm mode until the broker acks or nacks them.
+ *
+ * <p>Outstanding events are held in a sorted map keyed by delivery tag, so that an ack or nack with
+ * the multiple flag set resolves every event up to and including that tag in one pass.
+ */
+class PublisherConfirmTracker implements ConfirmListener {
+
+  private final ConcurrentNavigableMap<Long, PendingConfirm> outstanding =
+      new ConcurrentSkipListMap<>();
+
+  private static class PendingConfirm {
+    private final long publishedNanos = System.nanoTime();
+    private final CompletableFuture<Void> confirmation = new CompletableFuture<>();
+  }
+
+  /**
+   * Start tracking a publish. This must be called before the event is published.
+   *
+   * @param deliveryTag the publish sequence number the channel will assign to the event.
+   * @return a future which completes when the broker acks the event, or completes exceptionally if
+   *     it is nacked or not confirmed in time.
+   */
+  CompletableFuture<Void> track(long deliveryTag) {
+    PendingConfirm pending = new PendingConfirm();
+    outstanding.put(deliveryTag, pending);
+    return pending.confirmation;
+  }
+
+  /**
+   * Stop tracking a publish which never reached the broker.
+   *
+   * @param deliveryTag the publish sequence number.
+   */
+  void untrack(long deliveryTag) {
+    outstanding.remove(deliveryTag);
+  }
+
+  @Override
+  public void handleAck(long deliveryTag, boolean multiple) {
+    resolve(deliveryTag, multiple, null);
+  }
+
+  @Override
+  public void handleNack(long deliveryTag, boolean multiple) {
+    resolve(deliveryTag, multiple, new EventPublishException("Broker nacked event"));
+  }
+
+  private void resolve(long deliveryTag, boolean multiple, Throwable failure) {
+    if (multiple) {
+      Map<Long, PendingConfirm> confirmed = outstanding.headMap(deliveryTag, true);
+      for (PendingConfirm pending : confirmed.values()) {
+        complete(pending, failure);
+      }
+      confirmed.clear();
+    } else {
+      PendingConfirm pending = outstanding.remove(deliveryTag);
+      if (pending != null) {
+        complete(pending, failure);
+      }
+    }
+  }
+
+  /**
+   * Fail any event which has waited longer than the timeout for its confirm. As delivery tags are
+   * assigned in publish order the scan stops at the first event still within its timeout.
+   *
+   * @param timeoutNanos the maximum time to wait for a confirm.
+   */
+  void expire(long timeoutNanos) {
+    long now = System.nanoTime();
+    for (Map.Entry<Long, PendingConfirm> entry : outstanding.entrySet()) {
+      PendingConfirm pending = entry.getValue();
+      if (now - pending.publishedNanos < timeoutNanos) {
+        break;
+      }
+      if (outstanding.remove(entry.getKey(), pending)) {
+        complete(pending, new EventPublishException("Timed out waiting for broker confirm"));
+      }
+    }
+  }
+
+  /**
+   * Fail every outstanding event, for example because the channel has closed.
+   *
+   * @param cause the reason the events will never be confirmed.
+   */
+  void failAll(Throwable cause) {
+    for (Long deliveryTag : outstanding.keySet()) {
+      PendingConfirm pending = outstanding.remove(deliveryTag);
+      if (pending != null) {
+        complete(pending, cause);
+      }
+    }
+  }
+
+  int getOutstandingCount() {
+    return outstanding.size();
+  }
+
+  private void complete(PendingConfirm pending, Throwable failure) {
+    if (failure == null) {
+      pending.confirmation.complete(null);
+    } else {
+      pending.confirmation.completeExceptionally(failure);
+    }
+  }
+}
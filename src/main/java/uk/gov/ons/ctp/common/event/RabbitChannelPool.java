@@ -0,0 +1,235 @@
+package uk.gov.ons.ctp.common.event;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ShutdownListener;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * A fixed size pool of channels on one Rabbit connection.
+ *
+ * <p>The RabbitMQ Java API does not support concurrent publishing on a Channel, so each publisher
+ * borrows a channel for its exclusive use and returns it afterwards. Channels which are found to be
+ * closed are replaced while the connection is open, and the exchange is only declared once for the
+ * connection.
+ */
+class RabbitChannelPool {
+  private static final Logger log = LoggerFactory.getLogger(RabbitChannelPool.class);
+
+  private final Connection connection;
+  private final Supplier<RabbitConnectionState> connectionState;
+  private final String exchange;
+  private final boolean publisherConfirms;
+  private final long borrowTimeoutMillis;
+
+  private final BlockingQueue<PooledChannel> idle;
+  private final List<PooledChannel> all = new CopyOnWriteArrayList<>();
+
+  private volatile boolean exchangeDeclared;
+
+  /**
+   * A channel, and the tracker of its unconfirmed publishes and the listener which fails them if it
+   * is in confirm mode.
+   */
+  static class PooledChannel {
+    private final Channel channel;
+    private final PublisherConfirmTracker confirmTracker;
+    private final ShutdownListener shutdownListener;
+
+    PooledChannel(
+        Channel channel,
+        PublisherConfirmTracker confirmTracker,
+        ShutdownListener shutdownListener) {
+      this.channel = channel;
+      this.confirmTracker = confirmTracker;
+      this.shutdownListener = shutdownListener;
+    }
+
+    Channel getChannel() {
+      return channel;
+    }
+
+    PublisherConfirmTracker getConfirmTracker() {
+      return confirmTracker;
+    }
+  }
+
+  RabbitChannelPool(
+      Connection connection,
+      Supplier<RabbitConnectionState> connectionState,
+      String exchange,
+      int size,
+      boolean publisherConfirms,
+      long borrowTimeoutMillis)
+      throws IOException {
+    this.connection = connection;
+    this.connectionState = connectionState;
+    this.exchange = exchange;
+    this.publisherConfirms = publisherConfirms;
+    this.borrowTimeoutMillis = borrowTimeoutMillis;
+    this.idle = new ArrayBlockingQueue<>(size);
+
+    for (int i = 0; i < size; i++) {
+      idle.add(createChannel());
+    }
+  }
+
+  /**
+   * Take a channel for exclusive use. It must be given back with release().
+   *
+   * @return an open channel.
+   * @throws IOException if a replacement for a closed channel could not be created.
+   * @throws EventConnectionUnavailableException if the channel is closed and the connection is not
+   *     open, so that it cannot be replaced yet.
+   */
+  PooledChannel borrow() throws IOException {
+    PooledChannel pooled;
+    try {
+      pooled = idle.poll(borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new EventPublishException("Interrupted waiting for a Rabbit channel", e);
+    }
+    if (pooled == null) {
+      throw new EventPublishException(
+          "No Rabbit channel available within " + borrowTimeoutMillis + "ms");
+    }
+
+    if (!pooled.channel.isOpen()) {
+      try {
+        pooled = replace(pooled);
+      } catch (IOException | RuntimeException e) {
+        // Keep the slot so that a later borrow can try again
+        idle.offer(pooled);
+        throw e;
+      }
+    }
+    return pooled;
+  }
+
+  /**
+   * Return a borrowed channel to the pool.
+   *
+   * @param pooled the channel returned by borrow().
+   */
+  void release(PooledChannel pooled) {
+    idle.offer(pooled);
+  }
+
+  /**
+   * Fail events which have waited longer than the timeout for a confirm, on every channel.
+   *
+   * @param timeoutNanos the maximum time to wait for a confirm.
+   */
+  void expireConfirms(long timeoutNanos) {
+    for (PooledChannel pooled : all) {
+      if (pooled.confirmTracker != null) {
+        pooled.confirmTracker.expire(timeoutNanos);
+      }
+    }
+  }
+
+  /**
+   * Fail every event still waiting for a confirm, on every channel.
+   *
+   * @param cause the reason the events will never be confirmed.
+   */
+  void failAllConfirms(Throwable cause) {
+    for (PooledChannel pooled : all) {
+      if (pooled.confirmTracker != null) {
+        pooled.confirmTracker.failAll(cause);
+      }
+    }
+  }
+
+  int getOutstandingConfirmCount() {
+    int count = 0;
+    for (PooledChannel pooled : all) {
+      if (pooled.confirmTracker != null) {
+        count += pooled.confirmTracker.getOutstandingCount();
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Declare the exchange again, for example after the connection has been recovered, in case the
+   * broker lost it and the connection does not recover its topology itself.
+   *
+   * @throws IOException if the exchange could not be declared.
+   */
+  void redeclareExchange() throws IOException {
+    PooledChannel pooled = borrow();
+    try {
+      pooled.channel.exchangeDeclare(exchange, "topic", true);
+    } finally {
+      release(pooled);
+    }
+  }
+
+  // A channel on a recoverable connection is reopened by the connection's recovery, so while the
+  // connection is not open a closed channel is left alone rather than replaced by one which
+  // recovery would then reopen as well. The old channel is aborted, which also stops the
+  // connection from recovering it, and its listeners are removed so nothing keeps it reachable.
+  private PooledChannel replace(PooledChannel broken) throws IOException {
+    RabbitConnectionState state = connectionState.get();
+    if (state != RabbitConnectionState.OPEN) {
+      throw new EventConnectionUnavailableException(state);
+    }
+    log.with("exchange", exchange).info("Replacing closed Rabbit channel");
+    all.remove(broken);
+    if (broken.confirmTracker != null) {
+      broken.channel.removeConfirmListener(broken.confirmTracker);
+      broken.channel.removeShutdownListener(broken.shutdownListener);
+      broken.confirmTracker.failAll(new EventPublishException("Rabbit channel closed"));
+    }
+    try {
+      broken.channel.abort();
+    } catch (IOException | RuntimeException e) {
+      log.with("exchange", exchange).debug(e, "Failed to abort closed Rabbit channel");
+    }
+    return createChannel();
+  }
+
+  private PooledChannel createChannel() throws IOException {
+    Channel channel = connection.createChannel();
+    if (channel == null) {
+      throw new IOException("No Rabbit channel available on connection");
+    }
+    declareExchange(channel);
+
+    PublisherConfirmTracker confirmTracker = null;
+    ShutdownListener shutdownListener = null;
+    if (publisherConfirms) {
+      channel.confirmSelect();
+      PublisherConfirmTracker tracker = new PublisherConfirmTracker();
+      channel.addConfirmListener(tracker);
+      shutdownListener = cause -> tracker.failAll(cause);
+      channel.addShutdownListener(shutdownListener);
+      confirmTracker = tracker;
+    }
+
+    PooledChannel pooled = new PooledChannel(channel, confirmTracker, shutdownListener);
+    all.add(pooled);
+    return pooled;
+  }
+
+  private void declareExchange(Channel channel) throws IOException {
+    if (!exchangeDeclared) {
+      synchronized (this) {
+        if (!exchangeDeclared) {
+          channel.exchangeDeclare(exchange, "topic", true);
+          exchangeDeclared = true;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,11 @@
+package uk.gov.ons.ctp.common.event;
+
+/** The state of the Rabbit connection a NativeRabbitEventSender publishes on. */
+public enum RabbitConnectionState {
+  /** Events can be sent. */
+  OPEN,
+  /** The connection was lost and is being re-established. Sends fail straight away. */
+  RECOVERING,
+  /** The connection was closed and will not be re-established. Sends fail straight away. */
+  CLOSED;
+}
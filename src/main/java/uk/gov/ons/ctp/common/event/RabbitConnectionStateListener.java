@@ -0,0 +1,14 @@
+package uk.gov.ons.ctp.common.event;
+
+/** Callback for changes to the state of the Rabbit connection of a NativeRabbitEventSender. */
+@FunctionalInterface
+public interface RabbitConnectionStateListener {
+
+  /**
+   * Called on a Rabbit client thread when the state changes.
+   *
+   * @param state the new state.
+   * @param cause why the connection was lost, or null if it was not.
+   */
+  void stateChanged(RabbitConnectionState state, Throwable cause);
+}
@@ -0,0 +1,42 @@
+package uk.gov.ons.ctp.common.event;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/** Optional settings for a NativeRabbitEventSender. */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class RabbitSenderOptions {
+
+  /**
+   * If true the channel is put into confirm mode and each event is tracked until the broker acks
+   * it. Events which are nacked, or not confirmed within confirmTimeoutMillis, are passed to the
+   * undelivered event handler.
+   */
+  @Builder.Default private boolean publisherConfirms = false;
+
+  @Builder.Default private long confirmTimeoutMillis = 5000;
+
+  /**
+   * Number of channels publishers can use concurrently. Each publish borrows a channel for its
+   * exclusive use, waiting up to channelBorrowTimeoutMillis for one to become free.
+   */
+  @Builder.Default private int channelPoolSize = 1;
+
+  @Builder.Default private long channelBorrowTimeoutMillis = 5000;
+
+  /**
+   * Delay before the first attempt to recover a lost connection, when the sender creates its own
+   * connection. Later attempts back off exponentially, with jitter, up to recoveryMaxDelayMillis.
+   */
+  @Builder.Default private long recoveryInitialDelayMillis = 1000;
+
+  @Builder.Default private long recoveryMaxDelayMillis = 30000;
+
+  /** Optional changes to the AMQP properties for each event type. */
+  private BasicPropertiesCustomiser propertiesCustomiser;
+}
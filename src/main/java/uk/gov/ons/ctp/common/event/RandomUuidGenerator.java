@@ -0,0 +1,15 @@
+package uk.gov.ons.ctp.common.event;
+
+import java.util.UUID;
+
+/**
+ * Generates version 4 UUIDs using UUID.randomUUID(). This uses a SecureRandom shared by every
+ * thread in the JVM.
+ */
+public class RandomUuidGenerator implements TransactionIdGenerator {
+
+  @Override
+  public String generate() {
+    return UUID.randomUUID().toString();
+  }
+}
@@ -0,0 +1,81 @@
+package uk.gov.ons.ctp.common.event;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.Getter;
+import org.springframework.cloud.client.circuitbreaker.CircuitBreaker;
+import uk.gov.ons.ctp.common.event.EventPublisher.RoutingKey;
+
+/**
+ * The circuit breaker and bulkhead of one routing key, created by the EventPublisher from its
+ * RoutingKeyIsolation. The bulkhead is a semaphore with a permit for each send which may be in
+ * progress at once.
+ */
+final class RoutingKeyGuard {
+  @Getter private final RoutingKey routingKey;
+
+  /** The circuit breaker, or null if the routing key uses the publisher's circuit breaker. */
+  @Getter private final CircuitBreaker circuitBreaker;
+
+  /** Decides when to skip the broker, or null if the state of the breaker is not known. */
+  @Getter private final CircuitBreakerBypass bypass;
+
+  private final CircuitBreakerState circuitBreakerState;
+  private final int maxConcurrentSends;
+  private final Semaphore bulkhead;
+  private final AtomicLong bulkheadRejections = new AtomicLong();
+
+  RoutingKeyGuard(RoutingKey routingKey, RoutingKeyIsolation isolation) {
+    if (isolation.getMaxConcurrentSends() < 0) {
+      throw new IllegalArgumentException("Max concurrent sends must not be negative");
+    }
+    String id = RoutingKeyIsolation.circuitBreakerId(routingKey);
+    this.routingKey = routingKey;
+    this.circuitBreaker =
+        isolation.getCircuitBreakerFactory() == null
+            ? null
+            : isolation.getCircuitBreakerFactory().create(id);
+    // Without a breaker of its own there is no breaker with this id to find the state of
+    this.circuitBreakerState =
+        circuitBreaker == null || isolation.getCircuitBreakerStates() == null
+            ? null
+            : isolation.getCircuitBreakerStates().apply(id);
+    this.bypass =
+        circuitBreakerState == null
+            ? null
+            : new CircuitBreakerBypass(
+                circuitBreakerState, isolation.getHalfOpenProbeFraction(), id);
+    this.maxConcurrentSends = isolation.getMaxConcurrentSends();
+    this.bulkhead = maxConcurrentSends == 0 ? null : new Semaphore(maxConcurrentSends);
+  }
+
+  /**
+   * Take a place in the bulkhead without waiting. If this returns true release() must be called
+   * when the send has finished.
+   *
+   * @return false if the bulkhead is full.
+   */
+  boolean tryAcquire() {
+    if (bulkhead == null || bulkhead.tryAcquire()) {
+      return true;
+    }
+    bulkheadRejections.incrementAndGet();
+    return false;
+  }
+
+  void release() {
+    if (bulkhead != null) {
+      bulkhead.release();
+    }
+  }
+
+  RoutingKeyStatus getStatus() {
+    int active = bulkhead == null ? 0 : maxConcurrentSends - bulkhead.availablePermits();
+    return new RoutingKeyStatus(
+        routingKey,
+        circuitBreakerState == null ? null : circuitBreakerState.getState(),
+        active,
+        maxConcurrentSends,
+        bulkheadRejections.get());
+  }
+}
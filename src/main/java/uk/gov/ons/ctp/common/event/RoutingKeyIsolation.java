@@ -0,0 +1,55 @@
+package uk.gov.ons.ctp.common.event;
+
+import java.util.function.Function;
+import lombok.Builder;
+import lombok.Getter;
+import org.springframework.cloud.client.circuitbreaker.CircuitBreakerFactory;
+import uk.gov.ons.ctp.common.event.EventPublisher.RoutingKey;
+
+/**
+ * Settings which give each routing key of an EventPublisher its own circuit breaker and bulkhead,
+ * so that a routing key whose sends are failing or slow only degrades its own traffic.
+ */
+@Getter
+@Builder
+public class RoutingKeyIsolation {
+
+  /**
+   * Creates a circuit breaker for each routing key, with the id given by circuitBreakerId(). If
+   * null the routing keys keep sharing the circuit breaker the publisher was created with, and so
+   * only get their own bulkhead.
+   */
+  private final CircuitBreakerFactory<?, ?> circuitBreakerFactory;
+
+  /**
+   * The most sends to one routing key which may be in progress at once, or 0 for no limit. A send
+   * which would exceed it is not queued, but fails straight away with an
+   * EventBulkheadFullException, so the event is saved to the persistent store if there is one.
+   */
+  @Builder.Default private final int maxConcurrentSends = 0;
+
+  /**
+   * Finds the state of the circuit breaker with a given id, for example
+   * CircuitBreakerState.lookup(registry). While a routing key's breaker is open its events are
+   * saved straight to the persistent store. If null the breakers are always called. This is not
+   * used without a circuitBreakerFactory, as the routing keys then use the state of the shared
+   * circuit breaker.
+   */
+  private final Function<String, CircuitBreakerState> circuitBreakerStates;
+
+  /** The fraction of events sent to the broker while a routing key's breaker is half open. */
+  @Builder.Default
+  private final double halfOpenProbeFraction =
+      CircuitBreakerBypass.DEFAULT_HALF_OPEN_PROBE_FRACTION;
+
+  /**
+   * Get the id of the circuit breaker for a routing key, which can be used to configure the breaker
+   * of one routing key differently from the others.
+   *
+   * @param routingKey the routing key.
+   * @return the circuit breaker id.
+   */
+  public static String circuitBreakerId(RoutingKey routingKey) {
+    return "event-publisher." + routingKey.getKey();
+  }
+}
@@ -0,0 +1,36 @@
+package uk.gov.ons.ctp.common.event;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import uk.gov.ons.ctp.common.event.CircuitBreakerState.State;
+import uk.gov.ons.ctp.common.event.EventPublisher.RoutingKey;
+
+/** A snapshot of the circuit breaker and bulkhead of one routing key of an EventPublisher. */
+@Getter
+@ToString
+@AllArgsConstructor
+public class RoutingKeyStatus {
+  private final RoutingKey routingKey;
+
+  /** The state of the circuit breaker, or null if it is not known. */
+  private final State circuitBreakerState;
+
+  /** The number of sends in progress. */
+  private final int activeSends;
+
+  /** The most sends which may be in progress at once, or 0 if there is no limit. */
+  private final int maxConcurrentSends;
+
+  /** The number of sends rejected because the bulkhead was full. */
+  private final long bulkheadRejections;
+
+  /**
+   * Find out if the bulkhead is full, so that another send would be rejected.
+   *
+   * @return true if the bulkhead is full.
+   */
+  public boolean isSaturated() {
+    return maxConcurrentSends > 0 && activeSends >= maxConcurrentSends;
+  }
+}
@@ -0,0 +1,100 @@
+package uk.gov.ons.ctp.common.event;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import uk.gov.ons.ctp.common.event.model.GenericEvent;
+import uk.gov.ons.ctp.common.event.model.Header;
+
+/**
+ * An event together with its serialised JSON, which is produced the first time it is needed and
+ * then shared. The EventPublisher passes the same SerialisedEvent to the EventSender and, if the
+ * send fails, to the EventPersistence, so an event is serialised at most once however it ends up
+ * being stored.
+ *
+ * <p>The JSON is compact, not pretty printed. If two threads ask for the JSON at the same time the
+ * event may be serialised twice, but both get the same content.
+ */
+public final class SerialisedEvent {
+  private static final EventSerialiser EVENT_SERIALISER = new EventSerialiser();
+
+  private final GenericEvent genericEvent;
+  private final Header header;
+  private volatile byte[] body;
+
+  private SerialisedEvent(GenericEvent genericEvent, Header header, byte[] body) {
+    this.genericEvent = genericEvent;
+    this.header = header;
+    this.body = body;
+  }
+
+  /**
+   * Wrap an event which has not been serialised yet.
+   *
+   * @param genericEvent the event.
+   * @return the envelope.
+   */
+  public static SerialisedEvent of(GenericEvent genericEvent) {
+    return new SerialisedEvent(genericEvent, genericEvent.getEvent(), null);
+  }
+
+  /**
+   * Wrap an event which is only available in serialised form, such as a backed up event.
+   *
+   * @param header the header of the event, which must match the header in the body.
+   * @param body the UTF-8 JSON of the event.
+   * @return the envelope. It has no GenericEvent.
+   */
+  public static SerialisedEvent of(Header header, byte[] body) {
+    return new SerialisedEvent(null, header, body);
+  }
+
+  /**
+   * Get the event.
+   *
+   * @return the event, or null if the envelope was created from serialised JSON.
+   */
+  public GenericEvent getGenericEvent() {
+    return genericEvent;
+  }
+
+  public Header getHeader() {
+    return header;
+  }
+
+  /**
+   * Find out if the event has been serialised yet, for example to decide whether to time the
+   * serialisation.
+   *
+   * @return true if getBody will not need to serialise the event.
+   */
+  public boolean isSerialised() {
+    return body != null;
+  }
+
+  /**
+   * Get the UTF-8 JSON of the event, serialising it if this is the first time it has been asked
+   * for. The array is shared, so must not be changed.
+   *
+   * @return the JSON.
+   * @throws IOException if the event could not be serialised.
+   */
+  public byte[] getBody() throws IOException {
+    byte[] serialised = body;
+    if (serialised == null) {
+      serialised = EVENT_SERIALISER.serialise(genericEvent);
+      body = serialised;
+    }
+    return serialised;
+  }
+
+  /**
+   * Get the JSON of the event as a string, serialising it if this is the first time it has been
+   * asked for.
+   *
+   * @return the JSON.
+   * @throws IOException if the event could not be serialised.
+   */
+  public String getJson() throws IOException {
+    return new String(getBody(), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,320 @@
+package uk.gov.ons.ctp.common.event;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import uk.gov.ons.ctp.common.error.CTPException;
+import uk.gov.ons.ctp.common.event.EventPublisher.RoutingKey;
+import uk.gov.ons.ctp.common.event.model.GenericEvent;
+import uk.gov.ons.ctp.common.event.model.Header;
+
+/**
+ * EventSender which spreads events across several senders, each normally a NativeRabbitEventSender
+ * with its own connection, so that publishing is not limited by the single I/O thread which serves
+ * a connection.
+ *
+ * <p>Each event is given to the shard chosen by its routing key or by a hash of its case id, so
+ * that the events of one routing key, or of one case, stay in order. Events without a case id are
+ * spread by transactionId. If the chosen shard is not available, for example because its connection
+ * is being recovered, the event goes to the next available shard instead. Events for a case may
+ * then overtake events which were sent to the failed shard just before it failed.
+ */
+public class ShardedEventSender implements EventSender {
+  private static final Logger log = LoggerFactory.getLogger(ShardedEventSender.class);
+
+  /** How events are assigned to shards. */
+  public enum ShardingStrategy {
+    /** All the events with a routing key go to the same shard. */
+    ROUTING_KEY,
+    /** All the events about a case go to the same shard. */
+    CASE_ID;
+  }
+
+  private final EventSender[] shards;
+  private final ShardingStrategy strategy;
+
+  private volatile EventPublisherMetrics metrics = EventPublisherMetrics.NOOP;
+
+  /**
+   * Create a sender over existing senders.
+   *
+   * @param shards the senders to spread events across.
+   * @param strategy how to choose the sender for each event.
+   */
+  public ShardedEventSender(List<? extends EventSender> shards, ShardingStrategy strategy) {
+    if (shards.isEmpty()) {
+      throw new IllegalArgumentException("At least one shard is required");
+    }
+    this.shards = shards.toArray(new EventSender[0]);
+    this.strategy = strategy;
+  }
+
+  /**
+   * Create a sender with a number of NativeRabbitEventSenders, each with its own connection.
+   *
+   * @param connectionDetails where to connect to.
+   * @param exchange the exchange to publish to.
+   * @param addRmProperties true to give events the message properties RM uses.
+   * @param options the settings for every shard.
+   * @param shardCount the number of connections.
+   * @param strategy how to choose the connection for each event.
+   * @return the sender.
+   * @throws CTPException if any of the connections could not be made.
+   */
+  public static ShardedEventSender create(
+      RabbitConnectionDetails connectionDetails,
+      String exchange,
+      boolean addRmProperties,
+      RabbitSenderOptions options,
+      int shardCount,
+      ShardingStrategy strategy)
+      throws CTPException {
+    if (shardCount <= 0) {
+      throw new IllegalArgumentException("Shard count must be positive");
+    }
+    List<NativeRabbitEventSender> shards = new ArrayList<>(shardCount);
+    try {
+      for (int i = 0; i < shardCount; i++) {
+        shards.add(
+            new NativeRabbitEventSender(connectionDetails, exchange, addRmProperties, options));
+      }
+    } catch (CTPException e) {
+      for (NativeRabbitEventSender shard : shards) {
+        closeQuietly(shard);
+      }
+      throw e;
+    }
+    return new ShardedEventSender(shards, strategy);
+  }
+
+  public int getShardCount() {
+    return shards.length;
+  }
+
+  @Override
+  public void sendEvent(RoutingKey routingKey, GenericEvent genericEvent) {
+    sendSerialisedEvent(routingKey, SerialisedEvent.of(genericEvent));
+  }
+
+  @Override
+  public void sendSerialisedEvent(RoutingKey routingKey, SerialisedEvent serialisedEvent) {
+    int preferred = selectShard(routingKey, caseIdOf(routingKey, serialisedEvent), serialisedEvent);
+    send(
+        preferred,
+        shard -> {
+          shard.sendSerialisedEvent(routingKey, serialisedEvent);
+          return null;
+        });
+  }
+
+  @Override
+  public void sendRawEvent(RoutingKey routingKey, Header header, byte[] body) {
+    String caseId =
+        strategy == ShardingStrategy.CASE_ID
+            ? EventJsonScanner.findCaseId(new String(body, StandardCharsets.UTF_8))
+            : null;
+    int preferred = selectShard(routingKey, caseId, header.getTransactionId());
+    send(
+        preferred,
+        shard -> {
+          shard.sendRawEvent(routingKey, header, body);
+          return null;
+        });
+  }
+
+  // A raw event can be sent to any shard if its preferred one is down, so every shard must support
+  // them
+  @Override
+  public boolean supportsRawEvents() {
+    for (EventSender shard : shards) {
+      if (!shard.supportsRawEvents()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Send a batch of events, split into one batch for each shard the events belong to.
+   *
+   * @param routingKey the routing key for every event in the batch.
+   * @param genericEvents the events to send.
+   * @return the events which could not be sent.
+   */
+  @Override
+  public List<GenericEvent> sendEvents(RoutingKey routingKey, List<GenericEvent> genericEvents) {
+    List<SerialisedEvent> serialisedEvents = new ArrayList<>(genericEvents.size());
+    for (GenericEvent genericEvent : genericEvents) {
+      serialisedEvents.add(SerialisedEvent.of(genericEvent));
+    }
+    List<GenericEvent> failed = new ArrayList<>();
+    for (SerialisedEvent serialisedEvent : sendSerialisedEvents(routingKey, serialisedEvents)) {
+      failed.add(serialisedEvent.getGenericEvent());
+    }
+    return failed;
+  }
+
+  /**
+   * Send a batch of events, split into one batch for each shard the events belong to. The
+   * SerialisedEvents are passed on to the shards, so an event which was serialised to find its case
+   * id is not serialised again. If a shard turns out to have lost its connection its batch is sent
+   * on the next available shard.
+   *
+   * @param routingKey the routing key for every event in the batch.
+   * @param serialisedEvents the events to send.
+   * @return the events which could not be sent.
+   */
+  @Override
+  public List<SerialisedEvent> sendSerialisedEvents(
+      RoutingKey routingKey, List<SerialisedEvent> serialisedEvents) {
+    List<List<SerialisedEvent>> batches = new ArrayList<>(shards.length);
+    for (int i = 0; i < shards.length; i++) {
+      batches.add(new ArrayList<>());
+    }
+    for (SerialisedEvent serialisedEvent : serialisedEvents) {
+      String caseId = caseIdOf(routingKey, serialisedEvent);
+      batches.get(selectShard(routingKey, caseId, serialisedEvent)).add(serialisedEvent);
+    }
+
+    List<SerialisedEvent> failed = new ArrayList<>();
+    for (int i = 0; i < shards.length; i++) {
+      List<SerialisedEvent> batch = batches.get(i);
+      if (batch.isEmpty()) {
+        continue;
+      }
+      try {
+        failed.addAll(send(i, shard -> shard.sendSerialisedEvents(routingKey, batch)));
+      } catch (RuntimeException e) {
+        log.with("routingKey", routingKey)
+            .with("shard", i)
+            .with("batchSize", batch.size())
+            .error(e, "Failed to send batch of events on shard");
+        failed.addAll(batch);
+      }
+    }
+    return failed;
+  }
+
+  // Send on the first available shard, starting from the preferred one. If the shard turns out
+  // to have lost its connection the next available shard is tried.
+  private <T> T send(int preferred, Function<EventSender, T> send) {
+    int shard = availableShard(preferred);
+    for (int attempt = 0; ; attempt++) {
+      try {
+        return send.apply(shards[shard]);
+      } catch (EventConnectionUnavailableException e) {
+        int next = availableShard((shard + 1) % shards.length);
+        if (attempt + 1 >= shards.length || next == shard) {
+          throw e;
+        }
+        log.with("shard", shard).with("nextShard", next).debug("Shard unavailable, moving event");
+        shard = next;
+      }
+    }
+  }
+
+  private int selectShard(RoutingKey routingKey, String caseId, SerialisedEvent serialisedEvent) {
+    return selectShard(routingKey, caseId, serialisedEvent.getHeader().getTransactionId());
+  }
+
+  // The shard an event belongs to, ignoring whether it is available
+  int selectShard(RoutingKey routingKey, String caseId, String transactionId) {
+    if (strategy == ShardingStrategy.ROUTING_KEY) {
+      return routingKey.ordinal() % shards.length;
+    }
+    String key = caseId != null ? caseId : transactionId;
+    return key == null ? 0 : Math.floorMod(key.hashCode(), shards.length);
+  }
+
+  // The first available shard starting from the preferred one, or the preferred one if none are
+  // available, so that the send fails in the usual way
+  private int availableShard(int preferred) {
+    for (int i = 0; i < shards.length; i++) {
+      int shard = (preferred + i) % shards.length;
+      if (shards[shard].isAvailable()) {
+        return shard;
+      }
+    }
+    return preferred;
+  }
+
+  // Finding the case id needs the JSON of the event. If that means serialising it here, the time
+  // is recorded here, as the shard will not serialise it again.
+  private String caseIdOf(RoutingKey routingKey, SerialisedEvent serialisedEvent) {
+    if (strategy != ShardingStrategy.CASE_ID) {
+      return null;
+    }
+    try {
+      if (!serialisedEvent.isSerialised()) {
+        long start = System.nanoTime();
+        byte[] body = serialisedEvent.getBody();
+        metrics.recordSerialisation(
+            routingKey, serialisedEvent.getHeader(), System.nanoTime() - start, body.length);
+      }
+      return EventJsonScanner.findCaseId(serialisedEvent.getJson());
+    } catch (IOException e) {
+      throw new EventPublishException("Failed to serialise event", e);
+    }
+  }
+
+  @Override
+  public boolean isAvailable() {
+    for (EventSender shard : shards) {
+      if (shard.isAvailable()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public void setUndeliveredEventHandler(UndeliveredEventHandler undeliveredEventHandler) {
+    for (EventSender shard : shards) {
+      shard.setUndeliveredEventHandler(undeliveredEventHandler);
+    }
+  }
+
+  @Override
+  public void setMetrics(EventPublisherMetrics metrics) {
+    this.metrics = metrics;
+    for (EventSender shard : shards) {
+      shard.setMetrics(metrics);
+    }
+  }
+
+  /**
+   * Close every shard, even if closing one of them fails.
+   *
+   * @throws Exception the first failure to close a shard.
+   */
+  @Override
+  public void close() throws Exception {
+    Exception failure = null;
+    for (EventSender shard : shards) {
+      try {
+        shard.close();
+      } catch (Exception e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private static void closeQuietly(EventSender shard) {
+    try {
+      shard.close();
+    } catch (Exception e) {
+      log.warn(e, "Failed to close shard");
+    }
+  }
+}
@@ -1,19 +1,94 @@
 package uk.gov.ons.ctp.common.event;
 
+import java.io.IOException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.ClassMapper;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.MessageConverter;
 import uk.gov.ons.ctp.common.event.EventPublisher.RoutingKey;
 import uk.gov.ons.ctp.common.event.model.GenericEvent;
 
+/**
+ * EventSender which sends events with a RabbitTemplate. By default every event is converted by the
+ * template's message converter, so the body and headers follow the application's converter
+ * settings.
+ *
+ * <p>Events which are already serialised, such as backup events being replayed with raw
+ * passthrough, cannot be sent, as the converter decides the __TypeId__ header from the class of the
+ * event. Use a NativeRabbitEventSender to replay them.
+ */
 public class SpringRabbitEventSender implements EventSender {
 
   private RabbitTemplate template;
+  private Jackson2JsonMessageConverter serialisedJsonConverter;
 
   public SpringRabbitEventSender(RabbitTemplate template) {
     this.template = template;
   }
 
+  /**
+   * Create a sender which can send the JSON of a SerialisedEvent, so that an event the publisher
+   * has to persist is not serialised twice. The JSON is written by the library's object mapper, not
+   * the converter's, so this must only be used when the template's converter is a
+   * Jackson2JsonMessageConverter whose object mapper writes events the same way. The __TypeId__
+   * header is still set by the converter's type mapper.
+   *
+   * @param template the template.
+   * @param sendSerialisedJson true to send the JSON of SerialisedEvents, false to always use the
+   *     converter.
+   * @throws IllegalArgumentException if sendSerialisedJson is true and the template's converter is
+   *     not a Jackson2JsonMessageConverter.
+   */
+  public SpringRabbitEventSender(RabbitTemplate template, boolean sendSerialisedJson) {
+    this.template = template;
+    if (sendSerialisedJson) {
+      MessageConverter converter = template.getMessageConverter();
+      if (!(converter instanceof Jackson2JsonMessageConverter)) {
+        throw new IllegalArgumentException(
+            "Serialised JSON can only be sent with a Jackson2JsonMessageConverter, not "
+                + (converter == null ? null : converter.getClass().getName()));
+      }
+      this.serialisedJsonConverter = (Jackson2JsonMessageConverter) converter;
+    }
+  }
+
   @Override
   public void sendEvent(RoutingKey routingKey, GenericEvent genericEvent) {
     template.convertAndSend(routingKey.getKey(), genericEvent);
   }
+
+  /**
+   * Send an event. Unless the sender was created to send serialised JSON this converts the event
+   * with the template's message converter, as sendEvent does.
+   *
+   * @param routingKey the routing key.
+   * @param serialisedEvent the event.
+   */
+  @Override
+  public void sendSerialisedEvent(RoutingKey routingKey, SerialisedEvent serialisedEvent) {
+    GenericEvent genericEvent = serialisedEvent.getGenericEvent();
+    if (serialisedJsonConverter == null || genericEvent == null) {
+      EventSender.super.sendSerialisedEvent(routingKey, serialisedEvent);
+      return;
+    }
+    byte[] body;
+    try {
+      body = serialisedEvent.getBody();
+    } catch (IOException e) {
+      throw new EventPublishException("Failed to serialise event", e);
+    }
+    MessageProperties properties = new MessageProperties();
+    properties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+    properties.setContentEncoding("UTF-8");
+    properties.setContentLength(body.length);
+    ClassMapper classMapper = serialisedJsonConverter.getClassMapper();
+    if (classMapper != null) {
+      classMapper.fromClass(genericEvent.getClass(), properties);
+    } else {
+      serialisedJsonConverter.getJavaTypeMapper().fromClass(genericEvent.getClass(), properties);
+    }
+    template.send(routingKey.getKey(), new Message(body, properties));
+  }
 }
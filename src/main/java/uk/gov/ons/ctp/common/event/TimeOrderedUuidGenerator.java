@@ -0,0 +1,32 @@
+package uk.gov.ons.ctp.common.event;
+
+import java.time.Clock;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Generates version 7 UUIDs. The first 48 bits hold the creation time in milliseconds since the
+ * epoch and the rest are random, so ids created in different milliseconds sort by creation time,
+ * both as UUIDs and as strings.
+ */
+public class TimeOrderedUuidGenerator implements TransactionIdGenerator {
+
+  private final Clock clock;
+
+  public TimeOrderedUuidGenerator() {
+    this(Clock.systemUTC());
+  }
+
+  public TimeOrderedUuidGenerator(Clock clock) {
+    this.clock = clock;
+  }
+
+  @Override
+  public String generate() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    long millis = clock.millis();
+    long mostSigBits = (millis << 16) | 0x7000L | (random.nextInt() & 0x0FFFL);
+    long leastSigBits = (random.nextLong() & ~(0xC000000000000000L)) | 0x8000000000000000L;
+    return new UUID(mostSigBits, leastSigBits).toString();
+  }
+}
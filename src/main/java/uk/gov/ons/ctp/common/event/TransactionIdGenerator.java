@@ -0,0 +1,25 @@
+package uk.gov.ons.ctp.common.event;
+
+/**
+ * Creates the transactionId put in the header of each event. Implementations must be thread safe,
+ * and should not contend on shared state as they are called by every publishing thread.
+ */
+@FunctionalInterface
+public interface TransactionIdGenerator {
+
+  /** Random UUID from UUID.randomUUID(). This is the default. */
+  TransactionIdGenerator RANDOM_UUID = new RandomUuidGenerator();
+
+  /** Random UUID in the same format as RANDOM_UUID, but generated without a shared lock. */
+  TransactionIdGenerator FAST_RANDOM_UUID = new FastRandomUuidGenerator();
+
+  /** UUID which starts with its creation time, so that ids sort in the order they were created. */
+  TransactionIdGenerator TIME_ORDERED_UUID = new TimeOrderedUuidGenerator();
+
+  /**
+   * Create a new transactionId.
+   *
+   * @return the id.
+   */
+  String generate();
+}
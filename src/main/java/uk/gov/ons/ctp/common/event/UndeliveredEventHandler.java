@@ -0,0 +1,14 @@
+package uk.gov.ons.ctp.common.event;
+
+import uk.gov.ons.ctp.common.event.EventPublisher.RoutingKey;
+
+/**
+ * Callback for events which a sender accepted but later found had not been delivered, for example
+ * because the broker nacked them or never confirmed them. The event is passed as the
+ * SerialisedEvent the sender published, so that it can be persisted without being serialised again.
+ */
+@FunctionalInterface
+public interface UndeliveredEventHandler {
+
+  void undelivered(RoutingKey routingKey, SerialisedEvent serialisedEvent, Throwable cause);
+}
@@ -0,0 +1,85 @@
+package uk.gov.ons.ctp.common.event.model;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import uk.gov.ons.ctp.common.jackson.CustomDateSerialiser;
+
+/**
+ * Writes dates in the same format as CustomDateSerialiser, e.g. "2020-06-29T13:25:36.042Z", without
+ * formatting the whole date each time.
+ *
+ * <p>Events are created in bursts, so consecutive dates are usually within the same second. The
+ * text up to and including the seconds is kept for the most recent second, and only the
+ * milliseconds are written for each date in that second. Dates outside the years 1900 to 9999 are
+ * passed to CustomDateSerialiser, so that its calendar rules still apply to them.
+ */
+public class CachingDateSerialiser extends StdSerializer<Date> {
+  private static final long serialVersionUID = 1L;
+
+  private static final DateTimeFormatter SECONDS_FORMAT =
+      DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss.").withZone(ZoneOffset.UTC);
+
+  private static final int PREFIX_LENGTH = 20;
+  private static final int FORMATTED_LENGTH = PREFIX_LENGTH + 4;
+
+  private static final long MIN_CACHED_MILLIS =
+      Instant.parse("1900-01-01T00:00:00Z").toEpochMilli();
+  private static final long MAX_CACHED_MILLIS =
+      Instant.parse("9999-12-31T23:59:59.999Z").toEpochMilli();
+
+  private static final CustomDateSerialiser fallback = new CustomDateSerialiser();
+
+  private transient volatile CachedSecond cachedSecond;
+
+  /** Formatted text of one second. Immutable, so it can be replaced safely by any thread. */
+  private static final class CachedSecond {
+    private final long epochSecond;
+    private final char[] prefix;
+
+    CachedSecond(long epochSecond, char[] prefix) {
+      this.epochSecond = epochSecond;
+      this.prefix = prefix;
+    }
+  }
+
+  public CachingDateSerialiser() {
+    super(Date.class);
+  }
+
+  @Override
+  public void serialize(Date value, JsonGenerator gen, SerializerProvider provider)
+      throws IOException {
+    long millis = value.getTime();
+    if (millis < MIN_CACHED_MILLIS || millis > MAX_CACHED_MILLIS) {
+      fallback.serialize(value, gen, provider);
+      return;
+    }
+    gen.writeString(format(millis), 0, FORMATTED_LENGTH);
+  }
+
+  char[] format(long millis) {
+    long epochSecond = Math.floorDiv(millis, 1000L);
+    int millisOfSecond = (int) Math.floorMod(millis, 1000L);
+
+    CachedSecond cached = cachedSecond;
+    if (cached == null || cached.epochSecond != epochSecond) {
+      String prefix = SECONDS_FORMAT.format(Instant.ofEpochSecond(epochSecond));
+      cached = new CachedSecond(epochSecond, prefix.toCharArray());
+      cachedSecond = cached;
+    }
+
+    char[] formatted = new char[FORMATTED_LENGTH];
+    System.arraycopy(cached.prefix, 0, formatted, 0, PREFIX_LENGTH);
+    formatted[PREFIX_LENGTH] = (char) ('0' + millisOfSecond / 100);
+    formatted[PREFIX_LENGTH + 1] = (char) ('0' + millisOfSecond / 10 % 10);
+    formatted[PREFIX_LENGTH + 2] = (char) ('0' + millisOfSecond % 10);
+    formatted[PREFIX_LENGTH + 3] = 'Z';
+    return formatted;
+  }
+}
@@ -9,7 +9,6 @@ import lombok.NoArgsConstructor;
 import uk.gov.ons.ctp.common.event.EventPublisher.Channel;
 import uk.gov.ons.ctp.common.event.EventPublisher.EventType;
 import uk.gov.ons.ctp.common.event.EventPublisher.Source;
-import uk.gov.ons.ctp.common.jackson.CustomDateSerialiser;
 
 @Data
 @NoArgsConstructor
@@ -21,7 +20,7 @@ public class Header {
   private Source source;
   private Channel channel;
 
-  @JsonSerialize(using = CustomDateSerialiser.class)
+  @JsonSerialize(using = CachingDateSerialiser.class)
   private Date dateTime;
 
   private String transactionId;
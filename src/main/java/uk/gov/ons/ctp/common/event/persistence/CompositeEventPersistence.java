@@ -0,0 +1,244 @@
+package uk.gov.ons.ctp.common.event.persistence;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import uk.gov.ons.ctp.common.error.CTPException;
+import uk.gov.ons.ctp.common.error.CTPException.Fault;
+import uk.gov.ons.ctp.common.event.EventPublisher.EventType;
+import uk.gov.ons.ctp.common.event.SerialisedEvent;
+import uk.gov.ons.ctp.common.event.model.GenericEvent;
+
+/**
+ * EventPersistence which tries a list of tiers in order until one of them stores the event, for
+ * example a bounded in-memory buffer, then a local disk spool, then Firestore.
+ *
+ * <p>A tier which fails or times out failureThreshold times in a row is skipped for skipMillis, so
+ * that events go straight to the next tier rather than waiting on one which is down. An exception
+ * is only thrown if no tier stores the event.
+ *
+ * <p>A tier with a timeout is called on a bounded pool of threads of its own. If it times out the
+ * call is interrupted and the event goes to the next tier, but the slow tier may still store it
+ * later, so the event can be replayed twice. If the tier's threads and queue are full the event
+ * goes to the next tier without waiting.
+ */
+public class CompositeEventPersistence implements ReplayableEventPersistence, Closeable {
+  private static final Logger log = LoggerFactory.getLogger(CompositeEventPersistence.class);
+
+  private final List<TierState> tiers = new ArrayList<>();
+
+  /** A tier, its recent health, and the threads it is called on if it has a timeout. */
+  private static final class TierState {
+    private final PersistenceTier tier;
+    private final ExecutorService timeoutExecutor;
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long skipUntilMillis;
+
+    TierState(PersistenceTier tier) {
+      this.tier = tier;
+      this.timeoutExecutor = tier.getTimeoutMillis() <= 0 ? null : createTimeoutExecutor(tier);
+    }
+  }
+
+  /**
+   * Create the chain of tiers.
+   *
+   * @param tiers the tiers, in the order they are tried.
+   */
+  public CompositeEventPersistence(List<PersistenceTier> tiers) {
+    if (tiers.isEmpty()) {
+      throw new IllegalArgumentException("At least one persistence tier is required");
+    }
+    for (PersistenceTier tier : tiers) {
+      this.tiers.add(new TierState(tier));
+    }
+  }
+
+  // A call which is rejected because the threads and queue are full fails straight away
+  private static ExecutorService createTimeoutExecutor(PersistenceTier tier) {
+    AtomicInteger threadCount = new AtomicInteger();
+    BlockingQueue<Runnable> queue =
+        tier.getMaxQueuedCalls() == 0
+            ? new SynchronousQueue<>()
+            : new ArrayBlockingQueue<>(tier.getMaxQueuedCalls());
+    return new ThreadPoolExecutor(
+        tier.getMaxConcurrentCalls(),
+        tier.getMaxConcurrentCalls(),
+        0,
+        TimeUnit.MILLISECONDS,
+        queue,
+        runnable -> {
+          Thread thread =
+              new Thread(
+                  runnable,
+                  "event-persistence-" + tier.getName() + "-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+
+  @Override
+  public void persistEvent(EventType eventType, GenericEvent genericEvent) throws CTPException {
+    persistSerialisedEvent(eventType, SerialisedEvent.of(genericEvent));
+  }
+
+  /**
+   * Persist an event in the first tier which accepts it. The event is serialised at most once,
+   * however many tiers are tried.
+   *
+   * @param eventType the event type.
+   * @param serialisedEvent the event.
+   * @throws CTPException if no tier stored the event.
+   */
+  @Override
+  public void persistSerialisedEvent(EventType eventType, SerialisedEvent serialisedEvent)
+      throws CTPException {
+    String id = serialisedEvent.getHeader().getTransactionId();
+    Exception lastFailure = null;
+
+    for (TierState state : tiers) {
+      PersistenceTier persistenceTier = state.tier;
+      if (System.currentTimeMillis() < state.skipUntilMillis) {
+        log.with("id", id).with("tier", persistenceTier.getName()).debug("Skipping unhealthy tier");
+        continue;
+      }
+
+      try {
+        persistInTier(state, eventType, serialisedEvent);
+        state.consecutiveFailures.set(0);
+        log.with("id", id).with("tier", persistenceTier.getName()).debug("Event persisted");
+        return;
+      } catch (Exception e) {
+        lastFailure = e;
+        int failures = state.consecutiveFailures.incrementAndGet();
+        boolean skip = failures >= persistenceTier.getFailureThreshold();
+        if (skip) {
+          state.skipUntilMillis = System.currentTimeMillis() + persistenceTier.getSkipMillis();
+        }
+        log.with("id", id)
+            .with("tier", persistenceTier.getName())
+            .with("consecutiveFailures", failures)
+            .with("skipping", skip)
+            .warn(e, "Persistence tier failed. Trying next tier");
+      }
+    }
+
+    String errorMessage = "No persistence tier stored the event";
+    log.with("id", id).error(lastFailure, errorMessage);
+    throw lastFailure == null
+        ? new CTPException(Fault.SYSTEM_ERROR, errorMessage)
+        : new CTPException(Fault.SYSTEM_ERROR, lastFailure, errorMessage);
+  }
+
+  private void persistInTier(TierState state, EventType eventType, SerialisedEvent serialisedEvent)
+      throws Exception {
+    PersistenceTier tier = state.tier;
+    if (state.timeoutExecutor == null) {
+      persistInTierNow(tier, eventType, serialisedEvent);
+      return;
+    }
+
+    Future<Void> future;
+    try {
+      future =
+          state.timeoutExecutor.submit(
+              () -> {
+                persistInTierNow(tier, eventType, serialisedEvent);
+                return null;
+              });
+    } catch (RejectedExecutionException e) {
+      throw new RejectedExecutionException(
+          "Persistence tier " + tier.getName() + " has too many calls in progress", e);
+    }
+    try {
+      future.get(tier.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+    } catch (TimeoutException e) {
+      future.cancel(true);
+      throw new TimeoutException(
+          "Persistence tier "
+              + tier.getName()
+              + " took more than "
+              + tier.getTimeoutMillis()
+              + "ms");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      future.cancel(true);
+      throw e;
+    }
+  }
+
+  private static void persistInTierNow(
+      PersistenceTier tier, EventType eventType, SerialisedEvent serialisedEvent)
+      throws CTPException {
+    EventPersistence persistence = tier.getPersistence();
+    if (persistence instanceof TierAwareEventPersistence) {
+      ((TierAwareEventPersistence) persistence)
+          .persistSerialisedEvent(eventType, serialisedEvent, tier.getName());
+    } else {
+      persistence.persistSerialisedEvent(eventType, serialisedEvent);
+    }
+  }
+
+  /**
+   * Replay the events held by each tier which can replay them, in tier order. Tiers which cannot,
+   * such as Firestore, are replayed by other means.
+   *
+   * @param handler called for each event. It returns true if the event has been dealt with.
+   * @return the number of events the handler dealt with.
+   * @throws CTPException if a tier could not replay its events.
+   */
+  @Override
+  public int replay(Predicate<EventBackupData> handler) throws CTPException {
+    boolean[] stopped = new boolean[1];
+    Predicate<EventBackupData> stopTracking =
+        event -> {
+          boolean handled = handler.test(event);
+          stopped[0] = !handled;
+          return handled;
+        };
+
+    int replayed = 0;
+    for (TierState state : tiers) {
+      EventPersistence persistence = state.tier.getPersistence();
+      if (persistence instanceof ReplayableEventPersistence) {
+        replayed += ((ReplayableEventPersistence) persistence).replay(stopTracking);
+        if (stopped[0]) {
+          break;
+        }
+      }
+    }
+    return replayed;
+  }
+
+  /** Stop the threads used for tier timeouts, and close any tiers which can be closed. */
+  @Override
+  public void close() throws IOException {
+    for (TierState state : tiers) {
+      if (state.timeoutExecutor != null) {
+        state.timeoutExecutor.shutdownNow();
+      }
+    }
+    for (TierState state : tiers) {
+      if (state.tier.getPersistence() instanceof Closeable) {
+        ((Closeable) state.tier.getPersistence()).close();
+      }
+    }
+  }
+}
@@ -22,4 +22,6 @@ public class EventBackupData {
   private Long messageSentDateTimeInMillis;
   private String id;
   private String event;
+  /** Name of the CompositeEventPersistence tier which stored the event, if there was one. */
+  private String tier;
 }
@@ -0,0 +1,34 @@
+package uk.gov.ons.ctp.common.event.persistence;
+
+import java.util.List;
+import uk.gov.ons.ctp.common.error.CTPException;
+
+/**
+ * Read access to a collection of backed up events, such as the Firestore collection written by
+ * FirestoreEventPersistence, for a ReplayEngine to page through.
+ */
+public interface EventBackupStore {
+
+  /**
+   * Find events which have not been resent, ordered by messageFailureDateTimeInMillis and then id,
+   * starting after the given position.
+   *
+   * @param afterFailureMillis the failure time of the last event already read, or null to start
+   *     from the oldest event.
+   * @param afterId the id of the last event already read, or null to start from the oldest event.
+   * @param limit the maximum number of events to return.
+   * @return the events, oldest first. An empty list means there are no more.
+   * @throws CTPException if the events could not be read.
+   */
+  List<EventBackupData> findUnsent(Long afterFailureMillis, String afterId, int limit)
+      throws CTPException;
+
+  /**
+   * Record that events have been resent. The messageSentDateTimeInMillis of each event is already
+   * set.
+   *
+   * @param events the events.
+   * @throws CTPException if the events could not be updated.
+   */
+  void markSent(List<EventBackupData> events) throws CTPException;
+}
@@ -2,9 +2,30 @@ package uk.gov.ons.ctp.common.event.persistence;
 
 import uk.gov.ons.ctp.common.error.CTPException;
 import uk.gov.ons.ctp.common.event.EventPublisher.EventType;
+import uk.gov.ons.ctp.common.event.SerialisedEvent;
 import uk.gov.ons.ctp.common.event.model.GenericEvent;
 
 public interface EventPersistence {
 
   void persistEvent(EventType eventType, GenericEvent genericEvent) throws CTPException;
+
+  /**
+   * Persist an event which may already have been serialised for sending. Implementations which
+   * store the JSON of the event should override this to take it from the SerialisedEvent, as the
+   * default passes the GenericEvent to persistEvent, which serialises it again.
+   *
+   * @param eventType the event type.
+   * @param serialisedEvent the event.
+   * @throws CTPException if the event could not be persisted.
+   * @throws IllegalArgumentException if the default is used for an event which only has a body.
+   */
+  default void persistSerialisedEvent(EventType eventType, SerialisedEvent serialisedEvent)
+      throws CTPException {
+    GenericEvent genericEvent = serialisedEvent.getGenericEvent();
+    if (genericEvent == null) {
+      throw new IllegalArgumentException(
+          getClass().getName() + " can only persist events which have a GenericEvent");
+    }
+    persistEvent(eventType, genericEvent);
+  }
 }
@@ -1,8 +1,8 @@
 package uk.gov.ons.ctp.common.event.persistence;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.godaddy.logging.Logger;
 import com.godaddy.logging.LoggerFactory;
+import java.io.IOException;
 import javax.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -11,6 +11,7 @@ import uk.gov.ons.ctp.common.cloud.RetryableCloudDataStore;
 import uk.gov.ons.ctp.common.error.CTPException;
 import uk.gov.ons.ctp.common.event.EventPublishException;
 import uk.gov.ons.ctp.common.event.EventPublisher.EventType;
+import uk.gov.ons.ctp.common.event.SerialisedEvent;
 import uk.gov.ons.ctp.common.event.model.GenericEvent;
 import uk.gov.ons.ctp.common.jackson.CustomObjectMapper;
 
@@ -18,12 +19,11 @@ import uk.gov.ons.ctp.common.jackson.CustomObjectMapper;
  * This class saves details about an event which Rabbit failed to sent into a Firestore collection.
  */
 @Service
-public class FirestoreEventPersistence implements EventPersistence {
+public class FirestoreEventPersistence implements TierAwareEventPersistence {
 
   private static final Logger log = LoggerFactory.getLogger(FirestoreEventPersistence.class);
 
   private RetryableCloudDataStore cloudDataStore;
-  private CustomObjectMapper objectMapper;
 
   @Value("${GOOGLE_CLOUD_PROJECT}")
   String gcpProject;
@@ -39,23 +39,43 @@ public class FirestoreEventPersistence implements EventPersistence {
   }
 
   @Autowired
-  public FirestoreEventPersistence(
-      RetryableCloudDataStore cloudDataStore, CustomObjectMapper objectMapper) {
+  public FirestoreEventPersistence(RetryableCloudDataStore cloudDataStore) {
     this.cloudDataStore = cloudDataStore;
-    this.objectMapper = objectMapper;
   }
 
-  private String serialise(Object obj) {
-    try {
-      return objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(obj);
-    } catch (JsonProcessingException e) {
-      throw new EventPublishException("Failed to serialise event to JSON", e);
-    }
+  /**
+   * Create the persistence with an object mapper, which is no longer used; events are written as
+   * the JSON of their SerialisedEvent.
+   *
+   * @param cloudDataStore the data store for event backups.
+   * @param objectMapper ignored.
+   * @deprecated use {@link #FirestoreEventPersistence(RetryableCloudDataStore)}.
+   */
+  @Deprecated
+  public FirestoreEventPersistence(
+      RetryableCloudDataStore cloudDataStore, CustomObjectMapper objectMapper) {
+    this(cloudDataStore);
   }
 
   @Override
   public void persistEvent(EventType eventType, GenericEvent genericEvent) throws CTPException {
-    String id = genericEvent.getEvent().getTransactionId();
+    persistSerialisedEvent(eventType, SerialisedEvent.of(genericEvent), null);
+  }
+
+  /**
+   * Store an event. The JSON stored is the compact JSON of the SerialisedEvent, written by the
+   * library's object mapper, so an event which was serialised for sending is not serialised again.
+   * Backups were pretty-printed before, but both forms read back the same.
+   *
+   * @param eventType the event type.
+   * @param serialisedEvent the event.
+   * @param tier the name of the CompositeEventPersistence tier, or null if there is none.
+   * @throws CTPException if the event could not be stored.
+   */
+  @Override
+  public void persistSerialisedEvent(
+      EventType eventType, SerialisedEvent serialisedEvent, String tier) throws CTPException {
+    String id = serialisedEvent.getHeader().getTransactionId();
 
     log.with("id", id).debug("Storing event data in Firestore");
 
@@ -63,13 +83,14 @@ public class FirestoreEventPersistence implements EventPersistence {
     eventData.setEventType(eventType);
     eventData.setMessageFailureDateTimeInMillis(System.currentTimeMillis());
     eventData.setId(id);
-    eventData.setEvent(serialise(genericEvent));
+    try {
+      eventData.setEvent(serialisedEvent.getJson());
+    } catch (IOException e) {
+      throw new EventPublishException("Failed to serialise event to JSON", e);
+    }
+    eventData.setTier(tier);
 
-    cloudDataStore.storeObject(
-        eventBackupSchema,
-        genericEvent.getEvent().getTransactionId(),
-        eventData,
-        genericEvent.getEvent().getTransactionId());
+    cloudDataStore.storeObject(eventBackupSchema, id, eventData, id);
 
     log.with("id", id).debug("Stored event data");
   }
@@ -0,0 +1,81 @@
+package uk.gov.ons.ctp.common.event.persistence;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Predicate;
+import uk.gov.ons.ctp.common.error.CTPException;
+import uk.gov.ons.ctp.common.error.CTPException.Fault;
+import uk.gov.ons.ctp.common.event.EventPublisher.EventType;
+import uk.gov.ons.ctp.common.event.SerialisedEvent;
+import uk.gov.ons.ctp.common.event.model.GenericEvent;
+
+/**
+ * Holds events which Rabbit failed to send in a bounded in-memory buffer, for later replay. It is
+ * intended as the first tier of a CompositeEventPersistence, to absorb short Rabbit outages. Events
+ * are lost if the process stops, and an event is refused once the buffer is full, so that it is
+ * passed to the next tier.
+ */
+public class InMemoryEventPersistence
+    implements ReplayableEventPersistence, TierAwareEventPersistence {
+  private static final Logger log = LoggerFactory.getLogger(InMemoryEventPersistence.class);
+
+  private final BlockingQueue<EventBackupData> events;
+
+  /**
+   * Create the buffer.
+   *
+   * @param capacity the maximum number of events held.
+   */
+  public InMemoryEventPersistence(int capacity) {
+    this.events = new ArrayBlockingQueue<>(capacity);
+  }
+
+  @Override
+  public void persistEvent(EventType eventType, GenericEvent genericEvent) throws CTPException {
+    persistSerialisedEvent(eventType, SerialisedEvent.of(genericEvent), null);
+  }
+
+  @Override
+  public void persistSerialisedEvent(
+      EventType eventType, SerialisedEvent serialisedEvent, String tier) throws CTPException {
+    String id = serialisedEvent.getHeader().getTransactionId();
+    EventBackupData eventData = new EventBackupData();
+    eventData.setEventType(eventType);
+    eventData.setMessageFailureDateTimeInMillis(System.currentTimeMillis());
+    eventData.setId(id);
+    eventData.setTier(tier);
+    try {
+      eventData.setEvent(serialisedEvent.getJson());
+    } catch (IOException e) {
+      throw new CTPException(Fault.SYSTEM_ERROR, e, "Failed to serialise event to JSON");
+    }
+
+    if (!events.offer(eventData)) {
+      log.with("id", id).warn("In memory event buffer is full");
+      throw new CTPException(Fault.SYSTEM_ERROR, "In memory event buffer is full");
+    }
+  }
+
+  @Override
+  public synchronized int replay(Predicate<EventBackupData> handler) {
+    int replayed = 0;
+    EventBackupData eventData;
+    while ((eventData = events.peek()) != null && handler.test(eventData)) {
+      events.poll();
+      replayed++;
+    }
+    return replayed;
+  }
+
+  /**
+   * Get the number of events waiting to be replayed.
+   *
+   * @return the number of events.
+   */
+  public int size() {
+    return events.size();
+  }
+}
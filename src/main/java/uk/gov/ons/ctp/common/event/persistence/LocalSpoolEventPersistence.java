@@ -0,0 +1,496 @@
+package uk.gov.ons.ctp.common.event.persistence;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.zip.CRC32C;
+import uk.gov.ons.ctp.common.error.CTPException;
+import uk.gov.ons.ctp.common.error.CTPException.Fault;
+import uk.gov.ons.ctp.common.event.EventPublisher.EventType;
+import uk.gov.ons.ctp.common.event.SerialisedEvent;
+import uk.gov.ons.ctp.common.event.model.GenericEvent;
+
+/**
+ * Saves events which Rabbit failed to send to files on local disk, for later replay.
+ *
+ * <p>Events are appended to a log made of fixed size segment files, which are memory mapped so that
+ * saving an event is a copy into memory rather than a remote call. Each record is prefixed with its
+ * length and a CRC32C checksum of its contents. Segments are written to disk together every
+ * syncIntervalMillis, or after every event if that is 0. An event saved since the last sync
+ * survives the process crashing, but not the machine failing.
+ *
+ * <p>When the log is opened any existing segments are read back. A record with a bad checksum or
+ * impossible length is a torn write from a crash, and it and anything after it in the segment is
+ * discarded. Once every record in a segment has been replayed the segment is deleted.
+ *
+ * <p>The replay position is kept in a small cursor file, which is synced with the segments, so that
+ * a restart carries on where replay had got to. Replay is at least once: an event replayed since
+ * the last sync, or one whose cursor update was lost, is replayed again after a restart.
+ *
+ * <p>Record layout: length (int), checksum (int), failure time in millis (long), then the event
+ * type, transaction id and tier (each a short length then UTF-8), then the event JSON (UTF-8, the
+ * rest of the record). Cursor layout: segment number (long), position in the segment (int), then a
+ * CRC32C checksum of both (int).
+ */
+public class LocalSpoolEventPersistence
+    implements ReplayableEventPersistence, TierAwareEventPersistence, Closeable {
+  private static final Logger log = LoggerFactory.getLogger(LocalSpoolEventPersistence.class);
+
+  public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+  public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 50;
+
+  private static final String SEGMENT_PREFIX = "spool-";
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final int RECORD_HEADER_SIZE = 8;
+  private static final String CURSOR_FILE = "spool.cursor";
+  private static final int CURSOR_SIZE = 16;
+
+  private final Path directory;
+  private final int segmentSize;
+  private final long syncIntervalMillis;
+
+  // Oldest first. The last segment is the one being appended to.
+  private final List<Segment> segments = new ArrayList<>();
+  private Segment active;
+
+  // Position of the next record to replay. Only used while holding replayLock.
+  private final Object replayLock = new Object();
+  private Segment replaySegment;
+  private int replayPosition;
+
+  // The replay position as last saved, mapped from the cursor file
+  private FileChannel cursorChannel;
+  private MappedByteBuffer cursor;
+
+  private ScheduledExecutorService syncExecutor;
+  private volatile boolean dirty;
+  private volatile boolean cursorDirty;
+  private boolean closed;
+
+  /**
+   * One file of the log. Its limit is where the next record will be written. The buffer is only
+   * written to, and its position only used, while holding the lock of the spool.
+   */
+  private static final class Segment {
+    private final long number;
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private int limit;
+
+    Segment(long number, Path path, FileChannel channel, MappedByteBuffer buffer) {
+      this.number = number;
+      this.path = path;
+      this.channel = channel;
+      this.buffer = buffer;
+    }
+  }
+
+  public LocalSpoolEventPersistence(Path directory) throws CTPException {
+    this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_SYNC_INTERVAL_MILLIS);
+  }
+
+  /**
+   * Open the spool, recovering any events left by a previous run.
+   *
+   * @param directory the directory holding the segment files. It is created if necessary.
+   * @param segmentSize the size of each segment file. No event can be larger than this.
+   * @param syncIntervalMillis how often written events are synced to disk, or 0 to sync each one.
+   * @throws CTPException if the spool could not be opened.
+   */
+  public LocalSpoolEventPersistence(Path directory, long segmentSize, long syncIntervalMillis)
+      throws CTPException {
+    if (segmentSize <= RECORD_HEADER_SIZE || segmentSize > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+    }
+    this.directory = directory;
+    this.segmentSize = (int) segmentSize;
+    this.syncIntervalMillis = syncIntervalMillis;
+
+    try {
+      Files.createDirectories(directory);
+      recover();
+    } catch (IOException e) {
+      String errorMessage = "Failed to open event spool";
+      log.with("directory", directory).error(e, errorMessage);
+      throw new CTPException(Fault.SYSTEM_ERROR, e, errorMessage);
+    }
+
+    if (syncIntervalMillis > 0) {
+      startSync();
+    }
+  }
+
+  @Override
+  public void persistEvent(EventType eventType, GenericEvent genericEvent) throws CTPException {
+    persistSerialisedEvent(eventType, SerialisedEvent.of(genericEvent), null);
+  }
+
+  @Override
+  public void persistSerialisedEvent(
+      EventType eventType, SerialisedEvent serialisedEvent, String tier) throws CTPException {
+    String id = serialisedEvent.getHeader().getTransactionId();
+    byte[] record;
+    try {
+      record = encode(eventType, id, tier, System.currentTimeMillis(), serialisedEvent.getBody());
+    } catch (IOException e) {
+      throw new CTPException(Fault.SYSTEM_ERROR, e, "Failed to serialise event to JSON");
+    }
+    if (record.length > segmentSize) {
+      log.with("id", id).with("size", record.length).error("Event too large for spool segment");
+      throw new CTPException(Fault.SYSTEM_ERROR, "Event too large for spool segment");
+    }
+
+    synchronized (this) {
+      if (closed) {
+        throw new CTPException(Fault.SYSTEM_ERROR, "Event spool is closed");
+      }
+      try {
+        if (active.limit + record.length > segmentSize) {
+          rotate();
+        }
+        active.buffer.position(active.limit);
+        active.buffer.put(record);
+        active.limit += record.length;
+        if (syncIntervalMillis == 0) {
+          active.buffer.force();
+        } else {
+          dirty = true;
+        }
+      } catch (IOException e) {
+        String errorMessage = "Failed to write event to spool";
+        log.with("id", id).error(e, errorMessage);
+        throw new CTPException(Fault.SYSTEM_ERROR, e, errorMessage);
+      }
+    }
+    log.with("id", id).debug("Stored event data in spool");
+  }
+
+  /**
+   * Replay spooled events, oldest first. Segments whose events have all been replayed are deleted.
+   * Only one replay runs at a time.
+   *
+   * @param handler called for each event. It returns true if the event has been dealt with.
+   * @return the number of events the handler dealt with.
+   * @throws CTPException if a segment could not be deleted.
+   */
+  @Override
+  public int replay(Predicate<EventBackupData> handler) throws CTPException {
+    int replayed = 0;
+    synchronized (replayLock) {
+      while (true) {
+        Segment segment;
+        int limit;
+        synchronized (this) {
+          if (closed) {
+            return replayed;
+          }
+          if (replaySegment == null || !segments.contains(replaySegment)) {
+            replaySegment = segments.get(0);
+            replayPosition = 0;
+          }
+          segment = replaySegment;
+          limit = segment.limit;
+          if (replayPosition >= limit) {
+            if (!finishSegment(segment)) {
+              return replayed;
+            }
+            continue;
+          }
+        }
+
+        // Records below the limit read under the lock are complete, so are read without it
+        ByteBuffer buffer = segment.buffer.duplicate();
+        while (replayPosition < limit) {
+          int length = buffer.getInt(replayPosition);
+          EventBackupData event = decode(buffer, replayPosition + RECORD_HEADER_SIZE, length);
+          if (!handler.test(event)) {
+            return replayed;
+          }
+          replayed++;
+          replayPosition += RECORD_HEADER_SIZE + length;
+          saveCursor();
+        }
+      }
+    }
+  }
+
+  // Called with the lock held when every record of a segment has been replayed. A finished
+  // segment which is still being written to is replaced by a new one, so that it can be deleted.
+  // Returns false if there is nothing more to replay.
+  private boolean finishSegment(Segment segment) throws CTPException {
+    if (segment == active && segment.limit == 0) {
+      return false;
+    }
+    try {
+      if (segment == active) {
+        rotate();
+      }
+      delete(segment);
+    } catch (IOException e) {
+      String errorMessage = "Failed to delete replayed spool segment";
+      log.with("segment", segment.path).error(e, errorMessage);
+      throw new CTPException(Fault.SYSTEM_ERROR, e, errorMessage);
+    }
+    replaySegment = segments.get(0);
+    replayPosition = 0;
+    saveCursor();
+    return true;
+  }
+
+  // Called with replayLock held after the replay position moves
+  private void saveCursor() {
+    ByteBuffer position = ByteBuffer.allocate(CURSOR_SIZE);
+    position.putLong(replaySegment.number).putInt(replayPosition);
+    position.putInt(checksum(position, 0, 12));
+    cursor.duplicate().put(position.array());
+    if (syncIntervalMillis == 0) {
+      cursor.force();
+    } else {
+      cursorDirty = true;
+    }
+  }
+
+  /**
+   * Get the number of segment files in the spool, including the one being written to.
+   *
+   * @return the number of segments.
+   */
+  public synchronized int getSegmentCount() {
+    return segments.size();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (syncExecutor != null) {
+      syncExecutor.shutdownNow();
+    }
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      for (Segment segment : segments) {
+        segment.buffer.force();
+        segment.channel.close();
+      }
+      cursor.force();
+      cursorChannel.close();
+    }
+  }
+
+  private void startSync() {
+    syncExecutor =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "event-spool-sync");
+              thread.setDaemon(true);
+              return thread;
+            });
+    syncExecutor.scheduleWithFixedDelay(
+        this::sync, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  // Sync every segment written to since the last sync, and the cursor. Rotation syncs the segment
+  // it
+  // seals, so only the active segment can have unsynced records.
+  private void sync() {
+    if (cursorDirty) {
+      cursorDirty = false;
+      synchronized (this) {
+        if (closed) {
+          return;
+        }
+      }
+      cursor.force();
+    }
+    if (dirty) {
+      dirty = false;
+      MappedByteBuffer buffer;
+      synchronized (this) {
+        if (closed) {
+          return;
+        }
+        buffer = active.buffer;
+      }
+      buffer.force();
+    }
+  }
+
+  private void recover() throws IOException {
+    List<Path> paths = new ArrayList<>();
+    try (DirectoryStream<Path> stream =
+        Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+      stream.forEach(paths::add);
+    }
+    Collections.sort(paths);
+
+    for (Path path : paths) {
+      Segment segment = open(path, segmentNumber(path));
+      segment.limit = scan(segment);
+      segments.add(segment);
+    }
+
+    if (segments.isEmpty()) {
+      active = open(segmentPath(0), 0);
+      segments.add(active);
+    } else {
+      active = segments.get(segments.size() - 1);
+    }
+    recoverCursor();
+    log.with("directory", directory).with("segments", segments.size()).info("Event spool opened");
+  }
+
+  // Start replay from the saved position if it is in the oldest segment. Otherwise that segment
+  // had not been started, or the cursor is unreadable, and replay starts from its beginning.
+  private void recoverCursor() throws IOException {
+    cursorChannel =
+        FileChannel.open(
+            directory.resolve(CURSOR_FILE),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+    cursor = cursorChannel.map(FileChannel.MapMode.READ_WRITE, 0, CURSOR_SIZE);
+
+    long number = cursor.getLong(0);
+    int position = cursor.getInt(8);
+    Segment oldest = segments.get(0);
+    if (cursor.getInt(12) == checksum(cursor, 0, 12)
+        && number == oldest.number
+        && position >= 0
+        && position <= oldest.limit) {
+      replaySegment = oldest;
+      replayPosition = position;
+      log.with("segment", oldest.path).with("position", position).info("Resuming spool replay");
+    }
+  }
+
+  // Find the end of the valid records in a segment. Anything after the first bad record is a
+  // torn write, and is cleared so that it cannot be mistaken for a record after later appends.
+  private int scan(Segment segment) {
+    MappedByteBuffer buffer = segment.buffer;
+    int position = 0;
+    int records = 0;
+    while (position + RECORD_HEADER_SIZE <= segmentSize) {
+      int length = buffer.getInt(position);
+      if (length == 0) {
+        break;
+      }
+      if (length < 0
+          || position + RECORD_HEADER_SIZE + length > segmentSize
+          || buffer.getInt(position + 4)
+              != checksum(buffer, position + RECORD_HEADER_SIZE, length)) {
+        log.with("segment", segment.path)
+            .with("position", position)
+            .error("Discarding torn write at end of spool segment");
+        for (int i = position; i < segmentSize; i++) {
+          buffer.put(i, (byte) 0);
+        }
+        buffer.force();
+        break;
+      }
+      position += RECORD_HEADER_SIZE + length;
+      records++;
+    }
+    log.with("segment", segment.path).with("records", records).info("Recovered spool segment");
+    return position;
+  }
+
+  private void rotate() throws IOException {
+    active.buffer.force();
+    active = open(segmentPath(active.number + 1), active.number + 1);
+    segments.add(active);
+  }
+
+  private void delete(Segment segment) throws IOException {
+    segments.remove(segment);
+    segment.channel.close();
+    Files.deleteIfExists(segment.path);
+    log.with("segment", segment.path).info("Deleted replayed spool segment");
+  }
+
+  private Segment open(Path path, long number) throws IOException {
+    FileChannel channel =
+        FileChannel.open(
+            path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    return new Segment(number, path, channel, buffer);
+  }
+
+  private Path segmentPath(long number) {
+    return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+  }
+
+  private static long segmentNumber(Path path) {
+    String name = path.getFileName().toString();
+    return Long.parseLong(
+        name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+  }
+
+  private static byte[] encode(
+      EventType eventType, String id, String tier, long failureMillis, byte[] event) {
+    byte[] type = eventType.name().getBytes(StandardCharsets.UTF_8);
+    byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+    byte[] tierBytes = tier == null ? new byte[0] : tier.getBytes(StandardCharsets.UTF_8);
+    int length = 8 + 2 + type.length + 2 + idBytes.length + 2 + tierBytes.length + event.length;
+
+    ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + length);
+    record.putInt(length);
+    record.putInt(0);
+    record.putLong(failureMillis);
+    record.putShort((short) type.length).put(type);
+    record.putShort((short) idBytes.length).put(idBytes);
+    record.putShort((short) tierBytes.length).put(tierBytes);
+    record.put(event);
+    record.putInt(4, checksum(record, RECORD_HEADER_SIZE, length));
+    return record.array();
+  }
+
+  private static EventBackupData decode(ByteBuffer buffer, int offset, int length) {
+    ByteBuffer record = buffer.duplicate();
+    record.limit(offset + length).position(offset);
+    long failureMillis = record.getLong();
+    String type = readString(record, record.getShort());
+    String id = readString(record, record.getShort());
+    String tier = readString(record, record.getShort());
+    String event = readString(record, record.remaining());
+
+    EventBackupData eventData = new EventBackupData();
+    eventData.setEventType(EventType.valueOf(type));
+    eventData.setMessageFailureDateTimeInMillis(failureMillis);
+    eventData.setId(id);
+    eventData.setEvent(event);
+    eventData.setTier(tier.isEmpty() ? null : tier);
+    return eventData;
+  }
+
+  private static String readString(ByteBuffer record, int length) {
+    byte[] bytes = new byte[length];
+    record.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static int checksum(ByteBuffer buffer, int offset, int length) {
+    ByteBuffer contents = buffer.duplicate();
+    contents.limit(offset + length).position(offset);
+    CRC32C crc = new CRC32C();
+    crc.update(contents);
+    return (int) crc.getValue();
+  }
+}
@@ -0,0 +1,42 @@
+package uk.gov.ons.ctp.common.event.persistence;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/** One tier of a CompositeEventPersistence, and the rules for when it is used. */
+@Getter
+@Builder
+public class PersistenceTier {
+
+  /**
+   * Name of the tier, which is recorded in the EventBackupData of the events it stores if its
+   * persistence is a TierAwareEventPersistence.
+   */
+  private final String name;
+
+  private final EventPersistence persistence;
+
+  /**
+   * The longest the caller waits for this tier before trying the next one, or 0 to call the tier
+   * directly on the caller's thread without a timeout. Fast local tiers should use 0.
+   */
+  @Builder.Default private final long timeoutMillis = 0;
+
+  /**
+   * The most calls to a tier with a timeout which may be in progress at once, each on a thread of
+   * the tier's own. A call which timed out is interrupted, but keeps its thread until it returns.
+   */
+  @Builder.Default private final int maxConcurrentCalls = 4;
+
+  /**
+   * The most events which may wait for a thread of a tier with a timeout. An event which would
+   * exceed it goes straight to the next tier, so a tier which hangs cannot hold up more threads.
+   */
+  @Builder.Default private final int maxQueuedCalls = 16;
+
+  /** The number of consecutive failures or timeouts after which the tier is skipped. */
+  @Builder.Default private final int failureThreshold = 3;
+
+  /** How long an unhealthy tier is skipped for before it is tried again. */
+  @Builder.Default private final long skipMillis = 30000;
+}
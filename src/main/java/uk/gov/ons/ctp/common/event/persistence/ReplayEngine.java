@@ -0,0 +1,232 @@
+package uk.gov.ons.ctp.common.event.persistence;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import uk.gov.ons.ctp.common.error.CTPException;
+import uk.gov.ons.ctp.common.error.CTPException.Fault;
+import uk.gov.ons.ctp.common.event.EventJsonScanner;
+import uk.gov.ons.ctp.common.event.EventPublisher;
+
+/**
+ * Resends the events in an EventBackupStore, oldest first, through an EventPublisher.
+ *
+ * <p>Events are read a page at a time and shared between a number of lanes which publish in
+ * parallel. All the events for a case go to the same lane, so they are published in the order they
+ * failed. If an event fails to publish, later events for the same case are not published in this
+ * replay, so that they are not delivered out of order; they are left in the store for the next one.
+ * Events which were published are marked as sent once their page is finished.
+ *
+ * <p>The rate of publishing across all lanes is limited by a token bucket, so that a large backlog
+ * built up during an outage does not overload the broker when it comes back.
+ *
+ * <p>The EventPublisher should be one without event persistence, so that an event which fails again
+ * is reported as failed rather than backed up a second time.
+ */
+public class ReplayEngine {
+  private static final Logger log = LoggerFactory.getLogger(ReplayEngine.class);
+
+  private final EventPublisher eventPublisher;
+  private final EventBackupStore backupStore;
+  private final ReplayOptions options;
+  private final TokenBucket tokenBucket;
+
+  /** The outcome of a replay. */
+  @Getter
+  @ToString
+  @AllArgsConstructor
+  public static class ReplayResult {
+    /** Number of events published and marked as sent. */
+    private final int replayed;
+    /** Number of events which failed to publish. */
+    private final int failed;
+    /** Number of events not published because an earlier event for the same case failed. */
+    private final int skipped;
+  }
+
+  /**
+   * Create an engine with the default options.
+   *
+   * @param eventPublisher the publisher to send events with.
+   * @param backupStore the store to read backed up events from.
+   */
+  public ReplayEngine(EventPublisher eventPublisher, EventBackupStore backupStore) {
+    this(eventPublisher, backupStore, ReplayOptions.builder().build());
+  }
+
+  /**
+   * Create an engine.
+   *
+   * @param eventPublisher the publisher to send events with.
+   * @param backupStore the store to read backed up events from.
+   * @param options the page size, number of lanes and rate limit.
+   * @throws IllegalArgumentException if the options are invalid, or ask for raw passthrough and the
+   *     publisher cannot send raw events.
+   */
+  public ReplayEngine(
+      EventPublisher eventPublisher, EventBackupStore backupStore, ReplayOptions options) {
+    if (options.getPageSize() <= 0 || options.getLanes() <= 0) {
+      throw new IllegalArgumentException("Page size and lanes must be positive");
+    }
+    if (options.isRawPassthrough() && !eventPublisher.supportsRawEvents()) {
+      throw new IllegalArgumentException("Raw passthrough needs a sender which sends raw events");
+    }
+    this.eventPublisher = eventPublisher;
+    this.backupStore = backupStore;
+    this.options = options;
+    this.tokenBucket = new TokenBucket(options.getEventsPerSecond(), options.getBurstSize());
+  }
+
+  /**
+   * Resend every event in the store which has not already been sent. Only one replay runs at a
+   * time.
+   *
+   * @return the number of events replayed, failed and skipped.
+   * @throws CTPException if the store could not be read or updated, or the replay was interrupted.
+   */
+  public synchronized ReplayResult replay() throws CTPException {
+    Set<String> failedCases = ConcurrentHashMap.newKeySet();
+    AtomicInteger failed = new AtomicInteger();
+    AtomicInteger skipped = new AtomicInteger();
+    int replayed = 0;
+
+    AtomicInteger threadCount = new AtomicInteger();
+    ExecutorService laneExecutor =
+        Executors.newFixedThreadPool(
+            options.getLanes(),
+            runnable -> {
+              Thread thread = new Thread(runnable, "event-replay-" + threadCount.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+    try {
+      Long afterFailureMillis = null;
+      String afterId = null;
+      List<EventBackupData> page;
+      do {
+        page = backupStore.findUnsent(afterFailureMillis, afterId, options.getPageSize());
+        if (page.isEmpty()) {
+          break;
+        }
+
+        List<EventBackupData> sent = replayPage(page, laneExecutor, failedCases, failed, skipped);
+        if (!sent.isEmpty()) {
+          backupStore.markSent(sent);
+          replayed += sent.size();
+        }
+        log.with("pageSize", page.size())
+            .with("sent", sent.size())
+            .with("replayed", replayed)
+            .info("Replayed page of backup events");
+
+        EventBackupData last = page.get(page.size() - 1);
+        afterFailureMillis = last.getMessageFailureDateTimeInMillis();
+        afterId = last.getId();
+      } while (page.size() == options.getPageSize());
+    } finally {
+      laneExecutor.shutdownNow();
+    }
+
+    ReplayResult result = new ReplayResult(replayed, failed.get(), skipped.get());
+    log.with("result", result).info("Replay of backup events finished");
+    return result;
+  }
+
+  private List<EventBackupData> replayPage(
+      List<EventBackupData> page,
+      ExecutorService laneExecutor,
+      Set<String> failedCases,
+      AtomicInteger failed,
+      AtomicInteger skipped)
+      throws CTPException {
+
+    List<List<EventBackupData>> lanes = new ArrayList<>(options.getLanes());
+    List<List<String>> laneCaseKeys = new ArrayList<>(options.getLanes());
+    for (int i = 0; i < options.getLanes(); i++) {
+      lanes.add(new ArrayList<>());
+      laneCaseKeys.add(new ArrayList<>());
+    }
+    for (EventBackupData eventData : page) {
+      String caseKey = caseKey(eventData);
+      int lane = Math.floorMod(caseKey.hashCode(), lanes.size());
+      lanes.get(lane).add(eventData);
+      laneCaseKeys.get(lane).add(caseKey);
+    }
+
+    List<Future<List<EventBackupData>>> futures = new ArrayList<>(lanes.size());
+    for (int i = 0; i < lanes.size(); i++) {
+      if (!lanes.get(i).isEmpty()) {
+        futures.add(
+            laneExecutor.submit(
+                laneTask(lanes.get(i), laneCaseKeys.get(i), failedCases, failed, skipped)));
+      }
+    }
+
+    List<EventBackupData> sent = new ArrayList<>(page.size());
+    try {
+      for (Future<List<EventBackupData>> future : futures) {
+        sent.addAll(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new CTPException(Fault.SYSTEM_ERROR, e, "Replay of backup events was interrupted");
+    } catch (ExecutionException e) {
+      throw new CTPException(Fault.SYSTEM_ERROR, e.getCause(), "Replay of backup events failed");
+    }
+    return sent;
+  }
+
+  private Callable<List<EventBackupData>> laneTask(
+      List<EventBackupData> lane,
+      List<String> caseKeys,
+      Set<String> failedCases,
+      AtomicInteger failed,
+      AtomicInteger skipped) {
+    return () -> {
+      List<EventBackupData> sent = new ArrayList<>(lane.size());
+      for (int i = 0; i < lane.size(); i++) {
+        EventBackupData eventData = lane.get(i);
+        String caseKey = caseKeys.get(i);
+        if (failedCases.contains(caseKey)) {
+          skipped.incrementAndGet();
+          continue;
+        }
+        tokenBucket.acquire();
+        try {
+          if (options.isRawPassthrough()) {
+            eventPublisher.sendRawEvent(eventData);
+          } else {
+            eventPublisher.sendEvent(eventData);
+          }
+          eventData.setMessageSentDateTimeInMillis(System.currentTimeMillis());
+          sent.add(eventData);
+        } catch (Exception e) {
+          failedCases.add(caseKey);
+          failed.incrementAndGet();
+          log.with("id", eventData.getId())
+              .with("eventType", eventData.getEventType())
+              .error(e, "Failed to replay backup event");
+        }
+      }
+      return sent;
+    };
+  }
+
+  // Events without a case are not ordered against any other event, so are keyed by their own id
+  private static String caseKey(EventBackupData eventData) {
+    String caseId = EventJsonScanner.findCaseId(eventData.getEvent());
+    return caseId != null ? caseId : "id:" + eventData.getId();
+  }
+}
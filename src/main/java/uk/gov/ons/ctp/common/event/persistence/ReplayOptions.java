@@ -0,0 +1,39 @@
+package uk.gov.ons.ctp.common.event.persistence;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/** Optional settings for a ReplayEngine. */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ReplayOptions {
+
+  /** Number of backed up events read from the store at a time. */
+  @Builder.Default private int pageSize = 500;
+
+  /**
+   * Number of events published concurrently. Events for the same case are always published in order
+   * by the same lane.
+   */
+  @Builder.Default private int lanes = 4;
+
+  /** The most events published per second, across all lanes. */
+  @Builder.Default private double eventsPerSecond = 100;
+
+  /**
+   * The most events which can be published in a burst at the start of a replay, or after a pause.
+   */
+  @Builder.Default private int burstSize = 10;
+
+  /**
+   * If true each stored event is published exactly as it was stored, keeping its original
+   * transactionId and dateTime, using EventPublisher.sendRawEvent. Otherwise each event is rebuilt
+   * with a new header using EventPublisher.sendEvent(EventBackupData). Raw passthrough needs a
+   * publisher whose sender supports raw events.
+   */
+  @Builder.Default private boolean rawPassthrough = false;
+}
@@ -0,0 +1,18 @@
+package uk.gov.ons.ctp.common.event.persistence;
+
+import java.util.function.Predicate;
+import uk.gov.ons.ctp.common.error.CTPException;
+
+/** EventPersistence which holds events itself, and can hand them back to be resent. */
+public interface ReplayableEventPersistence extends EventPersistence {
+
+  /**
+   * Replay persisted events, oldest first. Replay stops when the handler returns false, and the
+   * next replay starts from the same event. Events the handler has dealt with are removed.
+   *
+   * @param handler called for each event. It returns true if the event has been dealt with.
+   * @return the number of events the handler dealt with.
+   * @throws CTPException if the persisted events could not be read or removed.
+   */
+  int replay(Predicate<EventBackupData> handler) throws CTPException;
+}
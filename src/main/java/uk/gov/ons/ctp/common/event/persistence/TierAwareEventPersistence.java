@@ -0,0 +1,29 @@
+package uk.gov.ons.ctp.common.event.persistence;
+
+import uk.gov.ons.ctp.common.error.CTPException;
+import uk.gov.ons.ctp.common.event.EventPublisher.EventType;
+import uk.gov.ons.ctp.common.event.SerialisedEvent;
+
+/**
+ * EventPersistence which records in the EventBackupData of each event the name of the
+ * CompositeEventPersistence tier that stored it.
+ */
+public interface TierAwareEventPersistence extends EventPersistence {
+
+  /**
+   * Persist an event for a tier of a CompositeEventPersistence.
+   *
+   * @param eventType the event type.
+   * @param serialisedEvent the event.
+   * @param tier the name of the tier, or null if there is none.
+   * @throws CTPException if the event could not be persisted.
+   */
+  void persistSerialisedEvent(EventType eventType, SerialisedEvent serialisedEvent, String tier)
+      throws CTPException;
+
+  @Override
+  default void persistSerialisedEvent(EventType eventType, SerialisedEvent serialisedEvent)
+      throws CTPException {
+    persistSerialisedEvent(eventType, serialisedEvent, null);
+  }
+}
@@ -0,0 +1,62 @@
+package uk.gov.ons.ctp.common.event.persistence;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Rate limit shared by several threads. Tokens are added at a steady rate up to a maximum, and each
+ * acquire takes one, waiting if none are left, so the long term rate is bounded while short bursts
+ * up to the maximum are allowed.
+ */
+final class TokenBucket {
+  private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private final double nanosPerToken;
+  private final double maxTokens;
+
+  private double tokens;
+  private long lastRefillNanos;
+
+  /**
+   * Create a full bucket.
+   *
+   * @param tokensPerSecond the rate tokens are added at.
+   * @param maxTokens the most tokens the bucket holds, which is the largest burst allowed.
+   */
+  TokenBucket(double tokensPerSecond, int maxTokens) {
+    if (tokensPerSecond <= 0 || maxTokens <= 0) {
+      throw new IllegalArgumentException("Token rate and maximum must be positive");
+    }
+    this.nanosPerToken = NANOS_PER_SECOND / tokensPerSecond;
+    this.maxTokens = maxTokens;
+    this.tokens = maxTokens;
+    this.lastRefillNanos = System.nanoTime();
+  }
+
+  /**
+   * Take a token, waiting until one is available.
+   *
+   * @throws InterruptedException if the thread is interrupted while waiting.
+   */
+  void acquire() throws InterruptedException {
+    long waitNanos;
+    while ((waitNanos = tryAcquire()) > 0) {
+      LockSupport.parkNanos(this, waitNanos);
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+    }
+  }
+
+  // Returns 0 if a token was taken, or how long until one will be available
+  private synchronized long tryAcquire() {
+    long now = System.nanoTime();
+    tokens = Math.min(maxTokens, tokens + (now - lastRefillNanos) / nanosPerToken);
+    lastRefillNanos = now;
+    if (tokens >= 1) {
+      tokens -= 1;
+      return 0;
+    }
+    return Math.max(1, (long) ((1 - tokens) * nanosPerToken));
+  }
+}
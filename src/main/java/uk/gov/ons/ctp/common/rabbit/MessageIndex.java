@@ -0,0 +1,207 @@
+package uk.gov.ons.ctp.common.rabbit;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import uk.gov.ons.ctp.common.event.EventPublisher.EventType;
+
+/**
+ * The messages which have arrived on a queue but not been read, in the order they arrived, and
+ * indexed by transactionId and caseId.
+ *
+ * <p>Reading a message removes it. Messages which a read does not match are kept for later reads,
+ * and a read by transactionId or caseId finds its messages without looking at any others. Readers
+ * wait on this object's monitor, which is notified as each message arrives. Each message which is
+ * taken or cleared is passed to a listener, while the monitor is held, so that it can be
+ * acknowledged.
+ */
+final class MessageIndex {
+
+  private final LinkedHashSet<ReceivedMessage> held = new LinkedHashSet<>();
+  private final Map<String, List<ReceivedMessage>> byTransactionId = new HashMap<>();
+  private final Map<String, List<ReceivedMessage>> byCaseId = new HashMap<>();
+  private final Consumer<ReceivedMessage> removalListener;
+
+  MessageIndex() {
+    this(message -> {});
+  }
+
+  MessageIndex(Consumer<ReceivedMessage> removalListener) {
+    this.removalListener = removalListener;
+  }
+
+  synchronized void add(ReceivedMessage message) {
+    held.add(message);
+    addToIndex(byTransactionId, message.getTransactionId(), message);
+    addToIndex(byCaseId, message.getCaseId(), message);
+    notifyAll();
+  }
+
+  synchronized int size() {
+    return held.size();
+  }
+
+  /**
+   * Wait for up to count messages, oldest first.
+   *
+   * @param count the number of messages wanted.
+   * @param timeout the longest time to wait for them all.
+   * @param unit the unit of the timeout.
+   * @return the messages, which are fewer than count if the timeout expired first.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  synchronized List<ReceivedMessage> take(int count, long timeout, TimeUnit unit)
+      throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (held.size() < count) {
+      if (!awaitArrival(deadline)) {
+        break;
+      }
+    }
+
+    List<ReceivedMessage> taken = new ArrayList<>(Math.min(count, held.size()));
+    Iterator<ReceivedMessage> oldest = held.iterator();
+    while (taken.size() < count && oldest.hasNext()) {
+      taken.add(oldest.next());
+    }
+    taken.forEach(this::remove);
+    return taken;
+  }
+
+  /**
+   * Wait for the oldest message which matches a predicate.
+   *
+   * @param predicate the test for the message.
+   * @param timeout the longest time to wait.
+   * @param unit the unit of the timeout.
+   * @return the message, or null if none matched before the timeout expired.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  synchronized ReceivedMessage take(
+      Predicate<ReceivedMessage> predicate, long timeout, TimeUnit unit)
+      throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    do {
+      for (ReceivedMessage message : held) {
+        if (predicate.test(message)) {
+          remove(message);
+          return message;
+        }
+      }
+    } while (awaitArrival(deadline));
+    return null;
+  }
+
+  /**
+   * Wait for the message with a transactionId.
+   *
+   * @param transactionId the transactionId.
+   * @param timeout the longest time to wait.
+   * @param unit the unit of the timeout.
+   * @return the message, or null if it did not arrive before the timeout expired.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  synchronized ReceivedMessage takeByTransactionId(
+      String transactionId, long timeout, TimeUnit unit) throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    do {
+      List<ReceivedMessage> matches = byTransactionId.get(transactionId);
+      if (matches != null) {
+        ReceivedMessage message = matches.get(0);
+        remove(message);
+        return message;
+      }
+    } while (awaitArrival(deadline));
+    return null;
+  }
+
+  /**
+   * Wait for count messages about a case, optionally of one event type.
+   *
+   * @param caseId the case id.
+   * @param eventType the event type, or null for events of any type.
+   * @param count the number of messages wanted.
+   * @param timeout the longest time to wait for them all.
+   * @param unit the unit of the timeout.
+   * @return the matching messages in the order they arrived, which are fewer than count if the
+   *     timeout expired first.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  synchronized List<ReceivedMessage> takeByCaseId(
+      String caseId, EventType eventType, int count, long timeout, TimeUnit unit)
+      throws InterruptedException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    List<ReceivedMessage> matches;
+    do {
+      matches = findByCaseId(caseId, eventType, count);
+    } while (matches.size() < count && awaitArrival(deadline));
+    matches.forEach(this::remove);
+    return matches;
+  }
+
+  synchronized int clear() {
+    int cleared = held.size();
+    held.forEach(removalListener);
+    held.clear();
+    byTransactionId.clear();
+    byCaseId.clear();
+    return cleared;
+  }
+
+  private List<ReceivedMessage> findByCaseId(String caseId, EventType eventType, int count) {
+    List<ReceivedMessage> matches = new ArrayList<>();
+    for (ReceivedMessage message : byCaseId.getOrDefault(caseId, List.of())) {
+      if (eventType == null || message.getEventType() == eventType) {
+        matches.add(message);
+        if (matches.size() == count) {
+          break;
+        }
+      }
+    }
+    return matches;
+  }
+
+  // Wait until a message arrives or the deadline passes, returning false if it has passed
+  private boolean awaitArrival(long deadline) throws InterruptedException {
+    long remaining = deadline - System.nanoTime();
+    if (remaining <= 0) {
+      return false;
+    }
+    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+    return true;
+  }
+
+  private void remove(ReceivedMessage message) {
+    held.remove(message);
+    removalListener.accept(message);
+    removeFromIndex(byTransactionId, message.getTransactionId(), message);
+    removeFromIndex(byCaseId, message.getCaseId(), message);
+  }
+
+  private static void addToIndex(
+      Map<String, List<ReceivedMessage>> index, String key, ReceivedMessage message) {
+    if (key != null) {
+      index.computeIfAbsent(key, k -> new ArrayList<>(1)).add(message);
+    }
+  }
+
+  private static void removeFromIndex(
+      Map<String, List<ReceivedMessage>> index, String key, ReceivedMessage message) {
+    if (key == null) {
+      return;
+    }
+    List<ReceivedMessage> messages = index.get(key);
+    if (messages != null) {
+      messages.remove(message);
+      if (messages.isEmpty()) {
+        index.remove(key);
+      }
+    }
+  }
+}
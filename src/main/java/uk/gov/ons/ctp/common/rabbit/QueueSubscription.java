@@ -0,0 +1,129 @@
+package uk.gov.ons.ctp.common.rabbit;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.ShutdownSignalException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+import uk.gov.ons.ctp.common.event.EventJsonScanner;
+import uk.gov.ons.ctp.common.event.model.Header;
+
+/**
+ * A consumer of one queue, on its own channel, which holds the messages the broker pushes to it
+ * until they are read. Reading a message is then a wait on the local MessageIndex rather than a
+ * round trip to the broker.
+ *
+ * <p>As each message arrives its event header and case id are read with a streaming parse, so that
+ * it can be indexed. A message is only acknowledged when it is read, or discarded by clearing the
+ * index, so the prefetch bounds how many messages are held. Once that many are held and unread the
+ * broker sends no more, so a read for a message which has not arrived yet waits until its timeout
+ * expires. Messages held when the subscription closes are returned to the queue by the broker.
+ */
+final class QueueSubscription extends DefaultConsumer {
+
+  private final String queueName;
+  private final MessageIndex messages = new MessageIndex(this::acknowledge);
+
+  // The delivery tags of the messages held, guarded by the MessageIndex's monitor
+  private final Map<ReceivedMessage, Long> deliveryTags = new IdentityHashMap<>();
+
+  QueueSubscription(Channel channel, String queueName) {
+    super(channel);
+    this.queueName = queueName;
+  }
+
+  /**
+   * Start consuming a queue on a new channel.
+   *
+   * @param connection the connection to create the channel on.
+   * @param queueName the queue.
+   * @param prefetch the most messages the broker sends before they are acknowledged.
+   * @return the subscription.
+   * @throws IOException if the channel could not be created or the queue consumed.
+   */
+  static QueueSubscription start(Connection connection, String queueName, int prefetch)
+      throws IOException {
+    Channel channel = connection.createChannel();
+    try {
+      channel.basicQos(prefetch);
+      QueueSubscription subscription = new QueueSubscription(channel, queueName);
+      channel.basicConsume(queueName, false, subscription);
+      return subscription;
+    } catch (IOException e) {
+      closeQuietly(channel);
+      throw e;
+    }
+  }
+
+  @Override
+  public void handleDelivery(
+      String consumerTag, Envelope envelope, BasicProperties properties, byte[] body)
+      throws IOException {
+    String json = new String(body, StandardCharsets.UTF_8);
+    Header header = EventJsonScanner.readHeader(json);
+    ReceivedMessage message =
+        new ReceivedMessage(
+            json,
+            header == null ? null : header.getType(),
+            header == null ? null : header.getTransactionId(),
+            EventJsonScanner.findCaseId(json));
+    synchronized (messages) {
+      deliveryTags.put(message, envelope.getDeliveryTag());
+      messages.add(message);
+    }
+  }
+
+  // Called by the MessageIndex, holding its monitor, so acknowledgements from different readers do
+  // not use the channel at the same time
+  private void acknowledge(ReceivedMessage message) {
+    Long deliveryTag = deliveryTags.remove(message);
+    if (deliveryTag == null) {
+      return;
+    }
+    try {
+      getChannel().basicAck(deliveryTag, false);
+    } catch (IOException | ShutdownSignalException e) {
+      // The channel has closed, so the broker will deliver the message again to a new consumer
+    }
+  }
+
+  String getQueueName() {
+    return queueName;
+  }
+
+  MessageIndex getMessages() {
+    return messages;
+  }
+
+  boolean isOpen() {
+    return getChannel().isOpen();
+  }
+
+  /**
+   * Stop consuming. The messages held are discarded without being acknowledged, so the broker
+   * returns them to the queue.
+   */
+  void close() {
+    synchronized (messages) {
+      deliveryTags.clear();
+      messages.clear();
+    }
+    closeQuietly(getChannel());
+  }
+
+  private static void closeQuietly(Channel channel) {
+    try {
+      if (channel.isOpen()) {
+        channel.close();
+      }
+    } catch (IOException | TimeoutException e) {
+      // The channel is being discarded, so there is nothing more to do
+    }
+  }
+}
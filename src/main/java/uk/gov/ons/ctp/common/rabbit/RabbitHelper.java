@@ -7,9 +7,15 @@ import com.rabbitmq.client.AMQP.Queue.PurgeOk;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
-import com.rabbitmq.client.GetResponse;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
 import uk.gov.ons.ctp.common.config.YmlConfigReader;
 import uk.gov.ons.ctp.common.error.CTPException;
 import uk.gov.ons.ctp.common.error.CTPException.Fault;
@@ -19,32 +25,60 @@ import uk.gov.ons.ctp.common.event.EventPublisher.RoutingKey;
 import uk.gov.ons.ctp.common.event.EventPublisher.Source;
 import uk.gov.ons.ctp.common.event.NativeRabbitEventSender;
 import uk.gov.ons.ctp.common.event.RabbitConnectionDetails;
+import uk.gov.ons.ctp.common.event.RabbitSenderOptions;
 import uk.gov.ons.ctp.common.event.model.EventPayload;
 
 /**
  * This is a test support class for interacting with RabbitMQ.
  *
- * <p>It runs as a singleton and the connection is established on first usage. When connecting to
- * Rabbit it uses the connection details from a property file, with any or all of these fields
- * overridable with equivalent environment variables.
+ * <p>There is one helper for each exchange, with its own connection, which is established when the
+ * helper for the exchange is first asked for. When connecting to Rabbit it uses the connection
+ * details from a property file, with any or all of these fields overridable with equivalent
+ * environment variables.
  *
- * <p>The RabbitMQ Java API does not support concurrent usage of the Channel object, so this class
- * enforces this restriction with method level synchronisation.
+ * <p>The RabbitMQ Java API does not support concurrent usage of the Channel object, so rather than
+ * sharing a channel every user of the helper has one to itself. Events are published on a pool of
+ * channels, each queue is read through its own channel, and queues are created and purged on a
+ * channel which is opened for the purpose. The helper can therefore be used by concurrent tests
+ * without any locking.
+ *
+ * <p>Messages are read through a consumer for each queue, on its own channel, which the broker
+ * pushes messages to as soon as they arrive. Reading a message waits on the messages held by the
+ * consumer, so does not poll the broker. The messages held are indexed by transactionId and case id
+ * as they arrive, and messages which a read does not want are kept for later reads. Messages are
+ * acknowledged as they are read, so the prefetch bounds how many are held.
+ *
+ * <p>The broker shares the messages of a queue between its consumers, so all the helpers in a JVM
+ * share one consumer for each queue, which is created on the connection of the helper which first
+ * reads the queue. If that helper is closed the next helper to read the queue starts a new consumer
+ * on its own connection, and the messages which were held are delivered to it again.
  */
 public class RabbitHelper {
   private static final Logger log = LoggerFactory.getLogger(RabbitHelper.class);
 
   private static final String RABBIT_YML_FILENAME = "rabbitmq.yml";
 
-  private static RabbitHelper instance = null;
+  /** Default number of messages each queue's consumer holds before they are read. */
+  public static final int DEFAULT_PREFETCH = 100;
+
+  /** Number of channels each helper publishes events on. */
+  public static final int PUBLISHING_CHANNELS =
+      Math.max(2, Runtime.getRuntime().availableProcessors());
+
+  private static final Map<String, RabbitHelper> instances = new ConcurrentHashMap<>();
 
-  private Connection rabbit;
-  private Channel channel;
-  private String exchange;
+  private final Connection rabbit;
+  private final String exchange;
+  private final boolean addRmProperties;
 
-  private EventPublisher eventPublisher;
+  private final EventPublisher eventPublisher;
 
-  private ObjectMapper mapper = new ObjectMapper();
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  // The consumer of each queue, keyed by the broker address and queue name, shared by all helpers
+  private static final Map<String, QueueSubscription> subscriptions = new ConcurrentHashMap<>();
+
+  private volatile int prefetch = DEFAULT_PREFETCH;
 
   private RabbitHelper(
       RabbitConnectionDetails rabbitDetails, String exchange, boolean addRmProperties)
@@ -65,48 +99,63 @@ public class RabbitHelper {
       throw new CTPException(Fault.SYSTEM_ERROR, e, errorMessage);
     }
 
+    // The sender declares the exchange
+    RabbitSenderOptions options =
+        RabbitSenderOptions.builder().channelPoolSize(PUBLISHING_CHANNELS).build();
     NativeRabbitEventSender sender =
-        new NativeRabbitEventSender(this.rabbit, exchange, addRmProperties);
+        new NativeRabbitEventSender(this.rabbit, exchange, addRmProperties, options);
     eventPublisher = EventPublisher.createWithoutEventPersistence(sender);
 
     this.exchange = exchange;
+    this.addRmProperties = addRmProperties;
   }
 
-  public static synchronized RabbitHelper instance(String exchange, boolean addRmProperties)
+  /**
+   * Get the helper for an exchange, connecting to Rabbit if this is the first time the exchange has
+   * been asked for. Helpers for different exchanges can be used at the same time.
+   *
+   * @param exchange the exchange to publish events to.
+   * @param addRmProperties true to give events the message properties RM uses.
+   * @return the helper for the exchange.
+   * @throws CTPException if Rabbit could not be connected to, or the helper for the exchange was
+   *     created with a different addRmProperties.
+   */
+  public static RabbitHelper instance(String exchange, boolean addRmProperties)
       throws CTPException {
-    if (instance == null) {
-      YmlConfigReader ymlConfig = new YmlConfigReader(RABBIT_YML_FILENAME);
-      RabbitConnectionDetails rabbitDetails =
-          ymlConfig.convertToObject(RabbitConnectionDetails.class);
-
-      instance = new RabbitHelper(rabbitDetails, exchange, addRmProperties);
+    RabbitHelper helper = instances.get(exchange);
+    if (helper == null) {
+      // Only the first request for an exchange takes the lock
+      synchronized (RabbitHelper.class) {
+        helper = instances.get(exchange);
+        if (helper == null) {
+          helper = create(exchange, addRmProperties);
+          instances.put(exchange, helper);
+        }
+      }
     }
 
-    if (!instance.exchange.equals(exchange)) {
+    if (helper.addRmProperties != addRmProperties) {
       throw new CTPException(
-          Fault.BAD_REQUEST, "Cannot switch existing connection to different exchange");
+          Fault.BAD_REQUEST,
+          "Existing connection to exchange '" + exchange + "' uses different RM properties");
     }
-
-    // Make sure channel has been created
-    instance.createChannelIfNeeded();
-
-    return instance;
+    return helper;
   }
 
-  // Make sure channel has been created. It may need to be re-established if a previous command
-  // failed.
-  private synchronized void createChannelIfNeeded() throws CTPException {
-    if (channel == null) {
-      try {
-        channel = rabbit.createChannel();
-        channel.exchangeDeclare(exchange, "topic", true);
-      } catch (IOException e) {
-        channel = null;
-        String errorMessage = "Failed to create RabbitMQ channel";
-        log.error(errorMessage, e);
-        throw new CTPException(Fault.SYSTEM_ERROR, e, errorMessage);
-      }
-    }
+  /**
+   * Create a helper for an exchange which is not shared with other callers of instance(). The
+   * caller must close it.
+   *
+   * @param exchange the exchange to publish events to.
+   * @param addRmProperties true to give events the message properties RM uses.
+   * @return the new helper.
+   * @throws CTPException if Rabbit could not be connected to.
+   */
+  public static RabbitHelper create(String exchange, boolean addRmProperties) throws CTPException {
+    YmlConfigReader ymlConfig = new YmlConfigReader(RABBIT_YML_FILENAME);
+    RabbitConnectionDetails rabbitDetails =
+        ymlConfig.convertToObject(RabbitConnectionDetails.class);
+    return new RabbitHelper(rabbitDetails, exchange, addRmProperties);
   }
 
   /**
@@ -114,29 +163,29 @@ public class RabbitHelper {
    *
    * @throws CTPException if an error was detected.
    */
-  public synchronized void close() throws CTPException {
-    if (channel != null) {
-      try {
-        channel.close();
-        channel = null;
-      } catch (IOException | TimeoutException e1) {
-        String errorMessage1 = "Failed to close RabbitMQ channel";
-        log.error(errorMessage1, e1);
-        throw new CTPException(Fault.SYSTEM_ERROR, e1, errorMessage1);
-      }
-    }
+  public void close() throws CTPException {
+    instances.remove(exchange, this);
+
+    // Only the consumers on this helper's connection are closed. Other helpers start new consumers
+    // for those queues when they next read them
+    subscriptions
+        .values()
+        .removeIf(
+            subscription -> {
+              if (subscription.getChannel().getConnection() != rabbit) {
+                return false;
+              }
+              subscription.close();
+              return true;
+            });
 
-    if (rabbit != null) {
-      try {
-        rabbit.close(1000);
-      } catch (IOException e) {
-        String errorMessage = "Failed to close RabbitMQ connection";
-        log.error(errorMessage, e);
-        throw new CTPException(Fault.SYSTEM_ERROR, e, errorMessage);
-      }
+    try {
+      rabbit.close(1000);
+    } catch (IOException e) {
+      String errorMessage = "Failed to close RabbitMQ connection";
+      log.error(errorMessage, e);
+      throw new CTPException(Fault.SYSTEM_ERROR, e, errorMessage);
     }
-
-    RabbitHelper.instance = null;
   }
 
   /**
@@ -148,10 +197,10 @@ public class RabbitHelper {
    *     the routing key.
    * @throws CTPException if the queue or binding could not be created.
    */
-  public synchronized String createQueue(EventType eventType) throws CTPException {
+  public String createQueue(EventType eventType) throws CTPException {
     String queueName;
 
-    try {
+    try (Channel channel = rabbit.createChannel()) {
       // Find routing key for supplied event type
       RoutingKey routingKey = RoutingKey.forType(eventType);
       if (routingKey == null) {
@@ -168,8 +217,7 @@ public class RabbitHelper {
       // Create queue and binding
       channel.queueDeclare(queueName, true, false, false, null);
       channel.queueBind(queueName, exchange, routingKey.getKey());
-    } catch (IOException e) {
-      channel = null; // Channel object now in broken state. Force recreation
+    } catch (IOException | TimeoutException e) {
       String errorMessage = "Failed to create/bind queue";
       log.error(errorMessage, e);
       throw new CTPException(Fault.SYSTEM_ERROR, e, errorMessage);
@@ -179,18 +227,35 @@ public class RabbitHelper {
   }
 
   /**
-   * Deletes any outstanding messages on a queue.
+   * Set the number of messages the consumer of a queue holds before they are read. Once that many
+   * are held the broker sends no more until some are read or the queue is flushed, so it must be
+   * larger than the number of messages a test leaves unread while waiting for another. This only
+   * applies to queues which no helper has read from yet.
+   *
+   * @param prefetch the number of messages.
+   */
+  public void setPrefetch(int prefetch) {
+    if (prefetch <= 0) {
+      throw new IllegalArgumentException("Prefetch must be positive");
+    }
+    this.prefetch = prefetch;
+  }
+
+  /**
+   * Deletes any outstanding messages on a queue, including any which have been pushed to its
+   * consumer but not read.
    *
    * @param queueName is the name of the queue to be cleared.
    * @return the number of messages deleted.
    * @throws CTPException if Rabbit failed during the queue purge.
    */
-  public synchronized int flushQueue(String queueName) throws CTPException {
-    try {
+  public int flushQueue(String queueName) throws CTPException {
+    try (Channel channel = rabbit.createChannel()) {
       PurgeOk result = channel.queuePurge(queueName);
-      return result.getMessageCount();
-    } catch (IOException e) {
-      channel = null;
+      QueueSubscription subscription = subscriptions.get(subscriptionKey(queueName));
+      int held = subscription == null ? 0 : subscription.getMessages().clear();
+      return result.getMessageCount() + held;
+    } catch (IOException | TimeoutException e) {
       String errorMessage = "Failed to flush queue '" + queueName + "'";
       log.with("queueName", queueName).error(errorMessage, e);
       throw new CTPException(Fault.SYSTEM_ERROR, e, errorMessage);
@@ -207,7 +272,7 @@ public class RabbitHelper {
    * @return the transaction id generated for the published message.
    * @throws CTPException if anything went wrong.
    */
-  public synchronized String sendEvent(
+  public String sendEvent(
       EventType eventType, Source source, EventPublisher.Channel channel, EventPayload payload)
       throws CTPException {
     try {
@@ -228,6 +293,12 @@ public class RabbitHelper {
    * Reads a message from the named queue. This method will wait for up to the specified number of
    * milliseconds for a message to appear on the queue.
    *
+   * <p>The first read of a queue starts a consumer which takes every message from the queue as it
+   * arrives, up to the prefetch, and holds it until it is read through this or any other helper.
+   * Messages the consumer holds are not seen by other consumers of the queue, such as the service
+   * under test, and a read which wants another message does not remove them. They are only lost
+   * from the queue when they are read or the queue is flushed.
+   *
    * @param queueName is the name of the queue to read from.
    * @param maxWaitTimeMillis is the maximum amount of time the caller is prepared to wait for the
    *     message to appear.
@@ -236,53 +307,170 @@ public class RabbitHelper {
    * @throws CTPException if Rabbit threw an exception when we attempted to read a message.
    */
   public String getMessage(String queueName, long maxWaitTimeMillis) throws CTPException {
-    final long startTime = System.currentTimeMillis();
-    final long timeoutLimit = startTime + maxWaitTimeMillis;
+    List<String> messages = getMessages(queueName, 1, maxWaitTimeMillis);
+    return messages.isEmpty() ? null : messages.get(0);
+  }
+
+  /**
+   * Reads a message from the named queue and convert it to a Java object. This method will wait for
+   * up to the specified number of milliseconds for a message to appear on the queue.
+   *
+   * @param <T> is the class of object we are expected to recieve.
+   * @param queueName is the name of the queue to read from.
+   * @param clazz is the class that the message should be converted to.
+   * @param maxWaitTimeMillis is the maximum amount of time the caller is prepared to wait for the
+   *     message to appear.
+   * @return an object of the specified type, or null if no message was found before the timeout
+   *     expired.
+   * @throws CTPException if Rabbit threw an exception when we attempted to read a message.
+   */
+  public <T> T getMessage(String queueName, Class<T> clazz, long maxWaitTimeMillis)
+      throws CTPException {
+    return convert(queueName, getMessage(queueName, maxWaitTimeMillis), clazz);
+  }
 
+  /**
+   * Reads a number of messages from the named queue, oldest first. This method will wait for up to
+   * the specified number of milliseconds for them all to appear on the queue.
+   *
+   * @param queueName is the name of the queue to read from.
+   * @param count is the number of messages to read.
+   * @param maxWaitTimeMillis is the maximum amount of time the caller is prepared to wait for all
+   *     the messages to appear.
+   * @return the message bodies, of which there are fewer than count if the timeout expired first.
+   * @throws CTPException if Rabbit threw an exception when we attempted to read the queue.
+   */
+  public List<String> getMessages(String queueName, int count, long maxWaitTimeMillis)
+      throws CTPException {
     log.info(
-        "Rabbit getMessage. Reading from queue '"
+        "Rabbit getMessages. Reading "
+            + count
+            + " from queue '"
             + queueName
             + "'"
             + " within "
             + maxWaitTimeMillis
             + "ms");
 
-    // Keep trying to read a message from rabbit, or we timeout waiting
-    String messageBody;
-    do {
-      messageBody = getMessageNoWait(queueName);
-      if (messageBody != null) {
-        log.info("Message read from queue");
-        break;
-      }
+    List<ReceivedMessage> received;
+    try {
+      received =
+          subscribe(queueName).getMessages().take(count, maxWaitTimeMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return new ArrayList<>();
+    }
 
-      try {
-        Thread.sleep(10);
-      } catch (InterruptedException e) {
-        break;
-      }
-    } while (messageBody == null && System.currentTimeMillis() < timeoutLimit);
+    log.info("Read " + received.size() + " messages from queue");
+    List<String> bodies = new ArrayList<>(received.size());
+    for (ReceivedMessage message : received) {
+      bodies.add(message.getBody());
+    }
+    return bodies;
+  }
 
-    return messageBody;
+  /**
+   * Waits for the first message on the named queue which matches a predicate. Messages which do not
+   * match are left to be read later. The predicate can test the event type, transactionId and case
+   * id of a message without it being deserialised.
+   *
+   * @param queueName is the name of the queue to read from.
+   * @param predicate is the test for the message wanted.
+   * @param maxWaitTimeMillis is the maximum amount of time the caller is prepared to wait for the
+   *     message to appear.
+   * @return the message, or null if no message matched before the timeout expired.
+   * @throws CTPException if Rabbit threw an exception when we attempted to read the queue.
+   */
+  public ReceivedMessage awaitMessage(
+      String queueName, Predicate<ReceivedMessage> predicate, long maxWaitTimeMillis)
+      throws CTPException {
+    try {
+      return subscribe(queueName)
+          .getMessages()
+          .take(predicate, maxWaitTimeMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
   }
 
   /**
-   * Reads a message from the named queue and convert it to a Java object. This method will wait for
-   * up to the specified number of milliseconds for a message to appear on the queue.
+   * Waits for the first message on the named queue which matches a predicate, and converts it to a
+   * Java object.
    *
    * @param <T> is the class of object we are expected to recieve.
    * @param queueName is the name of the queue to read from.
+   * @param predicate is the test for the message wanted.
    * @param clazz is the class that the message should be converted to.
    * @param maxWaitTimeMillis is the maximum amount of time the caller is prepared to wait for the
    *     message to appear.
-   * @return an object of the specified type, or null if no message was found before the timeout
+   * @return an object of the specified type, or null if no message matched before the timeout
    *     expired.
-   * @throws CTPException if Rabbit threw an exception when we attempted to read a message.
+   * @throws CTPException if Rabbit threw an exception when we attempted to read the queue.
    */
-  public <T> T getMessage(String queueName, Class<T> clazz, long maxWaitTimeMillis)
+  public <T> T awaitMessage(
+      String queueName,
+      Predicate<ReceivedMessage> predicate,
+      Class<T> clazz,
+      long maxWaitTimeMillis)
       throws CTPException {
-    String message = getMessage(queueName, maxWaitTimeMillis);
+    ReceivedMessage message = awaitMessage(queueName, predicate, maxWaitTimeMillis);
+    return convert(queueName, message == null ? null : message.getBody(), clazz);
+  }
 
+  /**
+   * Waits for the message on the named queue with a transactionId. Messages are indexed by
+   * transactionId as they arrive, so other messages are not looked at, and are left to be read
+   * later.
+   *
+   * @param queueName is the name of the queue to read from.
+   * @param transactionId is the transactionId of the event wanted.
+   * @param maxWaitTimeMillis is the maximum amount of time the caller is prepared to wait for the
+   *     message to appear.
+   * @return the message, or null if it did not arrive before the timeout expired.
+   * @throws CTPException if Rabbit threw an exception when we attempted to read the queue.
+   */
+  public ReceivedMessage awaitMessageWithTransactionId(
+      String queueName, String transactionId, long maxWaitTimeMillis) throws CTPException {
+    try {
+      return subscribe(queueName)
+          .getMessages()
+          .takeByTransactionId(transactionId, maxWaitTimeMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+
+  /**
+   * Waits for a number of messages on the named queue about a case. Messages are indexed by case id
+   * as they arrive, so other messages are not looked at, and are left to be read later.
+   *
+   * @param queueName is the name of the queue to read from.
+   * @param caseId is the id of the case.
+   * @param eventType is the type of the events wanted, or null for events of any type.
+   * @param count is the number of messages wanted.
+   * @param maxWaitTimeMillis is the maximum amount of time the caller is prepared to wait for all
+   *     the messages to appear.
+   * @return the messages in the order they arrived, of which there are fewer than count if the
+   *     timeout expired first.
+   * @throws CTPException if Rabbit threw an exception when we attempted to read the queue.
+   */
+  public List<ReceivedMessage> awaitMessagesForCase(
+      String queueName, String caseId, EventType eventType, int count, long maxWaitTimeMillis)
+      throws CTPException {
+    try {
+      return subscribe(queueName)
+          .getMessages()
+          .takeByCaseId(caseId, eventType, count, maxWaitTimeMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return new ArrayList<>();
+    }
+  }
+
+  // Use Jackson to convert from a Json message to a Java object
+  private <T> T convert(String queueName, String message, Class<T> clazz) throws CTPException {
     // Return to caller if nothing read from queue
     if (message == null) {
       log.info(
@@ -292,7 +480,6 @@ public class RabbitHelper {
       return null;
     }
 
-    // Use Jackson to convert from a Json message to a Java object
     try {
       log.info("Rabbit getMessage. Converting result into class '" + clazz.getName() + "'");
       return mapper.readValue(message, clazz);
@@ -304,25 +491,35 @@ public class RabbitHelper {
     }
   }
 
-  /**
-   * Read the next message from a queue.
-   *
-   * @param queueName holds the name of the queue to attempt the read from.
-   * @return a String with the content of the message body, or null if there was no message to read.
-   * @throws CTPException if Rabbit threw an exception during the message get.
-   */
-  private synchronized String getMessageNoWait(String queueName) throws CTPException {
-    // Attempt to read a message from the queue
-    GetResponse result;
+  // Find the consumer of a queue, starting one if there is none or its channel has closed
+  private QueueSubscription subscribe(String queueName) throws CTPException {
+    String key = subscriptionKey(queueName);
+    QueueSubscription subscription = subscriptions.get(key);
+    if (subscription != null && subscription.isOpen()) {
+      return subscription;
+    }
+
     try {
-      result = channel.basicGet(queueName, true);
-    } catch (IOException e) {
-      channel = null;
-      String errorMessage = "Failed to flush queue '" + queueName + "'";
-      log.with("queueName", queueName).error(errorMessage, e);
-      throw new CTPException(Fault.SYSTEM_ERROR, e, errorMessage);
+      return subscriptions.compute(
+          key,
+          (name, existing) -> {
+            if (existing != null && existing.isOpen()) {
+              return existing;
+            }
+            try {
+              return QueueSubscription.start(rabbit, queueName, prefetch);
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          });
+    } catch (UncheckedIOException e) {
+      String errorMessage = "Failed to consume queue '" + queueName + "'";
+      log.with("queueName", queueName).error(errorMessage, e.getCause());
+      throw new CTPException(Fault.SYSTEM_ERROR, e.getCause(), errorMessage);
     }
+  }
 
-    return result == null ? null : new String(result.getBody());
+  private String subscriptionKey(String queueName) {
+    return rabbit.getAddress().getHostAddress() + ":" + rabbit.getPort() + "/" + queueName;
   }
 }
@@ -0,0 +1,26 @@
+package uk.gov.ons.ctp.common.rabbit;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import uk.gov.ons.ctp.common.event.EventPublisher.EventType;
+
+/**
+ * A message read from a queue by the RabbitHelper, with the fields of the event it holds which
+ * messages are most often looked for by. The fields are read from the JSON as the message arrives,
+ * so that messages can be matched without deserialising them.
+ */
+@Getter
+@AllArgsConstructor
+public class ReceivedMessage {
+  /** The message body. */
+  private final String body;
+
+  /** The type of the event, or null if the message has no event header. */
+  private final EventType eventType;
+
+  /** The transactionId of the event, or null if the message has no event header. */
+  private final String transactionId;
+
+  /** The id of the case the event is about, or null if it has none. */
+  private final String caseId;
+}
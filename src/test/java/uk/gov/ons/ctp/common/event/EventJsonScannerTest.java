@@ -0,0 +1,88 @@
+package uk.gov.ons.ctp.common.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+import uk.gov.ons.ctp.common.FixtureHelper;
+import uk.gov.ons.ctp.common.event.model.AddressModifiedEvent;
+import uk.gov.ons.ctp.common.event.model.CaseEvent;
+import uk.gov.ons.ctp.common.event.model.FeedbackEvent;
+import uk.gov.ons.ctp.common.event.model.FulfilmentRequestedEvent;
+import uk.gov.ons.ctp.common.event.model.Header;
+import uk.gov.ons.ctp.common.jackson.CustomObjectMapper;
+
+public class EventJsonScannerTest {
+
+  private CustomObjectMapper objectMapper = new CustomObjectMapper();
+
+  @Test
+  public void shouldReadHeader() throws Exception {
+    CaseEvent event = FixtureHelper.loadPackageFixtures(CaseEvent[].class).get(0);
+
+    Header header = EventJsonScanner.readHeader(objectMapper.writeValueAsString(event));
+
+    assertEquals(event.getEvent().getType(), header.getType());
+    assertEquals(event.getEvent().getSource(), header.getSource());
+    assertEquals(event.getEvent().getChannel(), header.getChannel());
+    assertEquals(event.getEvent().getTransactionId(), header.getTransactionId());
+    assertNull(header.getDateTime());
+  }
+
+  @Test
+  public void shouldNotReadMissingOrUnknownHeader() {
+    assertNull(EventJsonScanner.readHeader("{\"payload\": {\"event\": {}}}"));
+    assertNull(EventJsonScanner.readHeader("{\"event\": {\"type\": \"NO_SUCH_TYPE\"}}"));
+    assertNull(EventJsonScanner.readHeader("not json"));
+  }
+
+  @Test
+  public void shouldFindCaseIdField() throws Exception {
+    FulfilmentRequestedEvent event =
+        FixtureHelper.loadPackageFixtures(FulfilmentRequestedEvent[].class).get(0);
+
+    assertEquals(
+        event.getPayload().getFulfilmentRequest().getCaseId(),
+        EventJsonScanner.findCaseId(objectMapper.writeValueAsString(event)));
+  }
+
+  @Test
+  public void shouldFindCollectionCaseId() throws Exception {
+    CaseEvent event = FixtureHelper.loadPackageFixtures(CaseEvent[].class).get(0);
+
+    assertEquals(
+        event.getPayload().getCollectionCase().getId(),
+        EventJsonScanner.findCaseId(objectMapper.writeValueAsString(event)));
+  }
+
+  @Test
+  public void shouldFindNestedCollectionCaseId() throws Exception {
+    AddressModifiedEvent event =
+        FixtureHelper.loadPackageFixtures(AddressModifiedEvent[].class).get(0);
+
+    assertEquals(
+        event.getPayload().getAddressModification().getCollectionCase().getId().toString(),
+        EventJsonScanner.findCaseId(objectMapper.writeValueAsString(event)));
+  }
+
+  @Test
+  public void shouldIgnoreIdOfObjectAfterNullCollectionCase() {
+    String json =
+        "{\"payload\":{\"collectionCase\":null,\"address\":{\"id\":\"address-1\"},"
+            + "\"newCase\":{\"collectionCase\":{\"id\":\"case-1\"}}}}";
+
+    assertEquals("case-1", EventJsonScanner.findCaseId(json));
+    assertNull(
+        EventJsonScanner.findCaseId(
+            "{\"collectionCase\":\"none\",\"address\":{\"id\":\"address-1\"}}"));
+  }
+
+  @Test
+  public void shouldReturnNullWithoutCase() throws Exception {
+    FeedbackEvent event = FixtureHelper.loadPackageFixtures(FeedbackEvent[].class).get(0);
+
+    assertNull(EventJsonScanner.findCaseId(objectMapper.writeValueAsString(event)));
+    assertNull(EventJsonScanner.findCaseId("not json"));
+    assertNull(EventJsonScanner.findCaseId(null));
+  }
+}
@@ -0,0 +1,116 @@
+package uk.gov.ons.ctp.common.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static uk.gov.ons.ctp.common.event.EventPublisherTestUtil.assertHeader;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import uk.gov.ons.ctp.common.FixtureHelper;
+import uk.gov.ons.ctp.common.event.EventPublisher.Channel;
+import uk.gov.ons.ctp.common.event.EventPublisher.EventType;
+import uk.gov.ons.ctp.common.event.EventPublisher.RoutingKey;
+import uk.gov.ons.ctp.common.event.EventPublisher.Source;
+import uk.gov.ons.ctp.common.event.model.SurveyLaunchedEvent;
+import uk.gov.ons.ctp.common.event.model.SurveyLaunchedResponse;
+import uk.gov.ons.ctp.common.event.persistence.FirestoreEventPersistence;
+
+/** EventPublisher tests for asynchronous sending. */
+@RunWith(MockitoJUnitRunner.class)
+public class EventPublisherAsyncTest {
+
+  @InjectMocks private EventPublisher eventPublisher;
+  @Mock private RabbitTemplate template;
+  @Mock private SpringRabbitEventSender sender;
+  @Mock private FirestoreEventPersistence eventPersistence;
+
+  @Captor private ArgumentCaptor<SerialisedEvent> serialisedEventCaptor;
+
+  @Test
+  public void shouldSendEventAsync() throws Exception {
+    ExecutorService executor = EventPublisher.createAsyncExecutor(1, 10);
+    eventPublisher.setAsyncExecutor(executor);
+    SurveyLaunchedResponse surveyLaunchedResponse = loadJson(SurveyLaunchedResponse[].class);
+
+    String transactionId =
+        eventPublisher
+            .sendEventAsync(
+                EventType.SURVEY_LAUNCHED,
+                Source.RESPONDENT_HOME,
+                Channel.RH,
+                surveyLaunchedResponse)
+            .get(5, TimeUnit.SECONDS);
+
+    RoutingKey routingKey = RoutingKey.forType(EventType.SURVEY_LAUNCHED);
+    verify(sender, times(1)).sendSerialisedEvent(eq(routingKey), serialisedEventCaptor.capture());
+    SurveyLaunchedEvent event =
+        (SurveyLaunchedEvent) serialisedEventCaptor.getValue().getGenericEvent();
+    assertHeader(
+        event, transactionId, EventType.SURVEY_LAUNCHED, Source.RESPONDENT_HOME, Channel.RH);
+    assertEquals(surveyLaunchedResponse, event.getPayload().getResponse());
+    verify(eventPersistence, never()).persistSerialisedEvent(any(), any());
+    executor.shutdown();
+  }
+
+  @Test
+  public void shouldPersistEventAsyncWhenRabbitFails() throws Exception {
+    eventPublisher.setAsyncExecutor(Runnable::run);
+    Mockito.doThrow(new AmqpException("Failed to send"))
+        .when(sender)
+        .sendSerialisedEvent(any(), any());
+    SurveyLaunchedResponse surveyLaunchedResponse = loadJson(SurveyLaunchedResponse[].class);
+
+    String transactionId =
+        eventPublisher
+            .sendEventAsync(
+                EventType.SURVEY_LAUNCHED,
+                Source.RESPONDENT_HOME,
+                Channel.RH,
+                surveyLaunchedResponse)
+            .get();
+
+    verify(eventPersistence, times(1))
+        .persistSerialisedEvent(eq(EventType.SURVEY_LAUNCHED), serialisedEventCaptor.capture());
+    assertEquals(transactionId, serialisedEventCaptor.getValue().getHeader().getTransactionId());
+  }
+
+  @Test
+  public void shouldFailFutureWhenExecutorRejects() {
+    eventPublisher.setAsyncExecutor(
+        runnable -> {
+          throw new RejectedExecutionException("full");
+        });
+    SurveyLaunchedResponse surveyLaunchedResponse = loadJson(SurveyLaunchedResponse[].class);
+
+    CompletableFuture<String> future =
+        eventPublisher.sendEventAsync(
+            EventType.SURVEY_LAUNCHED, Source.RESPONDENT_HOME, Channel.RH, surveyLaunchedResponse);
+
+    ExecutionException e = assertThrows(ExecutionException.class, () -> future.get());
+    assertTrue(e.getCause() instanceof EventPublishException);
+    verify(sender, never()).sendSerialisedEvent(any(), any());
+  }
+
+  private <T> T loadJson(Class<T[]> clazz) {
+    return FixtureHelper.loadPackageFixtures(clazz).get(0);
+  }
+}
@@ -0,0 +1,107 @@
+package uk.gov.ons.ctp.common.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import uk.gov.ons.ctp.common.FixtureHelper;
+import uk.gov.ons.ctp.common.error.CTPException;
+import uk.gov.ons.ctp.common.error.CTPException.Fault;
+import uk.gov.ons.ctp.common.event.EventPublisher.Channel;
+import uk.gov.ons.ctp.common.event.EventPublisher.EventType;
+import uk.gov.ons.ctp.common.event.EventPublisher.RoutingKey;
+import uk.gov.ons.ctp.common.event.EventPublisher.Source;
+import uk.gov.ons.ctp.common.event.EventSendResult.Status;
+import uk.gov.ons.ctp.common.event.model.CaseEvent;
+import uk.gov.ons.ctp.common.event.model.CollectionCase;
+import uk.gov.ons.ctp.common.event.persistence.FirestoreEventPersistence;
+
+/** EventPublisher tests for sending batches of events. */
+@RunWith(MockitoJUnitRunner.class)
+public class EventPublisherBatchTest {
+
+  @InjectMocks private EventPublisher eventPublisher;
+  @Mock private RabbitTemplate template;
+  @Mock private SpringRabbitEventSender sender;
+  @Mock private FirestoreEventPersistence eventPersistence;
+
+  @Captor private ArgumentCaptor<List<SerialisedEvent>> batchCaptor;
+
+  @Test
+  public void shouldSendBatch() throws Exception {
+    List<CollectionCase> cases = List.of(aCase(), aCase(), aCase());
+
+    List<EventSendResult> results =
+        eventPublisher.sendEvents(EventType.CASE_CREATED, Source.SAMPLE_LOADER, Channel.RM, cases);
+
+    verify(sender, times(1))
+        .sendSerialisedEvents(eq(RoutingKey.EVENT_CASE_UPDATE), batchCaptor.capture());
+    List<SerialisedEvent> sent = batchCaptor.getValue();
+    assertEquals(3, sent.size());
+    assertEquals(3, results.size());
+    for (int i = 0; i < 3; i++) {
+      CaseEvent event = (CaseEvent) sent.get(i).getGenericEvent();
+      assertEquals(EventType.CASE_CREATED, event.getEvent().getType());
+      assertEquals(cases.get(i), event.getPayload().getCollectionCase());
+      assertEquals(event.getEvent().getTransactionId(), results.get(i).getTransactionId());
+      assertEquals(Status.SENT, results.get(i).getStatus());
+    }
+    verify(eventPersistence, never()).persistSerialisedEvent(any(), any());
+  }
+
+  @Test
+  public void shouldPersistOnlyFailedEvents() throws Exception {
+    when(sender.sendSerialisedEvents(any(), any()))
+        .thenAnswer(invocation -> List.of(invocation.<List<SerialisedEvent>>getArgument(1).get(1)));
+
+    List<EventSendResult> results =
+        eventPublisher.sendEvents(
+            EventType.CASE_CREATED, Source.SAMPLE_LOADER, Channel.RM, List.of(aCase(), aCase()));
+
+    assertEquals(Status.SENT, results.get(0).getStatus());
+    assertEquals(Status.PERSISTED, results.get(1).getStatus());
+    ArgumentCaptor<SerialisedEvent> persisted = ArgumentCaptor.forClass(SerialisedEvent.class);
+    verify(eventPersistence, times(1))
+        .persistSerialisedEvent(eq(EventType.CASE_CREATED), persisted.capture());
+    assertEquals(
+        results.get(1).getTransactionId(), persisted.getValue().getHeader().getTransactionId());
+    verify(sender).sendSerialisedEvents(any(), batchCaptor.capture());
+    assertSame(batchCaptor.getValue().get(1), persisted.getValue());
+  }
+
+  @Test
+  public void shouldReportFailureWhenRabbitAndFirestoreFail() throws Exception {
+    when(sender.sendSerialisedEvents(any(), any())).thenThrow(new AmqpException("Failed to send"));
+    Mockito.doThrow(new CTPException(Fault.SYSTEM_ERROR, "Firestore broken"))
+        .when(eventPersistence)
+        .persistSerialisedEvent(any(), any());
+
+    List<EventSendResult> results =
+        eventPublisher.sendEvents(
+            EventType.CASE_CREATED, Source.SAMPLE_LOADER, Channel.RM, List.of(aCase(), aCase()));
+
+    assertEquals(Status.FAILED, results.get(0).getStatus());
+    assertEquals(Status.FAILED, results.get(1).getStatus());
+    verify(eventPersistence, times(2)).persistSerialisedEvent(eq(EventType.CASE_CREATED), any());
+  }
+
+  private CollectionCase aCase() {
+    return FixtureHelper.loadPackageFixtures(CollectionCase[].class).get(0);
+  }
+}
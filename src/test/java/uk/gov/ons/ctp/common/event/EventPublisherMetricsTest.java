@@ -0,0 +1,131 @@
+package uk.gov.ons.ctp.common.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import uk.gov.ons.ctp.common.FixtureHelper;
+import uk.gov.ons.ctp.common.error.CTPException;
+import uk.gov.ons.ctp.common.error.CTPException.Fault;
+import uk.gov.ons.ctp.common.event.EventPublisher.Channel;
+import uk.gov.ons.ctp.common.event.EventPublisher.EventType;
+import uk.gov.ons.ctp.common.event.EventPublisher.Source;
+import uk.gov.ons.ctp.common.event.model.SurveyLaunchedResponse;
+import uk.gov.ons.ctp.common.event.persistence.FirestoreEventPersistence;
+
+/** EventPublisher tests for recording metrics. */
+@RunWith(MockitoJUnitRunner.class)
+public class EventPublisherMetricsTest {
+
+  @InjectMocks private EventPublisher eventPublisher;
+  @Mock private RabbitTemplate template;
+  @Mock private SpringRabbitEventSender sender;
+  @Mock private FirestoreEventPersistence eventPersistence;
+
+  private MeterRegistry registry;
+  private SurveyLaunchedResponse surveyLaunchedResponse;
+
+  @Before
+  public void setup() throws Exception {
+    registry = new SimpleMeterRegistry();
+    MicrometerEventPublisherMetrics metrics = new MicrometerEventPublisherMetrics(registry);
+    eventPublisher.setMetrics(metrics);
+    verify(sender).setMetrics(metrics);
+    surveyLaunchedResponse =
+        FixtureHelper.loadPackageFixtures(SurveyLaunchedResponse[].class).get(0);
+  }
+
+  @Test
+  public void shouldRecordBuildAndPublish() {
+    sendEvent();
+
+    assertEquals(1, registry.get("event.publisher.build").tags(tags()).timer().count());
+    assertEquals(1, registry.get("event.publisher.publish").tags(tags()).timer().count());
+    assertEquals(0, registry.get("event.publisher.fallback.persist").tags(tags()).timer().count());
+  }
+
+  @Test
+  public void shouldRecordFallbackPersist() {
+    Mockito.doThrow(new AmqpException("Failed to send"))
+        .when(sender)
+        .sendSerialisedEvent(any(), any());
+
+    sendEvent();
+
+    assertEquals(1, registry.get("event.publisher.fallback.persist").tags(tags()).timer().count());
+    assertEquals(
+        0.0, registry.get("event.publisher.fallback.failures").tags(tags()).counter().count(), 0.0);
+  }
+
+  @Test
+  public void shouldRecordFallbackFailure() throws Exception {
+    Mockito.doThrow(new AmqpException("Failed to send"))
+        .when(sender)
+        .sendSerialisedEvent(any(), any());
+    Mockito.doThrow(new CTPException(Fault.SYSTEM_ERROR, "Firestore broken"))
+        .when(eventPersistence)
+        .persistSerialisedEvent(any(), any());
+
+    assertThrows(EventPublishException.class, () -> sendEvent());
+
+    assertEquals(
+        1.0, registry.get("event.publisher.fallback.failures").tags(tags()).counter().count(), 0.0);
+  }
+
+  @Test
+  public void shouldRecordCircuitBreakerBypass() {
+    eventPublisher.setCircuitBreakerState(() -> CircuitBreakerState.State.OPEN);
+
+    sendEvent();
+
+    assertEquals(
+        1.0,
+        registry.get("event.publisher.circuitbreaker.bypassed").tags(tags()).counter().count(),
+        0.0);
+    assertEquals(0, registry.get("event.publisher.publish").tags(tags()).timer().count());
+    assertEquals(1, registry.get("event.publisher.fallback.persist").tags(tags()).timer().count());
+  }
+
+  @Test
+  public void shouldPreRegisterMeters() {
+    new MicrometerEventPublisherMetrics(registry)
+        .preRegister(Source.CONTACT_CENTRE_API, Channel.CC);
+
+    assertNotNull(
+        registry
+            .get("event.publisher.publish")
+            .tags(
+                "eventType", "FULFILMENT_REQUESTED",
+                "routingKey", "event.fulfilment.request",
+                "source", "CONTACT_CENTRE_API",
+                "channel", "CC")
+            .timer());
+  }
+
+  private void sendEvent() {
+    eventPublisher.sendEvent(
+        EventType.SURVEY_LAUNCHED, Source.RESPONDENT_HOME, Channel.RH, surveyLaunchedResponse);
+  }
+
+  private String[] tags() {
+    return new String[] {
+      "eventType", "SURVEY_LAUNCHED",
+      "routingKey", "event.response.authentication",
+      "source", "RESPONDENT_HOME",
+      "channel", "RH"
+    };
+  }
+}
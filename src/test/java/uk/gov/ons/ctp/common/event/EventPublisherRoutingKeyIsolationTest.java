@@ -0,0 +1,186 @@
+package uk.gov.ons.ctp.common.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.timelimiter.TimeLimiterConfig;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cloud.circuitbreaker.resilience4j.Resilience4JCircuitBreakerFactory;
+import org.springframework.cloud.circuitbreaker.resilience4j.Resilience4JConfigBuilder;
+import uk.gov.ons.ctp.common.FixtureHelper;
+import uk.gov.ons.ctp.common.event.CircuitBreakerState.State;
+import uk.gov.ons.ctp.common.event.EventPublisher.Channel;
+import uk.gov.ons.ctp.common.event.EventPublisher.EventType;
+import uk.gov.ons.ctp.common.event.EventPublisher.RoutingKey;
+import uk.gov.ons.ctp.common.event.EventPublisher.Source;
+import uk.gov.ons.ctp.common.event.model.FulfilmentRequest;
+import uk.gov.ons.ctp.common.event.model.SurveyLaunchedResponse;
+import uk.gov.ons.ctp.common.event.persistence.InMemoryEventPersistence;
+
+/** EventPublisher tests with a circuit breaker and bulkhead per routing key */
+public class EventPublisherRoutingKeyIsolationTest {
+
+  private static final RoutingKey FAILING_KEY = RoutingKey.EVENT_RESPONSE_AUTHENTICATION;
+  private static final RoutingKey HEALTHY_KEY = RoutingKey.EVENT_FULFILMENT_REQUEST;
+
+  private final InMemoryEventSender delivered = new InMemoryEventSender(100, false);
+  private final AtomicInteger failingKeyAttempts = new AtomicInteger();
+  private volatile boolean failingKeyDown;
+  private volatile CountDownLatch failingKeyBlocker;
+
+  private InMemoryEventPersistence persistence;
+  private EventPublisher eventPublisher;
+  private SurveyLaunchedResponse surveyLaunchedResponse;
+  private FulfilmentRequest fulfilmentRequest;
+
+  @Before
+  public void setUp() {
+    EventSender sender =
+        (routingKey, genericEvent) -> {
+          if (routingKey == FAILING_KEY) {
+            failingKeyAttempts.incrementAndGet();
+            awaitBlocker();
+            if (failingKeyDown) {
+              throw new EventPublishException("Broker queue unavailable");
+            }
+          }
+          delivered.sendEvent(routingKey, genericEvent);
+        };
+    persistence = new InMemoryEventPersistence(100);
+    eventPublisher = EventPublisher.createWithEventPersistence(sender, persistence, null);
+    surveyLaunchedResponse =
+        FixtureHelper.loadPackageFixtures(SurveyLaunchedResponse[].class).get(0);
+    fulfilmentRequest = FixtureHelper.loadPackageFixtures(FulfilmentRequest[].class).get(0);
+  }
+
+  private void awaitBlocker() {
+    CountDownLatch blocker = failingKeyBlocker;
+    if (blocker != null) {
+      try {
+        blocker.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  @Test
+  public void shouldOnlyOpenCircuitBreakerOfFailingRoutingKey() {
+    CircuitBreakerRegistry registry =
+        CircuitBreakerRegistry.of(
+            CircuitBreakerConfig.custom()
+                .slidingWindowSize(2)
+                .minimumNumberOfCalls(2)
+                .failureRateThreshold(50)
+                .waitDurationInOpenState(Duration.ofMinutes(1))
+                .build());
+    Resilience4JCircuitBreakerFactory factory = new Resilience4JCircuitBreakerFactory();
+    factory.configureCircuitBreakerRegistry(registry);
+    factory.configureDefault(
+        id ->
+            new Resilience4JConfigBuilder(id)
+                .circuitBreakerConfig(registry.getDefaultConfig())
+                .timeLimiterConfig(TimeLimiterConfig.ofDefaults())
+                .build());
+    eventPublisher.setRoutingKeyIsolation(
+        RoutingKeyIsolation.builder()
+            .circuitBreakerFactory(factory)
+            .circuitBreakerStates(CircuitBreakerState.lookup(registry))
+            .build());
+    failingKeyDown = true;
+
+    for (int i = 0; i < 5; i++) {
+      sendSurveyLaunched();
+      sendFulfilmentRequest();
+    }
+
+    // The breaker opened after two failures, so the last three events skipped the broker
+    assertEquals(2, failingKeyAttempts.get());
+    assertEquals(5, persistence.size());
+    assertEquals(5, delivered.getSentCount(HEALTHY_KEY));
+    assertEquals(
+        State.OPEN, eventPublisher.getRoutingKeyStatus(FAILING_KEY).getCircuitBreakerState());
+    assertEquals(
+        State.CLOSED, eventPublisher.getRoutingKeyStatus(HEALTHY_KEY).getCircuitBreakerState());
+  }
+
+  @Test
+  public void shouldPersistEventWhenRoutingKeyBulkheadIsFull() throws Exception {
+    eventPublisher.setRoutingKeyIsolation(
+        RoutingKeyIsolation.builder().maxConcurrentSends(1).build());
+    failingKeyBlocker = new CountDownLatch(1);
+
+    Thread slowSend = new Thread(this::sendSurveyLaunched);
+    slowSend.start();
+    while (eventPublisher.getRoutingKeyStatus(FAILING_KEY).getActiveSends() == 0) {
+      Thread.sleep(1);
+    }
+
+    sendSurveyLaunched();
+    sendFulfilmentRequest();
+
+    RoutingKeyStatus status = eventPublisher.getRoutingKeyStatus(FAILING_KEY);
+    assertTrue(status.isSaturated());
+    assertEquals(1, status.getBulkheadRejections());
+    assertNull(status.getCircuitBreakerState());
+    assertEquals(1, persistence.size());
+    assertEquals(1, delivered.getSentCount(HEALTHY_KEY));
+    assertFalse(eventPublisher.getRoutingKeyStatus(HEALTHY_KEY).isSaturated());
+
+    failingKeyBlocker.countDown();
+    slowSend.join(10000);
+
+    assertEquals(0, eventPublisher.getRoutingKeyStatus(FAILING_KEY).getActiveSends());
+    assertEquals(1, delivered.getSentCount(FAILING_KEY));
+    assertEquals(1, failingKeyAttempts.get());
+  }
+
+  @Test(expected = EventBulkheadFullException.class)
+  public void shouldRejectEventWhenBulkheadIsFullWithoutPersistence() throws Exception {
+    EventSender sender =
+        (routingKey, genericEvent) -> {
+          awaitBlocker();
+          delivered.sendEvent(routingKey, genericEvent);
+        };
+    eventPublisher = EventPublisher.createWithoutEventPersistence(sender);
+    eventPublisher.setRoutingKeyIsolation(
+        RoutingKeyIsolation.builder().maxConcurrentSends(1).build());
+    failingKeyBlocker = new CountDownLatch(1);
+
+    Thread slowSend = new Thread(this::sendSurveyLaunched);
+    slowSend.start();
+    try {
+      while (eventPublisher.getRoutingKeyStatus(FAILING_KEY).getActiveSends() == 0) {
+        Thread.sleep(1);
+      }
+      sendSurveyLaunched();
+    } finally {
+      failingKeyBlocker.countDown();
+      slowSend.join(10000);
+    }
+  }
+
+  @Test
+  public void shouldReportNoStatusWithoutRoutingKeyIsolation() {
+    assertNull(eventPublisher.getRoutingKeyStatus(FAILING_KEY));
+  }
+
+  private void sendSurveyLaunched() {
+    eventPublisher.sendEvent(
+        EventType.SURVEY_LAUNCHED, Source.RESPONDENT_HOME, Channel.RH, surveyLaunchedResponse);
+  }
+
+  private void sendFulfilmentRequest() {
+    eventPublisher.sendEvent(
+        EventType.FULFILMENT_REQUESTED, Source.CONTACT_CENTRE_API, Channel.CC, fulfilmentRequest);
+  }
+}
@@ -6,20 +6,26 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
-import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static uk.gov.ons.ctp.common.event.EventPublisherTestUtil.assertHeader;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
 import java.util.Date;
+import java.util.Map;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
-import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -72,23 +78,10 @@ public class EventPublisherTest {
 
   ObjectMapper objectMapper = new CustomObjectMapper();
 
-  @Captor private ArgumentCaptor<FulfilmentRequestedEvent> fulfilmentRequestedEventCaptor;
-  @Captor private ArgumentCaptor<RespondentAuthenticatedEvent> respondentAuthenticatedEventCaptor;
-  @Captor private ArgumentCaptor<RespondentRefusalEvent> respondentRefusalEventCaptor;
-  @Captor private ArgumentCaptor<UACEvent> uacEventCaptor;
-  @Captor private ArgumentCaptor<SurveyLaunchedEvent> surveyLaunchedEventCaptor;
-  @Captor private ArgumentCaptor<AddressModifiedEvent> addressModifiedEventCaptor;
-  @Captor private ArgumentCaptor<AddressNotValidEvent> addressNotValidEventCaptor;
-  @Captor private ArgumentCaptor<AddressTypeChangedEvent> addressTypeChangedEventCaptor;
-  @Captor private ArgumentCaptor<CaseEvent> caseEventCaptor;
-  @Captor private ArgumentCaptor<FeedbackEvent> feedbackEventCaptor;
-  @Captor private ArgumentCaptor<NewAddressReportedEvent> newAddressReportedEventCaptor;
-  @Captor private ArgumentCaptor<QuestionnaireLinkedEvent> questionnaireLinkedEventCaptor;
-
   private Date startOfTestDateTime;
 
   @Before
-  public void setup() {
+  public void setup() throws Exception {
     this.startOfTestDateTime = new Date();
   }
 
@@ -115,13 +108,64 @@ public class EventPublisherTest {
             EventType.SURVEY_LAUNCHED, Source.RESPONDENT_HOME, Channel.RH, surveyLaunchedResponse);
 
     RoutingKey routingKey = RoutingKey.forType(EventType.SURVEY_LAUNCHED);
-    verify(sender, times(1)).sendEvent(eq(routingKey), surveyLaunchedEventCaptor.capture());
-    SurveyLaunchedEvent event = surveyLaunchedEventCaptor.getValue();
+    SurveyLaunchedEvent event = verifySent(routingKey, SurveyLaunchedEvent.class);
     assertHeader(
         event, transactionId, EventType.SURVEY_LAUNCHED, Source.RESPONDENT_HOME, Channel.RH);
     assertEquals(surveyLaunchedResponse, event.getPayload().getResponse());
   }
 
+  @Test
+  public void sendEventWithClockTime() {
+    Instant now = Instant.parse("2020-06-29T13:25:36.042Z");
+    eventPublisher.setClock(Clock.fixed(now, ZoneOffset.UTC));
+    SurveyLaunchedResponse surveyLaunchedResponse = loadJson(SurveyLaunchedResponse[].class);
+
+    eventPublisher.sendEvent(
+        EventType.SURVEY_LAUNCHED, Source.RESPONDENT_HOME, Channel.RH, surveyLaunchedResponse);
+
+    SurveyLaunchedEvent sent =
+        verifySent(RoutingKey.forType(EventType.SURVEY_LAUNCHED), SurveyLaunchedEvent.class);
+    assertEquals(Date.from(now), sent.getEvent().getDateTime());
+  }
+
+  @Test
+  public void sendEventWithTransactionIdGenerator() {
+    eventPublisher.setTransactionIdGenerator(() -> "c45de4dc-3c3b-11e9-b210-d663bd873d93");
+    SurveyLaunchedResponse surveyLaunchedResponse = loadJson(SurveyLaunchedResponse[].class);
+
+    String transactionId =
+        eventPublisher.sendEvent(
+            EventType.SURVEY_LAUNCHED, Source.RESPONDENT_HOME, Channel.RH, surveyLaunchedResponse);
+
+    assertEquals("c45de4dc-3c3b-11e9-b210-d663bd873d93", transactionId);
+    SurveyLaunchedEvent sent =
+        verifySent(RoutingKey.forType(EventType.SURVEY_LAUNCHED), SurveyLaunchedEvent.class);
+    assertEquals(transactionId, sent.getEvent().getTransactionId());
+  }
+
+  @Test
+  public void sendEventWithRoutingOverride() {
+    eventPublisher.setRoutingOverrides(
+        Map.of(EventType.SURVEY_LAUNCHED, RoutingKey.EVENT_RESPONSE_RECEIPT));
+    SurveyLaunchedResponse surveyLaunchedResponse = loadJson(SurveyLaunchedResponse[].class);
+
+    eventPublisher.sendEvent(
+        EventType.SURVEY_LAUNCHED, Source.RESPONDENT_HOME, Channel.RH, surveyLaunchedResponse);
+
+    SurveyLaunchedEvent sent =
+        verifySent(RoutingKey.EVENT_RESPONSE_RECEIPT, SurveyLaunchedEvent.class);
+    assertEquals(surveyLaunchedResponse, sent.getPayload().getResponse());
+  }
+
+  @Test
+  public void shouldFindRoutingKeyForEveryRoutedType() {
+    for (RoutingKey routingKey : RoutingKey.values()) {
+      for (EventType eventType : routingKey.getEventTypes()) {
+        assertEquals(routingKey, RoutingKey.forType(eventType));
+      }
+    }
+  }
+
   @Test
   public void sendEventRespondentAuthenticatedPayload() {
     RespondentAuthenticatedResponse respondentAuthenticatedResponse =
@@ -135,9 +179,7 @@ public class EventPublisherTest {
             respondentAuthenticatedResponse);
 
     RoutingKey routingKey = RoutingKey.forType(EventType.RESPONDENT_AUTHENTICATED);
-    verify(sender, times(1))
-        .sendEvent(eq(routingKey), respondentAuthenticatedEventCaptor.capture());
-    RespondentAuthenticatedEvent event = respondentAuthenticatedEventCaptor.getValue();
+    RespondentAuthenticatedEvent event = verifySent(routingKey, RespondentAuthenticatedEvent.class);
 
     assertHeader(
         event,
@@ -160,8 +202,7 @@ public class EventPublisherTest {
             fulfilmentRequest);
 
     RoutingKey routingKey = RoutingKey.forType(EventType.FULFILMENT_REQUESTED);
-    verify(sender, times(1)).sendEvent(eq(routingKey), fulfilmentRequestedEventCaptor.capture());
-    FulfilmentRequestedEvent event = fulfilmentRequestedEventCaptor.getValue();
+    FulfilmentRequestedEvent event = verifySent(routingKey, FulfilmentRequestedEvent.class);
 
     assertHeader(
         event,
@@ -184,8 +225,7 @@ public class EventPublisherTest {
             respondentRefusalDetails);
 
     RoutingKey routingKey = RoutingKey.forType(EventType.REFUSAL_RECEIVED);
-    verify(sender, times(1)).sendEvent(eq(routingKey), respondentRefusalEventCaptor.capture());
-    RespondentRefusalEvent event = respondentRefusalEventCaptor.getValue();
+    RespondentRefusalEvent event = verifySent(routingKey, RespondentRefusalEvent.class);
 
     assertHeader(
         event, transactionId, EventType.REFUSAL_RECEIVED, Source.CONTACT_CENTRE_API, Channel.CC);
@@ -221,8 +261,7 @@ public class EventPublisherTest {
             EventType.ADDRESS_MODIFIED, Source.RESPONDENT_HOME, Channel.RH, addressModification);
 
     RoutingKey routingKey = RoutingKey.forType(EventType.ADDRESS_MODIFIED);
-    verify(sender, times(1)).sendEvent(eq(routingKey), addressModifiedEventCaptor.capture());
-    AddressModifiedEvent event = addressModifiedEventCaptor.getValue();
+    AddressModifiedEvent event = verifySent(routingKey, AddressModifiedEvent.class);
 
     assertHeader(
         event, transactionId, EventType.ADDRESS_MODIFIED, Source.RESPONDENT_HOME, Channel.RH);
@@ -238,8 +277,7 @@ public class EventPublisherTest {
             EventType.ADDRESS_NOT_VALID, Source.CONTACT_CENTRE_API, Channel.CC, payload);
 
     RoutingKey routingKey = RoutingKey.forType(EventType.ADDRESS_NOT_VALID);
-    verify(sender).sendEvent(eq(routingKey), addressNotValidEventCaptor.capture());
-    AddressNotValidEvent event = addressNotValidEventCaptor.getValue();
+    AddressNotValidEvent event = verifySent(routingKey, AddressNotValidEvent.class);
 
     assertHeader(
         event, transactionId, EventType.ADDRESS_NOT_VALID, Source.CONTACT_CENTRE_API, Channel.CC);
@@ -253,8 +291,7 @@ public class EventPublisherTest {
         eventPublisher.sendEvent(type, Source.CONTACT_CENTRE_API, Channel.CC, payload);
 
     RoutingKey routingKey = RoutingKey.forType(type);
-    verify(sender).sendEvent(eq(routingKey), caseEventCaptor.capture());
-    CaseEvent event = caseEventCaptor.getValue();
+    CaseEvent event = verifySent(routingKey, CaseEvent.class);
 
     assertHeader(event, transactionId, type, Source.CONTACT_CENTRE_API, Channel.CC);
     assertEquals(payload, event.getPayload().getCollectionCase());
@@ -279,8 +316,7 @@ public class EventPublisherTest {
             EventType.ADDRESS_TYPE_CHANGED, Source.CONTACT_CENTRE_API, Channel.CC, payload);
 
     RoutingKey routingKey = RoutingKey.forType(EventType.ADDRESS_TYPE_CHANGED);
-    verify(sender, times(1)).sendEvent(eq(routingKey), addressTypeChangedEventCaptor.capture());
-    AddressTypeChangedEvent event = addressTypeChangedEventCaptor.getValue();
+    AddressTypeChangedEvent event = verifySent(routingKey, AddressTypeChangedEvent.class);
 
     assertHeader(
         event,
@@ -300,8 +336,7 @@ public class EventPublisherTest {
             EventType.FEEDBACK, Source.RESPONDENT_HOME, Channel.RH, feedbackResponse);
 
     RoutingKey routingKey = RoutingKey.forType(EventType.FEEDBACK);
-    verify(sender, times(1)).sendEvent(eq(routingKey), feedbackEventCaptor.capture());
-    FeedbackEvent event = feedbackEventCaptor.getValue();
+    FeedbackEvent event = verifySent(routingKey, FeedbackEvent.class);
 
     assertHeader(event, transactionId, EventType.FEEDBACK, Source.RESPONDENT_HOME, Channel.RH);
     assertEquals(feedbackResponse, event.getPayload().getFeedback());
@@ -319,8 +354,7 @@ public class EventPublisherTest {
             questionnaireLinked);
 
     RoutingKey routingKey = RoutingKey.forType(EventType.QUESTIONNAIRE_LINKED);
-    verify(sender, times(1)).sendEvent(eq(routingKey), questionnaireLinkedEventCaptor.capture());
-    QuestionnaireLinkedEvent event = questionnaireLinkedEventCaptor.getValue();
+    QuestionnaireLinkedEvent event = verifySent(routingKey, QuestionnaireLinkedEvent.class);
 
     assertHeader(
         event, transactionId, EventType.QUESTIONNAIRE_LINKED, Source.RESPONDENT_HOME, Channel.RH);
@@ -336,8 +370,7 @@ public class EventPublisherTest {
             EventType.NEW_ADDRESS_REPORTED, Source.CONTACT_CENTRE_API, Channel.CC, payload);
 
     RoutingKey routingKey = RoutingKey.forType(EventType.NEW_ADDRESS_REPORTED);
-    verify(sender, times(1)).sendEvent(eq(routingKey), newAddressReportedEventCaptor.capture());
-    NewAddressReportedEvent event = newAddressReportedEventCaptor.getValue();
+    NewAddressReportedEvent event = verifySent(routingKey, NewAddressReportedEvent.class);
 
     assertHeader(
         event,
@@ -355,8 +388,7 @@ public class EventPublisherTest {
         eventPublisher.sendEvent(type, Source.CONTACT_CENTRE_API, Channel.CC, payload);
 
     RoutingKey routingKey = RoutingKey.forType(type);
-    verify(sender).sendEvent(eq(routingKey), uacEventCaptor.capture());
-    UACEvent event = uacEventCaptor.getValue();
+    UACEvent event = verifySent(routingKey, UACEvent.class);
 
     assertHeader(event, transactionId, type, Source.CONTACT_CENTRE_API, Channel.CC);
     assertEquals(payload, event.getPayload().getUac());
@@ -388,8 +420,7 @@ public class EventPublisherTest {
     sendBackupEvent(ev);
 
     RoutingKey routingKey = RoutingKey.forType(EventType.FULFILMENT_REQUESTED);
-    verify(sender).sendEvent(eq(routingKey), fulfilmentRequestedEventCaptor.capture());
-    verifyEventSent(ev, fulfilmentRequestedEventCaptor.getValue());
+    verifyEventSent(ev, verifySent(routingKey, FulfilmentRequestedEvent.class));
   }
 
   @Test
@@ -398,8 +429,7 @@ public class EventPublisherTest {
     sendBackupEvent(ev);
 
     RoutingKey routingKey = RoutingKey.forType(EventType.RESPONDENT_AUTHENTICATED);
-    verify(sender).sendEvent(eq(routingKey), respondentAuthenticatedEventCaptor.capture());
-    verifyEventSent(ev, respondentAuthenticatedEventCaptor.getValue());
+    verifyEventSent(ev, verifySent(routingKey, RespondentAuthenticatedEvent.class));
   }
 
   @Test
@@ -408,8 +438,7 @@ public class EventPublisherTest {
     sendBackupEvent(ev);
 
     RoutingKey routingKey = RoutingKey.forType(EventType.REFUSAL_RECEIVED);
-    verify(sender).sendEvent(eq(routingKey), respondentRefusalEventCaptor.capture());
-    verifyEventSent(ev, respondentRefusalEventCaptor.getValue());
+    verifyEventSent(ev, verifySent(routingKey, RespondentRefusalEvent.class));
   }
 
   @Test
@@ -419,8 +448,7 @@ public class EventPublisherTest {
     sendBackupEvent(ev);
 
     RoutingKey routingKey = RoutingKey.forType(EventType.UAC_CREATED);
-    verify(sender).sendEvent(eq(routingKey), uacEventCaptor.capture());
-    verifyEventSent(ev, uacEventCaptor.getValue());
+    verifyEventSent(ev, verifySent(routingKey, UACEvent.class));
   }
 
   @Test
@@ -430,8 +458,7 @@ public class EventPublisherTest {
     sendBackupEvent(ev);
 
     RoutingKey routingKey = RoutingKey.forType(EventType.UAC_UPDATED);
-    verify(sender).sendEvent(eq(routingKey), uacEventCaptor.capture());
-    verifyEventSent(ev, uacEventCaptor.getValue());
+    verifyEventSent(ev, verifySent(routingKey, UACEvent.class));
   }
 
   @Test
@@ -440,8 +467,7 @@ public class EventPublisherTest {
     sendBackupEvent(ev);
 
     RoutingKey routingKey = RoutingKey.forType(EventType.SURVEY_LAUNCHED);
-    verify(sender).sendEvent(eq(routingKey), surveyLaunchedEventCaptor.capture());
-    verifyEventSent(ev, surveyLaunchedEventCaptor.getValue());
+    verifyEventSent(ev, verifySent(routingKey, SurveyLaunchedEvent.class));
   }
 
   @Test
@@ -450,8 +476,7 @@ public class EventPublisherTest {
     sendBackupEvent(ev);
 
     RoutingKey routingKey = RoutingKey.forType(EventType.ADDRESS_MODIFIED);
-    verify(sender).sendEvent(eq(routingKey), addressModifiedEventCaptor.capture());
-    verifyEventSent(ev, addressModifiedEventCaptor.getValue());
+    verifyEventSent(ev, verifySent(routingKey, AddressModifiedEvent.class));
   }
 
   @Test
@@ -460,8 +485,7 @@ public class EventPublisherTest {
     sendBackupEvent(ev);
 
     RoutingKey routingKey = RoutingKey.forType(EventType.ADDRESS_NOT_VALID);
-    verify(sender).sendEvent(eq(routingKey), addressNotValidEventCaptor.capture());
-    verifyEventSent(ev, addressNotValidEventCaptor.getValue());
+    verifyEventSent(ev, verifySent(routingKey, AddressNotValidEvent.class));
   }
 
   @Test
@@ -470,8 +494,7 @@ public class EventPublisherTest {
     sendBackupEvent(ev);
 
     RoutingKey routingKey = RoutingKey.forType(EventType.ADDRESS_TYPE_CHANGED);
-    verify(sender).sendEvent(eq(routingKey), addressTypeChangedEventCaptor.capture());
-    verifyEventSent(ev, addressTypeChangedEventCaptor.getValue());
+    verifyEventSent(ev, verifySent(routingKey, AddressTypeChangedEvent.class));
   }
 
   @Test
@@ -481,8 +504,7 @@ public class EventPublisherTest {
     sendBackupEvent(ev);
 
     RoutingKey routingKey = RoutingKey.forType(EventType.CASE_CREATED);
-    verify(sender).sendEvent(eq(routingKey), caseEventCaptor.capture());
-    verifyEventSent(ev, caseEventCaptor.getValue());
+    verifyEventSent(ev, verifySent(routingKey, CaseEvent.class));
   }
 
   @Test
@@ -492,8 +514,7 @@ public class EventPublisherTest {
     sendBackupEvent(ev);
 
     RoutingKey routingKey = RoutingKey.forType(EventType.CASE_UPDATED);
-    verify(sender).sendEvent(eq(routingKey), caseEventCaptor.capture());
-    verifyEventSent(ev, caseEventCaptor.getValue());
+    verifyEventSent(ev, verifySent(routingKey, CaseEvent.class));
   }
 
   @Test
@@ -502,8 +523,7 @@ public class EventPublisherTest {
     sendBackupEvent(ev);
 
     RoutingKey routingKey = RoutingKey.forType(EventType.FEEDBACK);
-    verify(sender).sendEvent(eq(routingKey), feedbackEventCaptor.capture());
-    verifyEventSent(ev, feedbackEventCaptor.getValue());
+    verifyEventSent(ev, verifySent(routingKey, FeedbackEvent.class));
   }
 
   @Test
@@ -512,8 +532,7 @@ public class EventPublisherTest {
     sendBackupEvent(ev);
 
     RoutingKey routingKey = RoutingKey.forType(EventType.NEW_ADDRESS_REPORTED);
-    verify(sender).sendEvent(eq(routingKey), newAddressReportedEventCaptor.capture());
-    verifyEventSent(ev, newAddressReportedEventCaptor.getValue());
+    verifyEventSent(ev, verifySent(routingKey, NewAddressReportedEvent.class));
   }
 
   @Test
@@ -522,8 +541,7 @@ public class EventPublisherTest {
     sendBackupEvent(ev);
 
     RoutingKey routingKey = RoutingKey.forType(EventType.QUESTIONNAIRE_LINKED);
-    verify(sender).sendEvent(eq(routingKey), questionnaireLinkedEventCaptor.capture());
-    verifyEventSent(ev, questionnaireLinkedEventCaptor.getValue());
+    verifyEventSent(ev, verifySent(routingKey, QuestionnaireLinkedEvent.class));
   }
 
   @Test(expected = UnsupportedOperationException.class)
@@ -541,6 +559,44 @@ public class EventPublisherTest {
     eventPublisher.sendEvent(data);
   }
 
+  @Test
+  public void shouldSendRawBackupEventUnchanged() throws Exception {
+    CaseEvent ev = aCaseEvent();
+    ev.getEvent().setType(EventType.CASE_UPDATED);
+    EventBackupData data = createEvent(ev);
+
+    String txId = eventPublisher.sendRawEvent(data);
+
+    assertEquals(ev.getEvent().getTransactionId(), txId);
+    ArgumentCaptor<Header> headerCaptor = ArgumentCaptor.forClass(Header.class);
+    ArgumentCaptor<byte[]> bodyCaptor = ArgumentCaptor.forClass(byte[].class);
+    verify(sender)
+        .sendRawEvent(
+            eq(RoutingKey.forType(EventType.CASE_UPDATED)),
+            headerCaptor.capture(),
+            bodyCaptor.capture());
+    assertEquals(EventType.CASE_UPDATED, headerCaptor.getValue().getType());
+    assertEquals(txId, headerCaptor.getValue().getTransactionId());
+    assertEquals(data.getEvent(), new String(bodyCaptor.getValue(), StandardCharsets.UTF_8));
+  }
+
+  @Test(expected = EventPublishException.class)
+  public void shouldRejectRawBackupEventWithMismatchedType() throws Exception {
+    CaseEvent ev = aCaseEvent();
+    ev.getEvent().setType(EventType.CASE_UPDATED);
+    EventBackupData data = createEvent(ev);
+    data.setEventType(EventType.FEEDBACK);
+    eventPublisher.sendRawEvent(data);
+  }
+
+  @Test(expected = EventPublishException.class)
+  public void shouldRejectRawBackupEventWithoutHeader() throws Exception {
+    CaseEvent ev = aCaseEvent();
+    EventBackupData data = createEvent(ev);
+    data.setEvent("{\"payload\": {}}");
+    eventPublisher.sendRawEvent(data);
+  }
+
   // --- helpers
 
   private void sendBackupEvent(GenericEvent ev) throws Exception {
@@ -620,6 +676,16 @@ public class EventPublisherTest {
     return FixtureHelper.loadPackageFixtures(clazz).get(0);
   }
 
+  // Verify one event was sent, in an envelope whose header is the header of the event
+  private <T extends GenericEvent> T verifySent(RoutingKey routingKey, Class<T> eventClass) {
+    ArgumentCaptor<SerialisedEvent> captor = ArgumentCaptor.forClass(SerialisedEvent.class);
+    verify(sender).sendSerialisedEvent(eq(routingKey), captor.capture());
+    verify(sender, never()).sendEvent(any(), any());
+    SerialisedEvent serialisedEvent = captor.getValue();
+    assertSame(serialisedEvent.getGenericEvent().getEvent(), serialisedEvent.getHeader());
+    return eventClass.cast(serialisedEvent.getGenericEvent());
+  }
+
   private void verifyEventSent(GenericEvent orig, GenericEvent sent) {
     Header origHeader = orig.getEvent();
     Header sentHeader = sent.getEvent();
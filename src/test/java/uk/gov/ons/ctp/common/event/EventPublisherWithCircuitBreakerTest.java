@@ -9,6 +9,7 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static uk.gov.ons.ctp.common.event.EventPublisherTestUtil.assertHeader;
 
+import java.util.List;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import org.junit.Test;
@@ -28,6 +29,7 @@ import uk.gov.ons.ctp.common.event.EventPublisher.Channel;
 import uk.gov.ons.ctp.common.event.EventPublisher.EventType;
 import uk.gov.ons.ctp.common.event.EventPublisher.RoutingKey;
 import uk.gov.ons.ctp.common.event.EventPublisher.Source;
+import uk.gov.ons.ctp.common.event.EventSendResult.Status;
 import uk.gov.ons.ctp.common.event.model.SurveyLaunchedEvent;
 import uk.gov.ons.ctp.common.event.model.SurveyLaunchedResponse;
 import uk.gov.ons.ctp.common.event.persistence.FirestoreEventPersistence;
@@ -42,7 +44,7 @@ public class EventPublisherWithCircuitBreakerTest {
   @Mock private FirestoreEventPersistence eventPersistence;
   @Mock private CircuitBreaker circuitBreaker;
 
-  @Captor private ArgumentCaptor<SurveyLaunchedEvent> surveyLaunchedEventCaptor;
+  @Captor private ArgumentCaptor<SerialisedEvent> serialisedEventCaptor;
 
   private void mockCircuitBreakerRun() {
     doAnswer(
@@ -91,20 +93,23 @@ public class EventPublisherWithCircuitBreakerTest {
             EventType.SURVEY_LAUNCHED, Source.RESPONDENT_HOME, Channel.RH, surveyLaunchedResponse);
 
     RoutingKey routingKey = RoutingKey.forType(EventType.SURVEY_LAUNCHED);
-    verify(sender, times(1)).sendEvent(eq(routingKey), surveyLaunchedEventCaptor.capture());
-    SurveyLaunchedEvent event = surveyLaunchedEventCaptor.getValue();
+    verify(sender, times(1)).sendSerialisedEvent(eq(routingKey), serialisedEventCaptor.capture());
+    SurveyLaunchedEvent event =
+        (SurveyLaunchedEvent) serialisedEventCaptor.getValue().getGenericEvent();
     assertHeader(
         event, transactionId, EventType.SURVEY_LAUNCHED, Source.RESPONDENT_HOME, Channel.RH);
     assertEquals(surveyLaunchedResponse, event.getPayload().getResponse());
 
     // since it succeeded, the event is NOT sent to firestore
-    verify(eventPersistence, never()).persistEvent(eq(EventType.SURVEY_LAUNCHED), any());
+    verify(eventPersistence, never()).persistSerialisedEvent(eq(EventType.SURVEY_LAUNCHED), any());
   }
 
   @Test
   public void shouldNotSendEventToRabbitThroughCircuitBreakerWhenRabbitFails() throws Exception {
     mockCircuitBreakerFail();
-    Mockito.doThrow(new RuntimeException("rabbit fail")).when(sender).sendEvent(any(), any());
+    Mockito.doThrow(new RuntimeException("rabbit fail"))
+        .when(sender)
+        .sendSerialisedEvent(any(), any());
 
     SurveyLaunchedResponse surveyLaunchedResponse = loadJson(SurveyLaunchedResponse[].class);
 
@@ -112,10 +117,141 @@ public class EventPublisherWithCircuitBreakerTest {
         EventType.SURVEY_LAUNCHED, Source.RESPONDENT_HOME, Channel.RH, surveyLaunchedResponse);
 
     RoutingKey routingKey = RoutingKey.forType(EventType.SURVEY_LAUNCHED);
-    verify(sender).sendEvent(eq(routingKey), surveyLaunchedEventCaptor.capture());
+    verify(sender).sendSerialisedEvent(eq(routingKey), any());
 
     // since it failed, the event is sent to firestore
-    verify(eventPersistence).persistEvent(eq(EventType.SURVEY_LAUNCHED), any());
+    verify(eventPersistence).persistSerialisedEvent(eq(EventType.SURVEY_LAUNCHED), any());
+  }
+
+  @Test
+  public void shouldPersistWithoutCallingCircuitBreakerWhileOpen() throws Exception {
+    eventPublisher.setCircuitBreakerState(() -> CircuitBreakerState.State.OPEN);
+    SurveyLaunchedResponse surveyLaunchedResponse = loadJson(SurveyLaunchedResponse[].class);
+
+    String transactionId =
+        eventPublisher.sendEvent(
+            EventType.SURVEY_LAUNCHED, Source.RESPONDENT_HOME, Channel.RH, surveyLaunchedResponse);
+
+    verify(circuitBreaker, never()).run(any(), any());
+    verify(sender, never()).sendSerialisedEvent(any(), any());
+    verify(eventPersistence)
+        .persistSerialisedEvent(eq(EventType.SURVEY_LAUNCHED), serialisedEventCaptor.capture());
+    assertEquals(transactionId, serialisedEventCaptor.getValue().getHeader().getTransactionId());
+  }
+
+  @Test
+  public void shouldPersistBatchWithoutCallingCircuitBreakerWhileOpen() throws Exception {
+    eventPublisher.setCircuitBreakerState(() -> CircuitBreakerState.State.OPEN);
+    SurveyLaunchedResponse surveyLaunchedResponse = loadJson(SurveyLaunchedResponse[].class);
+
+    List<EventSendResult> results =
+        eventPublisher.sendEvents(
+            EventType.SURVEY_LAUNCHED,
+            Source.RESPONDENT_HOME,
+            Channel.RH,
+            List.of(surveyLaunchedResponse, surveyLaunchedResponse));
+
+    verify(circuitBreaker, never()).run(any(), any());
+    verify(sender, never()).sendSerialisedEvents(any(), any());
+    verify(eventPersistence, times(2))
+        .persistSerialisedEvent(eq(EventType.SURVEY_LAUNCHED), serialisedEventCaptor.capture());
+    assertEquals(2, results.size());
+    for (int i = 0; i < results.size(); i++) {
+      assertEquals(Status.PERSISTED, results.get(i).getStatus());
+      assertEquals(
+          results.get(i).getTransactionId(),
+          serialisedEventCaptor.getAllValues().get(i).getHeader().getTransactionId());
+    }
+  }
+
+  @Test
+  public void shouldKeepSharedCircuitBreakerWithBulkheadOnlyIsolation() throws Exception {
+    mockCircuitBreakerRun();
+    eventPublisher.setRoutingKeyIsolation(
+        RoutingKeyIsolation.builder().maxConcurrentSends(1).build());
+    SurveyLaunchedResponse surveyLaunchedResponse = loadJson(SurveyLaunchedResponse[].class);
+
+    eventPublisher.sendEvent(
+        EventType.SURVEY_LAUNCHED, Source.RESPONDENT_HOME, Channel.RH, surveyLaunchedResponse);
+
+    verify(circuitBreaker).run(any(), any());
+    verify(sender).sendSerialisedEvent(eq(RoutingKey.forType(EventType.SURVEY_LAUNCHED)), any());
+  }
+
+  @Test
+  public void shouldKeepSharedBypassWithBulkheadOnlyIsolation() throws Exception {
+    eventPublisher.setCircuitBreakerState(() -> CircuitBreakerState.State.OPEN);
+    eventPublisher.setRoutingKeyIsolation(
+        RoutingKeyIsolation.builder().maxConcurrentSends(1).build());
+    SurveyLaunchedResponse surveyLaunchedResponse = loadJson(SurveyLaunchedResponse[].class);
+
+    eventPublisher.sendEvent(
+        EventType.SURVEY_LAUNCHED, Source.RESPONDENT_HOME, Channel.RH, surveyLaunchedResponse);
+
+    verify(circuitBreaker, never()).run(any(), any());
+    verify(sender, never()).sendSerialisedEvent(any(), any());
+    verify(eventPersistence).persistSerialisedEvent(eq(EventType.SURVEY_LAUNCHED), any());
+  }
+
+  @Test
+  public void shouldKeepSharedBypassWithStatesButNoFactory() throws Exception {
+    eventPublisher.setCircuitBreakerState(() -> CircuitBreakerState.State.OPEN);
+    eventPublisher.setRoutingKeyIsolation(
+        RoutingKeyIsolation.builder()
+            .maxConcurrentSends(1)
+            .circuitBreakerStates(id -> () -> CircuitBreakerState.State.CLOSED)
+            .build());
+    SurveyLaunchedResponse surveyLaunchedResponse = loadJson(SurveyLaunchedResponse[].class);
+
+    eventPublisher.sendEvent(
+        EventType.SURVEY_LAUNCHED, Source.RESPONDENT_HOME, Channel.RH, surveyLaunchedResponse);
+
+    verify(circuitBreaker, never()).run(any(), any());
+    verify(sender, never()).sendSerialisedEvent(any(), any());
+    verify(eventPersistence).persistSerialisedEvent(eq(EventType.SURVEY_LAUNCHED), any());
+  }
+
+  @Test
+  public void shouldProbeWithFractionOfEventsWhileHalfOpen() throws Exception {
+    mockCircuitBreakerRun();
+    eventPublisher.setCircuitBreakerState(() -> CircuitBreakerState.State.HALF_OPEN, 0.25);
+    SurveyLaunchedResponse surveyLaunchedResponse = loadJson(SurveyLaunchedResponse[].class);
+
+    for (int i = 0; i < 8; i++) {
+      eventPublisher.sendEvent(
+          EventType.SURVEY_LAUNCHED, Source.RESPONDENT_HOME, Channel.RH, surveyLaunchedResponse);
+    }
+
+    verify(sender, times(2)).sendSerialisedEvent(any(), any());
+    verify(eventPersistence, times(6)).persistSerialisedEvent(eq(EventType.SURVEY_LAUNCHED), any());
+  }
+
+  @Test
+  public void shouldCallCircuitBreakerWhileClosed() throws Exception {
+    mockCircuitBreakerRun();
+    eventPublisher.setCircuitBreakerState(() -> CircuitBreakerState.State.CLOSED);
+    SurveyLaunchedResponse surveyLaunchedResponse = loadJson(SurveyLaunchedResponse[].class);
+
+    eventPublisher.sendEvent(
+        EventType.SURVEY_LAUNCHED, Source.RESPONDENT_HOME, Channel.RH, surveyLaunchedResponse);
+
+    verify(circuitBreaker).run(any(), any());
+    verify(eventPersistence, never()).persistSerialisedEvent(eq(EventType.SURVEY_LAUNCHED), any());
+  }
+
+  @Test
+  public void shouldReportResilience4jCircuitBreakerState() {
+    io.github.resilience4j.circuitbreaker.CircuitBreaker resilience4jBreaker =
+        io.github.resilience4j.circuitbreaker.CircuitBreaker.ofDefaults("test");
+    CircuitBreakerState state = CircuitBreakerState.of(resilience4jBreaker);
+
+    assertEquals(CircuitBreakerState.State.CLOSED, state.getState());
+    resilience4jBreaker.transitionToOpenState();
+    assertEquals(CircuitBreakerState.State.OPEN, state.getState());
+    resilience4jBreaker.transitionToHalfOpenState();
+    assertEquals(CircuitBreakerState.State.HALF_OPEN, state.getState());
+    resilience4jBreaker.transitionToForcedOpenState();
+    assertEquals(CircuitBreakerState.State.OPEN, state.getState());
   }
 
   private <T> T loadJson(Class<T[]> clazz) {
@@ -43,10 +43,11 @@ public class EventPublisherWithPersistenceTest {
   public void eventPersistedWhenRabbitFails() throws CTPException {
     SurveyLaunchedResponse surveyLaunchedResponse = loadJson(SurveyLaunchedResponse[].class);
 
-    ArgumentCaptor<SurveyLaunchedEvent> eventCapture =
-        ArgumentCaptor.forClass(SurveyLaunchedEvent.class);
+    ArgumentCaptor<SerialisedEvent> eventCapture = ArgumentCaptor.forClass(SerialisedEvent.class);
 
-    Mockito.doThrow(new AmqpException("Failed to send")).when(sender).sendEvent(any(), any());
+    Mockito.doThrow(new AmqpException("Failed to send"))
+        .when(sender)
+        .sendSerialisedEvent(any(), any());
 
     String transactionId =
         eventPublisher.sendEvent(
@@ -54,8 +55,8 @@ public class EventPublisherWithPersistenceTest {
 
     // Verify that the event was persistent following simulated Rabbit failure
     verify(eventPersistence, times(1))
-        .persistEvent(eq(EventType.SURVEY_LAUNCHED), eventCapture.capture());
-    SurveyLaunchedEvent event = eventCapture.getValue();
+        .persistSerialisedEvent(eq(EventType.SURVEY_LAUNCHED), eventCapture.capture());
+    SurveyLaunchedEvent event = (SurveyLaunchedEvent) eventCapture.getValue().getGenericEvent();
     assertHeader(
         event, transactionId, EventType.SURVEY_LAUNCHED, Source.RESPONDENT_HOME, Channel.RH);
     assertEquals(surveyLaunchedResponse, event.getPayload().getResponse());
@@ -65,10 +66,12 @@ public class EventPublisherWithPersistenceTest {
   public void exceptionThrownWhenRabbitAndFirestoreFail() throws CTPException {
     SurveyLaunchedResponse surveyLaunchedResponse = loadJson(SurveyLaunchedResponse[].class);
 
-    Mockito.doThrow(new AmqpException("Failed to send")).when(sender).sendEvent(any(), any());
+    Mockito.doThrow(new AmqpException("Failed to send"))
+        .when(sender)
+        .sendSerialisedEvent(any(), any());
     Mockito.doThrow(new CTPException(Fault.SYSTEM_ERROR, "Firestore broken"))
         .when(eventPersistence)
-        .persistEvent(any(), any());
+        .persistSerialisedEvent(any(), any());
 
     Exception e =
         assertThrows(
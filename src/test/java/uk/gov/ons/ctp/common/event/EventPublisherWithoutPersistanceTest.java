@@ -31,7 +31,9 @@ public class EventPublisherWithoutPersistanceTest {
   public void eventSendingFailsWithException() throws CTPException {
     SurveyLaunchedResponse surveyLaunchedResponse = loadJson(SurveyLaunchedResponse[].class);
 
-    Mockito.doThrow(new AmqpException("Failed to send")).when(sender).sendEvent(any(), any());
+    Mockito.doThrow(new AmqpException("Failed to send"))
+        .when(sender)
+        .sendSerialisedEvent(any(), any());
 
     Exception e =
         assertThrows(
@@ -0,0 +1,31 @@
+package uk.gov.ons.ctp.common.event;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import uk.gov.ons.ctp.common.FixtureHelper;
+import uk.gov.ons.ctp.common.event.model.CaseEvent;
+import uk.gov.ons.ctp.common.event.model.SurveyLaunchedEvent;
+import uk.gov.ons.ctp.common.jackson.CustomObjectMapper;
+
+public class EventSerialiserTest {
+
+  private CustomObjectMapper objectMapper = new CustomObjectMapper();
+  private EventSerialiser eventSerialiser = new EventSerialiser(objectMapper);
+
+  @Test
+  public void shouldSerialiseSameAsObjectMapper() throws Exception {
+    SurveyLaunchedEvent surveyLaunched =
+        FixtureHelper.loadPackageFixtures(SurveyLaunchedEvent[].class).get(0);
+    CaseEvent caseEvent = FixtureHelper.loadPackageFixtures(CaseEvent[].class).get(0);
+
+    // Buffer is reused between events, so check a larger event followed by a smaller one
+    assertArrayEquals(expected(caseEvent), eventSerialiser.serialise(caseEvent));
+    assertArrayEquals(expected(surveyLaunched), eventSerialiser.serialise(surveyLaunched));
+  }
+
+  private byte[] expected(Object event) throws Exception {
+    return objectMapper.writeValueAsString(event).getBytes(StandardCharsets.UTF_8);
+  }
+}
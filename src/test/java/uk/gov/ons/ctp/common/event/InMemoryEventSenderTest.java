@@ -0,0 +1,100 @@
+package uk.gov.ons.ctp.common.event;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import uk.gov.ons.ctp.common.FixtureHelper;
+import uk.gov.ons.ctp.common.event.EventPublisher.RoutingKey;
+import uk.gov.ons.ctp.common.event.InMemoryEventSender.CapturedEvent;
+import uk.gov.ons.ctp.common.event.model.SurveyLaunchedEvent;
+import uk.gov.ons.ctp.common.jackson.CustomObjectMapper;
+
+public class InMemoryEventSenderTest {
+
+  private static final RoutingKey ROUTING_KEY = RoutingKey.EVENT_RESPONSE_AUTHENTICATION;
+
+  private SurveyLaunchedEvent event;
+
+  @Before
+  public void setup() {
+    event = FixtureHelper.loadPackageFixtures(SurveyLaunchedEvent[].class).get(0);
+  }
+
+  @Test
+  public void shouldKeepMostRecentEvents() {
+    InMemoryEventSender sender = new InMemoryEventSender(3, false);
+
+    for (int i = 0; i < 5; i++) {
+      sender.sendEvent(ROUTING_KEY, event);
+    }
+    sender.sendEvent(RoutingKey.FEEDBACK, event);
+
+    List<CapturedEvent> captured = sender.getCaptured();
+    assertEquals(3, captured.size());
+    assertEquals(3, captured.get(0).getSequence());
+    assertEquals(RoutingKey.FEEDBACK, captured.get(2).getRoutingKey());
+    assertNull(captured.get(2).getBody());
+    assertEquals(2, sender.getCaptured(ROUTING_KEY).size());
+    assertEquals(5, sender.getSentCount(ROUTING_KEY));
+    assertEquals(6, sender.getSentCount());
+  }
+
+  @Test
+  public void shouldSerialiseEvents() throws Exception {
+    InMemoryEventSender sender = new InMemoryEventSender(10, true);
+
+    sender.sendEvent(ROUTING_KEY, event);
+
+    byte[] expected =
+        new CustomObjectMapper().writeValueAsString(event).getBytes(StandardCharsets.UTF_8);
+    assertArrayEquals(expected, sender.getCaptured().get(0).getBody());
+  }
+
+  @Test
+  public void shouldFailProportionOfSends() {
+    InMemoryEventSender sender = new InMemoryEventSender(100, false);
+    sender.setFailureRate(0.25);
+
+    int failures = 0;
+    for (int i = 0; i < 100; i++) {
+      try {
+        sender.sendEvent(ROUTING_KEY, event);
+      } catch (EventPublishException e) {
+        failures++;
+      }
+    }
+
+    assertEquals(25, failures);
+    assertEquals(75, sender.getSentCount(ROUTING_KEY));
+  }
+
+  @Test
+  public void shouldAwaitSentEvents() throws Exception {
+    InMemoryEventSender sender = new InMemoryEventSender(10, false);
+    sender.setLatency(20, TimeUnit.MILLISECONDS);
+
+    Thread publisher =
+        new Thread(
+            () -> {
+              sender.sendEvent(ROUTING_KEY, event);
+              sender.sendEvent(ROUTING_KEY, event);
+            });
+    publisher.start();
+
+    assertTrue(sender.awaitSent(ROUTING_KEY, 2, 5, TimeUnit.SECONDS));
+    assertFalse(sender.awaitSent(RoutingKey.FEEDBACK, 1, 10, TimeUnit.MILLISECONDS));
+    publisher.join();
+
+    sender.clear();
+    assertEquals(0, sender.getSentCount(ROUTING_KEY));
+    assertTrue(sender.getCaptured().isEmpty());
+  }
+}
@@ -0,0 +1,36 @@
+package uk.gov.ons.ctp.common.event;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class JitteredRecoveryDelayHandlerTest {
+
+  private final JitteredRecoveryDelayHandler handler = new JitteredRecoveryDelayHandler(100, 1000);
+
+  @Test
+  public void shouldDoubleDelayWithJitter() {
+    for (int i = 0; i < 100; i++) {
+      assertBetween(50, 100, handler.getDelay(0));
+      assertBetween(100, 200, handler.getDelay(1));
+      assertBetween(200, 400, handler.getDelay(2));
+    }
+  }
+
+  @Test
+  public void shouldCapDelayAtMaximum() {
+    for (int attempts : new int[] {4, 5, 63, 64, Integer.MAX_VALUE}) {
+      assertBetween(500, 1000, handler.getDelay(attempts));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectMaximumBelowInitialDelay() {
+    new JitteredRecoveryDelayHandler(1000, 100);
+  }
+
+  private void assertBetween(long min, long max, long delay) {
+    assertTrue("Delay " + delay + " not between " + min + " and " + max, delay >= min);
+    assertTrue("Delay " + delay + " not between " + min + " and " + max, delay <= max);
+  }
+}
@@ -0,0 +1,372 @@
+package uk.gov.ons.ctp.common.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.BlockedCallback;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryListener;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+import com.rabbitmq.client.UnblockedCallback;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import uk.gov.ons.ctp.common.FixtureHelper;
+import uk.gov.ons.ctp.common.event.EventPublisher.EventType;
+import uk.gov.ons.ctp.common.event.EventPublisher.RoutingKey;
+import uk.gov.ons.ctp.common.event.model.CaseEvent;
+import uk.gov.ons.ctp.common.event.model.GenericEvent;
+import uk.gov.ons.ctp.common.event.model.SurveyLaunchedEvent;
+
+@RunWith(MockitoJUnitRunner.class)
+public class NativeRabbitEventSenderTest {
+
+  private static final String EXCHANGE = "events";
+  private static final RoutingKey ROUTING_KEY = RoutingKey.EVENT_RESPONSE_AUTHENTICATION;
+
+  @Mock private Connection connection;
+  @Mock private Channel channel;
+  @Mock private UndeliveredEventHandler undeliveredEventHandler;
+
+  private SurveyLaunchedEvent event;
+
+  @Before
+  public void setup() throws Exception {
+    when(connection.createChannel()).thenReturn(channel);
+    when(channel.isOpen()).thenReturn(true);
+    event = FixtureHelper.loadPackageFixtures(SurveyLaunchedEvent[].class).get(0);
+  }
+
+  @Test
+  public void shouldPublishWithoutConfirms() throws Exception {
+    NativeRabbitEventSender sender = new NativeRabbitEventSender(connection, EXCHANGE, false);
+
+    sender.sendEvent(ROUTING_KEY, event);
+
+    verify(channel).exchangeDeclare(EXCHANGE, "topic", true);
+    verify(channel, never()).confirmSelect();
+    verify(channel).basicPublish(eq(EXCHANGE), eq(ROUTING_KEY.getKey()), any(), any());
+  }
+
+  @Test
+  public void shouldSendPersistentMessageWithTransactionIdAsMessageId() throws Exception {
+    NativeRabbitEventSender sender = new NativeRabbitEventSender(connection, EXCHANGE, false);
+
+    sender.sendEvent(ROUTING_KEY, event);
+
+    BasicProperties props = capturePublishedProperties();
+    assertEquals(Integer.valueOf(2), props.getDeliveryMode());
+    assertEquals(event.getEvent().getTransactionId(), props.getMessageId());
+    assertNull(props.getHeaders());
+  }
+
+  @Test
+  public void shouldAddRmPropertiesAndCustomisation() throws Exception {
+    RabbitSenderOptions options =
+        RabbitSenderOptions.builder()
+            .propertiesCustomiser(
+                (type, builder) -> builder.priority(type == EventType.CASE_CREATED ? 5 : 1))
+            .build();
+    NativeRabbitEventSender sender =
+        new NativeRabbitEventSender(connection, EXCHANGE, true, options);
+    CaseEvent caseEvent = FixtureHelper.loadPackageFixtures(CaseEvent[].class).get(0);
+
+    sender.sendEvent(RoutingKey.EVENT_CASE_UPDATE, caseEvent);
+
+    BasicProperties props = capturePublishedProperties();
+    assertEquals("application/json", props.getContentType());
+    assertEquals(Integer.valueOf(2), props.getDeliveryMode());
+    assertEquals(Integer.valueOf(5), props.getPriority());
+    assertEquals(caseEvent.getEvent().getTransactionId(), props.getMessageId());
+    assertEquals(
+        "uk.gov.ons.census.casesvc.model.dto.ResponseManagementEvent",
+        props.getHeaders().get("__TypeId__"));
+  }
+
+  @Test
+  public void shouldDeclareExchangeOnceForChannelPool() throws Exception {
+    RabbitSenderOptions options = RabbitSenderOptions.builder().channelPoolSize(3).build();
+    NativeRabbitEventSender sender =
+        new NativeRabbitEventSender(connection, EXCHANGE, false, options);
+
+    sender.sendEvent(ROUTING_KEY, event);
+
+    verify(connection, times(3)).createChannel();
+    verify(channel, times(1)).exchangeDeclare(EXCHANGE, "topic", true);
+  }
+
+  @Test
+  public void shouldReplaceClosedChannel() throws Exception {
+    Channel replacement = mock(Channel.class);
+    NativeRabbitEventSender sender = new NativeRabbitEventSender(connection, EXCHANGE, false);
+    when(channel.isOpen()).thenReturn(false);
+    when(connection.createChannel()).thenReturn(replacement);
+
+    sender.sendEvent(ROUTING_KEY, event);
+
+    verify(channel, never()).basicPublish(any(), any(), any(), any());
+    verify(channel).abort();
+    verify(replacement).basicPublish(eq(EXCHANGE), eq(ROUTING_KEY.getKey()), any(), any());
+    verify(replacement, never()).exchangeDeclare(any(), any(String.class), any(Boolean.class));
+  }
+
+  @Test
+  public void shouldNotReportAckedEvents() throws Exception {
+    NativeRabbitEventSender sender = createConfirmingSender(60000);
+    ConfirmListener confirmListener = captureConfirmListener();
+    when(channel.getNextPublishSeqNo()).thenReturn(1L, 2L, 3L);
+
+    sender.sendEvent(ROUTING_KEY, event);
+    sender.sendEvent(ROUTING_KEY, event);
+    sender.sendEvent(ROUTING_KEY, event);
+    confirmListener.handleAck(2L, true);
+    confirmListener.handleAck(3L, false);
+
+    Thread.sleep(50);
+    verify(undeliveredEventHandler, never()).undelivered(any(), any(), any());
+    sender.close();
+  }
+
+  @Test
+  public void shouldReportNackedEvents() throws Exception {
+    NativeRabbitEventSender sender = createConfirmingSender(60000);
+    ConfirmListener confirmListener = captureConfirmListener();
+    when(channel.getNextPublishSeqNo()).thenReturn(1L, 2L, 3L);
+
+    sender.sendEvent(ROUTING_KEY, event);
+    sender.sendEvent(ROUTING_KEY, event);
+    sender.sendEvent(ROUTING_KEY, event);
+    confirmListener.handleNack(2L, true);
+    confirmListener.handleAck(3L, false);
+
+    ArgumentCaptor<Throwable> causeCaptor = ArgumentCaptor.forClass(Throwable.class);
+    verify(undeliveredEventHandler, timeout(1000).times(2))
+        .undelivered(
+            eq(ROUTING_KEY),
+            argThat(sent -> sent.getGenericEvent() == event),
+            causeCaptor.capture());
+    assertTrue(causeCaptor.getValue() instanceof EventPublishException);
+    sender.close();
+  }
+
+  @Test
+  public void shouldReportUnconfirmedEventsAfterTimeout() throws Exception {
+    NativeRabbitEventSender sender = createConfirmingSender(20);
+    when(channel.getNextPublishSeqNo()).thenReturn(1L);
+
+    sender.sendEvent(ROUTING_KEY, event);
+
+    ArgumentCaptor<Throwable> causeCaptor = ArgumentCaptor.forClass(Throwable.class);
+    verify(undeliveredEventHandler, timeout(1000))
+        .undelivered(
+            eq(ROUTING_KEY),
+            argThat(sent -> sent.getGenericEvent() == event),
+            causeCaptor.capture());
+    assertEquals("Timed out waiting for broker confirm", causeCaptor.getValue().getMessage());
+    sender.close();
+  }
+
+  @Test
+  public void shouldReportUnconfirmedEventsWhenClosed() throws Exception {
+    NativeRabbitEventSender sender = createConfirmingSender(60000);
+    when(channel.getNextPublishSeqNo()).thenReturn(1L, 2L);
+
+    sender.sendEvent(ROUTING_KEY, event);
+    sender.sendEvent(ROUTING_KEY, event);
+    sender.close();
+
+    ArgumentCaptor<Throwable> causeCaptor = ArgumentCaptor.forClass(Throwable.class);
+    verify(undeliveredEventHandler, times(2))
+        .undelivered(
+            eq(ROUTING_KEY),
+            argThat(sent -> sent.getGenericEvent() == event),
+            causeCaptor.capture());
+    assertEquals("Rabbit sender closed", causeCaptor.getValue().getMessage());
+    verify(connection).close();
+  }
+
+  @Test
+  public void shouldReturnFailedEventsFromBatch() throws Exception {
+    NativeRabbitEventSender sender = createConfirmingSender(60000);
+    ConfirmListener confirmListener = captureConfirmListener();
+    when(channel.getNextPublishSeqNo()).thenReturn(1L, 2L, 3L);
+    SurveyLaunchedEvent second =
+        FixtureHelper.loadPackageFixtures(SurveyLaunchedEvent[].class).get(0);
+    SurveyLaunchedEvent third =
+        FixtureHelper.loadPackageFixtures(SurveyLaunchedEvent[].class).get(0);
+
+    // Confirms arrive while the sender is waiting on the batch
+    Thread confirmer =
+        new Thread(
+            () -> {
+              try {
+                Thread.sleep(50);
+                confirmListener.handleAck(1L, false);
+                confirmListener.handleNack(2L, false);
+                confirmListener.handleAck(3L, false);
+              } catch (Exception e) {
+                throw new RuntimeException(e);
+              }
+            });
+    confirmer.start();
+    List<GenericEvent> failed = sender.sendEvents(ROUTING_KEY, List.of(event, second, third));
+    confirmer.join();
+
+    assertEquals(1, failed.size());
+    assertTrue(failed.get(0) == second);
+    verify(undeliveredEventHandler, never()).undelivered(any(), any(), any());
+    sender.close();
+  }
+
+  @Test
+  public void shouldIgnoreConfirmArrivingAfterBatchTimeout() throws Exception {
+    NativeRabbitEventSender sender = createConfirmingSender(20);
+    ConfirmListener confirmListener = captureConfirmListener();
+    when(channel.getNextPublishSeqNo()).thenReturn(1L);
+
+    List<GenericEvent> failed = sender.sendEvents(ROUTING_KEY, List.of(event));
+    assertEquals(0, sender.getOutstandingConfirmCount());
+    confirmListener.handleNack(1L, false);
+    confirmListener.handleAck(1L, false);
+
+    assertEquals(1, failed.size());
+    assertTrue(failed.get(0) == event);
+    Thread.sleep(50);
+    verify(undeliveredEventHandler, never()).undelivered(any(), any(), any());
+    sender.close();
+    verify(undeliveredEventHandler, never()).undelivered(any(), any(), any());
+  }
+
+  @Test
+  public void shouldFailFastWhileConnectionBlocked() throws Exception {
+    NativeRabbitEventSender sender = new NativeRabbitEventSender(connection, EXCHANGE, false);
+    EventPublisherMetrics metrics = mock(EventPublisherMetrics.class);
+    sender.setMetrics(metrics);
+    ArgumentCaptor<BlockedCallback> blocked = ArgumentCaptor.forClass(BlockedCallback.class);
+    ArgumentCaptor<UnblockedCallback> unblocked = ArgumentCaptor.forClass(UnblockedCallback.class);
+    verify(connection).addBlockedListener(blocked.capture(), unblocked.capture());
+
+    blocked.getValue().handle("low on memory");
+
+    assertTrue(sender.isBlocked());
+    assertEquals("low on memory", sender.getBlockedReason());
+    try {
+      sender.sendEvent(ROUTING_KEY, event);
+      fail("Expected send to fail while blocked");
+    } catch (EventPublishException e) {
+      assertEquals("Rabbit connection blocked by broker: low on memory", e.getMessage());
+    }
+    verify(channel, never()).basicPublish(any(), any(), any(), any());
+
+    unblocked.getValue().handle();
+    sender.sendEvent(ROUTING_KEY, event);
+
+    assertFalse(sender.isBlocked());
+    verify(metrics).recordConnectionBlocked(anyLong());
+    verify(channel).basicPublish(eq(EXCHANGE), eq(ROUTING_KEY.getKey()), any(), any());
+  }
+
+  @Test
+  public void shouldFailFastWhileConnectionRecovers() throws Exception {
+    Connection recoverable =
+        mock(Connection.class, withSettings().extraInterfaces(Recoverable.class));
+    when(recoverable.createChannel()).thenReturn(channel);
+    NativeRabbitEventSender sender = new NativeRabbitEventSender(recoverable, EXCHANGE, false);
+    List<RabbitConnectionState> states = new ArrayList<>();
+    sender.addConnectionStateListener((state, cause) -> states.add(state));
+    ArgumentCaptor<ShutdownListener> shutdown = ArgumentCaptor.forClass(ShutdownListener.class);
+    verify(recoverable).addShutdownListener(shutdown.capture());
+    ArgumentCaptor<RecoveryListener> recovery = ArgumentCaptor.forClass(RecoveryListener.class);
+    verify((Recoverable) recoverable).addRecoveryListener(recovery.capture());
+
+    shutdown
+        .getValue()
+        .shutdownCompleted(new ShutdownSignalException(true, false, null, recoverable));
+    recovery.getValue().handleRecoveryStarted((Recoverable) recoverable);
+
+    assertEquals(RabbitConnectionState.RECOVERING, sender.getConnectionState());
+    try {
+      sender.sendEvent(ROUTING_KEY, event);
+      fail("Expected send to fail while recovering");
+    } catch (EventConnectionUnavailableException e) {
+      assertEquals(RabbitConnectionState.RECOVERING, e.getConnectionState());
+    }
+    verify(channel, never()).basicPublish(any(), any(), any(), any());
+
+    recovery.getValue().handleRecovery((Recoverable) recoverable);
+    sender.sendEvent(ROUTING_KEY, event);
+
+    assertEquals(List.of(RabbitConnectionState.RECOVERING, RabbitConnectionState.OPEN), states);
+    verify(channel, times(2)).exchangeDeclare(EXCHANGE, "topic", true);
+    verify(channel).basicPublish(eq(EXCHANGE), eq(ROUTING_KEY.getKey()), any(), any());
+  }
+
+  @Test
+  public void shouldStayClosedWhenConnectionCannotRecover() throws Exception {
+    NativeRabbitEventSender sender = new NativeRabbitEventSender(connection, EXCHANGE, false);
+    ArgumentCaptor<ShutdownListener> shutdown = ArgumentCaptor.forClass(ShutdownListener.class);
+    verify(connection).addShutdownListener(shutdown.capture());
+
+    shutdown
+        .getValue()
+        .shutdownCompleted(new ShutdownSignalException(true, false, null, connection));
+
+    assertEquals(RabbitConnectionState.CLOSED, sender.getConnectionState());
+    try {
+      sender.sendEvent(ROUTING_KEY, event);
+      fail("Expected send to fail once closed");
+    } catch (EventConnectionUnavailableException e) {
+      assertEquals(RabbitConnectionState.CLOSED, e.getConnectionState());
+    }
+  }
+
+  private NativeRabbitEventSender createConfirmingSender(long confirmTimeoutMillis)
+      throws Exception {
+    RabbitSenderOptions options =
+        RabbitSenderOptions.builder()
+            .publisherConfirms(true)
+            .confirmTimeoutMillis(confirmTimeoutMillis)
+            .build();
+    NativeRabbitEventSender sender =
+        new NativeRabbitEventSender(connection, EXCHANGE, false, options);
+    sender.setUndeliveredEventHandler(undeliveredEventHandler);
+    verify(channel).confirmSelect();
+    return sender;
+  }
+
+  private BasicProperties capturePublishedProperties() throws Exception {
+    ArgumentCaptor<BasicProperties> captor = ArgumentCaptor.forClass(BasicProperties.class);
+    verify(channel).basicPublish(any(), any(), captor.capture(), any());
+    return captor.getValue();
+  }
+
+  private ConfirmListener captureConfirmListener() {
+    ArgumentCaptor<ConfirmListener> captor = ArgumentCaptor.forClass(ConfirmListener.class);
+    verify(channel).addConfirmListener(captor.capture());
+    return captor.getValue();
+  }
+}
@@ -0,0 +1,83 @@
+package uk.gov.ons.ctp.common.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ShutdownListener;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import uk.gov.ons.ctp.common.event.RabbitChannelPool.PooledChannel;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RabbitChannelPoolTest {
+
+  private static final String EXCHANGE = "events";
+
+  @Mock private Connection connection;
+  @Mock private Channel channel;
+  @Mock private Channel replacement;
+
+  private final AtomicReference<RabbitConnectionState> state =
+      new AtomicReference<>(RabbitConnectionState.OPEN);
+
+  @Before
+  public void setup() throws Exception {
+    when(connection.createChannel()).thenReturn(channel, replacement);
+  }
+
+  @Test
+  public void shouldAbortClosedChannelAndRemoveItsListeners() throws Exception {
+    RabbitChannelPool pool = new RabbitChannelPool(connection, state::get, EXCHANGE, 1, true, 100);
+    ArgumentCaptor<ConfirmListener> confirmListener =
+        ArgumentCaptor.forClass(ConfirmListener.class);
+    verify(channel).addConfirmListener(confirmListener.capture());
+    ArgumentCaptor<ShutdownListener> shutdownListener =
+        ArgumentCaptor.forClass(ShutdownListener.class);
+    verify(channel).addShutdownListener(shutdownListener.capture());
+    when(channel.isOpen()).thenReturn(false);
+
+    PooledChannel pooled = pool.borrow();
+
+    assertSame(replacement, pooled.getChannel());
+    verify(channel).removeConfirmListener(confirmListener.getValue());
+    verify(channel).removeShutdownListener(shutdownListener.getValue());
+    verify(channel).abort();
+  }
+
+  @Test
+  public void shouldNotReplaceClosedChannelUntilConnectionIsOpen() throws Exception {
+    RabbitChannelPool pool = new RabbitChannelPool(connection, state::get, EXCHANGE, 1, false, 100);
+    when(channel.isOpen()).thenReturn(false);
+    state.set(RabbitConnectionState.RECOVERING);
+
+    try {
+      pool.borrow();
+      fail("Expected borrow to fail while the connection recovers");
+    } catch (EventConnectionUnavailableException e) {
+      assertEquals(RabbitConnectionState.RECOVERING, e.getConnectionState());
+    }
+    verify(connection, times(1)).createChannel();
+    verify(channel, never()).abort();
+
+    state.set(RabbitConnectionState.OPEN);
+    PooledChannel pooled = pool.borrow();
+
+    assertSame(replacement, pooled.getChannel());
+    verify(channel).abort();
+    verify(replacement, never()).exchangeDeclare(any(), any(String.class), any(Boolean.class));
+  }
+}
@@ -0,0 +1,104 @@
+package uk.gov.ons.ctp.common.event;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import uk.gov.ons.ctp.common.FixtureHelper;
+import uk.gov.ons.ctp.common.event.EventPublisher.Channel;
+import uk.gov.ons.ctp.common.event.EventPublisher.EventType;
+import uk.gov.ons.ctp.common.event.EventPublisher.RoutingKey;
+import uk.gov.ons.ctp.common.event.EventPublisher.Source;
+import uk.gov.ons.ctp.common.event.model.FulfilmentRequest;
+import uk.gov.ons.ctp.common.event.model.FulfilmentRequestedEvent;
+import uk.gov.ons.ctp.common.event.model.GenericEvent;
+import uk.gov.ons.ctp.common.event.persistence.EventPersistence;
+import uk.gov.ons.ctp.common.jackson.CustomObjectMapper;
+
+public class SerialisedEventTest {
+
+  @Test
+  public void shouldSerialiseOnceAndShareBody() throws Exception {
+    FulfilmentRequestedEvent event =
+        FixtureHelper.loadPackageFixtures(FulfilmentRequestedEvent[].class).get(0);
+    SerialisedEvent serialisedEvent = SerialisedEvent.of(event);
+    assertFalse(serialisedEvent.isSerialised());
+
+    byte[] body = serialisedEvent.getBody();
+
+    assertTrue(serialisedEvent.isSerialised());
+    assertSame(body, serialisedEvent.getBody());
+    assertSame(event.getEvent(), serialisedEvent.getHeader());
+    assertEquals(event, new CustomObjectMapper().readValue(body, FulfilmentRequestedEvent.class));
+    assertFalse(serialisedEvent.getJson().contains("\n"));
+  }
+
+  @Test
+  public void shouldWrapSerialisedJson() throws Exception {
+    FulfilmentRequestedEvent event =
+        FixtureHelper.loadPackageFixtures(FulfilmentRequestedEvent[].class).get(0);
+    byte[] body = "{}".getBytes(StandardCharsets.UTF_8);
+
+    SerialisedEvent serialisedEvent = SerialisedEvent.of(event.getEvent(), body);
+
+    assertNull(serialisedEvent.getGenericEvent());
+    assertTrue(serialisedEvent.isSerialised());
+    assertArrayEquals(body, serialisedEvent.getBody());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRejectEventWithoutGenericEventByDefault() throws Exception {
+    FulfilmentRequestedEvent event =
+        FixtureHelper.loadPackageFixtures(FulfilmentRequestedEvent[].class).get(0);
+    EventPersistence persistence = (eventType, genericEvent) -> {};
+
+    persistence.persistSerialisedEvent(
+        EventType.FULFILMENT_REQUESTED,
+        SerialisedEvent.of(event.getEvent(), "{}".getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  public void shouldPersistTheBodyTheSenderSerialised() throws Exception {
+    AtomicReference<byte[]> sentBody = new AtomicReference<>();
+    EventSender sender =
+        new EventSender() {
+          @Override
+          public void sendEvent(RoutingKey routingKey, GenericEvent genericEvent) {
+            throw new UnsupportedOperationException();
+          }
+
+          @Override
+          public void sendSerialisedEvent(RoutingKey routingKey, SerialisedEvent serialisedEvent) {
+            try {
+              sentBody.set(serialisedEvent.getBody());
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+            throw new EventPublishException("Rabbit failed");
+          }
+        };
+    EventPersistence persistence = mock(EventPersistence.class);
+    EventPublisher publisher = EventPublisher.createWithEventPersistence(sender, persistence, null);
+    FulfilmentRequest payload = FixtureHelper.loadPackageFixtures(FulfilmentRequest[].class).get(0);
+
+    publisher.sendEvent(
+        EventType.FULFILMENT_REQUESTED, Source.CONTACT_CENTRE_API, Channel.CC, payload);
+
+    ArgumentCaptor<SerialisedEvent> captor = ArgumentCaptor.forClass(SerialisedEvent.class);
+    verify(persistence)
+        .persistSerialisedEvent(eq(EventType.FULFILMENT_REQUESTED), captor.capture());
+    assertSame(sentBody.get(), captor.getValue().getBody());
+  }
+}
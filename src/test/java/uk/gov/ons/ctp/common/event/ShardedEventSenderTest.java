@@ -0,0 +1,209 @@
+package uk.gov.ons.ctp.common.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import uk.gov.ons.ctp.common.FixtureHelper;
+import uk.gov.ons.ctp.common.event.EventPublisher.RoutingKey;
+import uk.gov.ons.ctp.common.event.ShardedEventSender.ShardingStrategy;
+import uk.gov.ons.ctp.common.event.model.FulfilmentRequestedEvent;
+import uk.gov.ons.ctp.common.event.model.GenericEvent;
+import uk.gov.ons.ctp.common.event.model.Header;
+
+public class ShardedEventSenderTest {
+
+  private static final RoutingKey ROUTING_KEY = RoutingKey.EVENT_FULFILMENT_REQUEST;
+  private static final int SHARDS = 4;
+
+  /** An in memory shard which can be made unavailable. */
+  private static class Shard extends InMemoryEventSender {
+    private volatile boolean available = true;
+    private volatile boolean connectionLost;
+    private final List<SerialisedEvent> batched = new ArrayList<>();
+
+    Shard() {
+      super(100, false);
+    }
+
+    @Override
+    public void sendRawEvent(RoutingKey routingKey, Header header, byte[] body) {
+      if (connectionLost) {
+        throw new EventConnectionUnavailableException(RabbitConnectionState.RECOVERING);
+      }
+      super.sendRawEvent(routingKey, header, body);
+    }
+
+    @Override
+    public List<SerialisedEvent> sendSerialisedEvents(
+        RoutingKey routingKey, List<SerialisedEvent> serialisedEvents) {
+      if (connectionLost) {
+        throw new EventConnectionUnavailableException(RabbitConnectionState.RECOVERING);
+      }
+      batched.addAll(serialisedEvents);
+      return super.sendSerialisedEvents(routingKey, serialisedEvents);
+    }
+
+    @Override
+    public boolean isAvailable() {
+      return available;
+    }
+  }
+
+  private final List<Shard> shards = new ArrayList<>();
+  private ShardedEventSender sender;
+
+  @Before
+  public void setUp() {
+    for (int i = 0; i < SHARDS; i++) {
+      shards.add(new Shard());
+    }
+    sender = new ShardedEventSender(shards, ShardingStrategy.CASE_ID);
+  }
+
+  @Test
+  public void shouldSendEventsForCaseToOneShard() {
+    for (int i = 0; i < 10; i++) {
+      sendForCase("case-1", "tx-" + i);
+    }
+
+    int shard = sender.selectShard(ROUTING_KEY, "case-1", null);
+    assertEquals(10, shards.get(shard).getSentCount());
+    assertEquals(10, totalSent());
+  }
+
+  @Test
+  public void shouldSpreadCasesAcrossShards() {
+    for (int i = 0; i < 100; i++) {
+      sendForCase("case-" + i, "tx-" + i);
+    }
+
+    for (Shard shard : shards) {
+      assertTrue(shard.getSentCount() > 0);
+    }
+    assertEquals(100, totalSent());
+  }
+
+  @Test
+  public void shouldSendEventsForRoutingKeyToOneShard() {
+    sender = new ShardedEventSender(shards, ShardingStrategy.ROUTING_KEY);
+    for (int i = 0; i < 10; i++) {
+      sendForCase("case-" + i, "tx-" + i);
+    }
+
+    assertEquals(10, shards.get(ROUTING_KEY.ordinal() % SHARDS).getSentCount());
+  }
+
+  @Test
+  public void shouldMoveEventsFromUnavailableShard() {
+    int preferred = sender.selectShard(ROUTING_KEY, "case-1", null);
+    shards.get(preferred).available = false;
+
+    sendForCase("case-1", "tx-1");
+
+    assertEquals(0, shards.get(preferred).getSentCount());
+    assertEquals(1, shards.get((preferred + 1) % SHARDS).getSentCount());
+    assertTrue(sender.isAvailable());
+  }
+
+  @Test
+  public void shouldRetryOnNextShardWhenConnectionIsLost() {
+    int preferred = sender.selectShard(ROUTING_KEY, "case-1", null);
+    shards.get(preferred).connectionLost = true;
+
+    sendForCase("case-1", "tx-1");
+
+    assertEquals(1, shards.get((preferred + 1) % SHARDS).getSentCount());
+  }
+
+  @Test(expected = EventConnectionUnavailableException.class)
+  public void shouldFailWhenNoShardCanSend() {
+    for (Shard shard : shards) {
+      shard.available = false;
+      shard.connectionLost = true;
+    }
+    assertFalse(sender.isAvailable());
+
+    sendForCase("case-1", "tx-1");
+  }
+
+  @Test
+  public void shouldSplitBatchByCaseWithoutSerialisingAgain() {
+    List<SerialisedEvent> batch = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      batch.add(SerialisedEvent.of(eventForCase("case-" + (i % 5), "tx-" + i)));
+    }
+
+    List<SerialisedEvent> failed = sender.sendSerialisedEvents(ROUTING_KEY, batch);
+
+    assertTrue(failed.isEmpty());
+    assertEquals(20, totalSent());
+    for (int i = 0; i < SHARDS; i++) {
+      for (SerialisedEvent serialisedEvent : shards.get(i).batched) {
+        FulfilmentRequestedEvent event =
+            (FulfilmentRequestedEvent) serialisedEvent.getGenericEvent();
+        String caseId = event.getPayload().getFulfilmentRequest().getCaseId();
+        assertEquals(i, sender.selectShard(ROUTING_KEY, caseId, null));
+        assertTrue(batch.stream().anyMatch(sent -> sent == serialisedEvent));
+        assertTrue(serialisedEvent.isSerialised());
+      }
+    }
+  }
+
+  @Test
+  public void shouldSendBatchOnNextShardWhenConnectionIsLost() {
+    int preferred = sender.selectShard(ROUTING_KEY, "case-1", null);
+    shards.get(preferred).connectionLost = true;
+
+    List<GenericEvent> failed =
+        sender.sendEvents(
+            ROUTING_KEY, List.of(eventForCase("case-1", "tx-1"), eventForCase("case-1", "tx-2")));
+
+    assertTrue(failed.isEmpty());
+    assertEquals(0, shards.get(preferred).getSentCount());
+    assertEquals(2, shards.get((preferred + 1) % SHARDS).getSentCount());
+  }
+
+  @Test
+  public void shouldReturnBatchAsFailedWhenNoShardCanSend() {
+    for (Shard shard : shards) {
+      shard.connectionLost = true;
+    }
+    List<GenericEvent> batch =
+        List.of(eventForCase("case-1", "tx-1"), eventForCase("case-2", "tx-2"));
+
+    List<GenericEvent> failed = sender.sendEvents(ROUTING_KEY, batch);
+
+    assertEquals(2, failed.size());
+    assertTrue(failed.containsAll(batch));
+    assertEquals(0, totalSent());
+  }
+
+  private FulfilmentRequestedEvent eventForCase(String caseId, String transactionId) {
+    FulfilmentRequestedEvent event =
+        FixtureHelper.loadPackageFixtures(FulfilmentRequestedEvent[].class).get(0);
+    event.getEvent().setTransactionId(transactionId);
+    event.getPayload().getFulfilmentRequest().setCaseId(caseId);
+    return event;
+  }
+
+  private void sendForCase(String caseId, String transactionId) {
+    Header header = Header.builder().transactionId(transactionId).build();
+    String json =
+        "{\"event\":{\"transactionId\":\""
+            + transactionId
+            + "\"},\"payload\":{\"fulfilmentRequest\":{\"caseId\":\""
+            + caseId
+            + "\"}}}";
+    sender.sendRawEvent(ROUTING_KEY, header, json.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private long totalSent() {
+    return shards.stream().mapToLong(InMemoryEventSender::getSentCount).sum();
+  }
+}
@@ -0,0 +1,83 @@
+package uk.gov.ons.ctp.common.event;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.support.converter.DefaultClassMapper;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.SimpleMessageConverter;
+import uk.gov.ons.ctp.common.FixtureHelper;
+import uk.gov.ons.ctp.common.event.EventPublisher.RoutingKey;
+import uk.gov.ons.ctp.common.event.model.SurveyLaunchedEvent;
+import uk.gov.ons.ctp.common.jackson.CustomObjectMapper;
+
+public class SpringRabbitEventSenderTest {
+
+  private static final RoutingKey ROUTING_KEY = RoutingKey.EVENT_RESPONSE_AUTHENTICATION;
+
+  private RabbitTemplate template;
+  private SurveyLaunchedEvent event;
+
+  @Before
+  public void setup() {
+    template = mock(RabbitTemplate.class);
+    event = FixtureHelper.loadPackageFixtures(SurveyLaunchedEvent[].class).get(0);
+  }
+
+  @Test
+  public void shouldConvertSerialisedEventsByDefault() {
+    SpringRabbitEventSender sender = new SpringRabbitEventSender(template);
+
+    sender.sendSerialisedEvent(ROUTING_KEY, SerialisedEvent.of(event));
+
+    verify(template).convertAndSend(ROUTING_KEY.getKey(), event);
+    verify(template, never()).send(anyString(), any(Message.class));
+  }
+
+  @Test
+  public void shouldSendSerialisedJsonWithConverterTypeId() throws Exception {
+    Jackson2JsonMessageConverter converter = new Jackson2JsonMessageConverter();
+    DefaultClassMapper classMapper = new DefaultClassMapper();
+    classMapper.setIdClassMapping(Collections.singletonMap("surveyLaunched", event.getClass()));
+    classMapper.afterPropertiesSet();
+    converter.setClassMapper(classMapper);
+    when(template.getMessageConverter()).thenReturn(converter);
+    SpringRabbitEventSender sender = new SpringRabbitEventSender(template, true);
+    SerialisedEvent serialisedEvent = SerialisedEvent.of(event);
+
+    sender.sendSerialisedEvent(ROUTING_KEY, serialisedEvent);
+
+    ArgumentCaptor<Message> message = ArgumentCaptor.forClass(Message.class);
+    verify(template).send(eq(ROUTING_KEY.getKey()), message.capture());
+    verify(template, never()).convertAndSend(anyString(), any(Object.class));
+    MessageProperties properties = message.getValue().getMessageProperties();
+    assertEquals("surveyLaunched", properties.getHeaders().get("__TypeId__"));
+    assertEquals(MessageProperties.CONTENT_TYPE_JSON, properties.getContentType());
+    assertArrayEquals(serialisedEvent.getBody(), message.getValue().getBody());
+    assertEquals(
+        new CustomObjectMapper().readTree(serialisedEvent.getBody()),
+        new CustomObjectMapper().valueToTree(event));
+  }
+
+  @Test
+  public void shouldRejectSerialisedJsonWithoutJacksonConverter() {
+    when(template.getMessageConverter()).thenReturn(new SimpleMessageConverter());
+
+    assertThrows(IllegalArgumentException.class, () -> new SpringRabbitEventSender(template, true));
+  }
+}
@@ -0,0 +1,43 @@
+package uk.gov.ons.ctp.common.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.UUID;
+import org.junit.Test;
+
+public class TransactionIdGeneratorTest {
+
+  @Test
+  public void shouldGenerateRandomUuids() {
+    for (TransactionIdGenerator generator :
+        new TransactionIdGenerator[] {
+          TransactionIdGenerator.RANDOM_UUID, TransactionIdGenerator.FAST_RANDOM_UUID
+        }) {
+      String id = generator.generate();
+      UUID uuid = UUID.fromString(id);
+      assertEquals(id, uuid.toString());
+      assertEquals(4, uuid.version());
+      assertEquals(2, uuid.variant());
+      assertNotEquals(id, generator.generate());
+    }
+  }
+
+  @Test
+  public void shouldGenerateTimeOrderedUuids() {
+    Instant now = Instant.parse("2020-10-01T12:00:00Z");
+    String earlier = new TimeOrderedUuidGenerator(Clock.fixed(now, ZoneOffset.UTC)).generate();
+    String later =
+        new TimeOrderedUuidGenerator(Clock.fixed(now.plusMillis(1), ZoneOffset.UTC)).generate();
+
+    UUID uuid = UUID.fromString(earlier);
+    assertEquals(7, uuid.version());
+    assertEquals(2, uuid.variant());
+    assertEquals(now.toEpochMilli(), uuid.getMostSignificantBits() >>> 16);
+    assertTrue(earlier.compareTo(later) < 0);
+  }
+}
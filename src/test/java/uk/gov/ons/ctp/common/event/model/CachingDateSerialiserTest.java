@@ -0,0 +1,46 @@
+package uk.gov.ons.ctp.common.event.model;
+
+import static org.junit.Assert.assertEquals;
+
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import java.time.Instant;
+import java.util.Date;
+import org.junit.Test;
+import uk.gov.ons.ctp.common.jackson.CustomDateSerialiser;
+
+public class CachingDateSerialiserTest {
+
+  private ObjectMapper cachingMapper = mapper(new CachingDateSerialiser());
+  private ObjectMapper customMapper = mapper(new CustomDateSerialiser());
+
+  @Test
+  public void shouldFormatSameAsCustomDateSerialiser() throws Exception {
+    long start = Instant.parse("2020-06-29T13:25:58.990Z").toEpochMilli();
+    // Crosses second, minute and day boundaries
+    for (long millis = start; millis < start + 3000; millis += 7) {
+      assertSameFormat(millis);
+    }
+    assertSameFormat(Instant.parse("2020-12-31T23:59:59.999Z").toEpochMilli());
+    assertSameFormat(Instant.parse("2021-01-01T00:00:00.000Z").toEpochMilli());
+    assertSameFormat(0);
+  }
+
+  @Test
+  public void shouldFormatDatesOutsideCachedRangeSameAsCustomDateSerialiser() throws Exception {
+    assertSameFormat(Instant.parse("1500-03-01T10:15:30.123Z").toEpochMilli());
+    assertSameFormat(Instant.parse("1899-12-31T23:59:59.999Z").toEpochMilli());
+    assertSameFormat(Instant.parse("1900-01-01T00:00:00.000Z").toEpochMilli());
+  }
+
+  private void assertSameFormat(long millis) throws Exception {
+    Date date = new Date(millis);
+    assertEquals(customMapper.writeValueAsString(date), cachingMapper.writeValueAsString(date));
+  }
+
+  private static ObjectMapper mapper(JsonSerializer<Date> serialiser) {
+    return new ObjectMapper()
+        .registerModule(new SimpleModule().addSerializer(Date.class, serialiser));
+  }
+}
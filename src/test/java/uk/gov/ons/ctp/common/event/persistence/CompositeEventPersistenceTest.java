@@ -0,0 +1,219 @@
+package uk.gov.ons.ctp.common.event.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import uk.gov.ons.ctp.common.FixtureHelper;
+import uk.gov.ons.ctp.common.error.CTPException;
+import uk.gov.ons.ctp.common.error.CTPException.Fault;
+import uk.gov.ons.ctp.common.event.EventPublisher.EventType;
+import uk.gov.ons.ctp.common.event.model.FulfilmentRequestedEvent;
+
+public class CompositeEventPersistenceTest {
+
+  private FulfilmentRequestedEvent event;
+  private InMemoryEventPersistence memory;
+  private InMemoryEventPersistence overflow;
+  private CompositeEventPersistence composite;
+
+  @Before
+  public void setup() {
+    event = FixtureHelper.loadPackageFixtures(FulfilmentRequestedEvent[].class).get(0);
+    memory = new InMemoryEventPersistence(1);
+    overflow = new InMemoryEventPersistence(10);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    if (composite != null) {
+      composite.close();
+    }
+  }
+
+  @Test
+  public void shouldFallThroughToNextTierAndRecordTier() throws Exception {
+    composite =
+        new CompositeEventPersistence(
+            Arrays.asList(tier("memory", memory), tier("overflow", overflow)));
+
+    composite.persistEvent(EventType.FULFILMENT_REQUESTED, event);
+    composite.persistEvent(EventType.FULFILMENT_REQUESTED, event);
+
+    List<EventBackupData> replayed = replayAll();
+    assertEquals(2, replayed.size());
+    assertEquals("memory", replayed.get(0).getTier());
+    assertEquals("overflow", replayed.get(1).getTier());
+    assertEquals(0, memory.size());
+    assertEquals(0, overflow.size());
+  }
+
+  @Test
+  public void shouldStopReplayWhenHandlerDeclines() throws Exception {
+    composite =
+        new CompositeEventPersistence(
+            Arrays.asList(tier("memory", memory), tier("overflow", overflow)));
+    composite.persistEvent(EventType.FULFILMENT_REQUESTED, event);
+    composite.persistEvent(EventType.FULFILMENT_REQUESTED, event);
+
+    assertEquals(0, composite.replay(e -> false));
+
+    assertEquals(1, memory.size());
+    assertEquals(1, overflow.size());
+  }
+
+  @Test
+  public void shouldMoveOnFromSlowTierAfterTimeout() throws Exception {
+    EventPersistence slow = mock(EventPersistence.class);
+    doAnswer(
+            invocation -> {
+              Thread.sleep(5000);
+              return null;
+            })
+        .when(slow)
+        .persistSerialisedEvent(any(), any());
+    composite =
+        new CompositeEventPersistence(
+            Arrays.asList(
+                PersistenceTier.builder().name("slow").persistence(slow).timeoutMillis(50).build(),
+                tier("overflow", overflow)));
+
+    long start = System.currentTimeMillis();
+    composite.persistEvent(EventType.FULFILMENT_REQUESTED, event);
+
+    assertTrue(System.currentTimeMillis() - start < 2000);
+    assertEquals(1, overflow.size());
+  }
+
+  @Test
+  public void shouldInterruptTierCallWhichTimesOut() throws Exception {
+    CountDownLatch interrupted = new CountDownLatch(1);
+    EventPersistence slow = mock(EventPersistence.class);
+    doAnswer(
+            invocation -> {
+              try {
+                Thread.sleep(5000);
+              } catch (InterruptedException e) {
+                interrupted.countDown();
+              }
+              return null;
+            })
+        .when(slow)
+        .persistSerialisedEvent(any(), any());
+    composite =
+        new CompositeEventPersistence(
+            Arrays.asList(
+                PersistenceTier.builder().name("slow").persistence(slow).timeoutMillis(50).build(),
+                tier("overflow", overflow)));
+
+    composite.persistEvent(EventType.FULFILMENT_REQUESTED, event);
+
+    assertTrue(interrupted.await(2, TimeUnit.SECONDS));
+    assertEquals(1, overflow.size());
+  }
+
+  @Test
+  public void shouldMoveOnWithoutWaitingWhenTierThreadsAreFull() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    EventPersistence hung = mock(EventPersistence.class);
+    doAnswer(
+            invocation -> {
+              // Ignores interrupts, like a call blocked in I/O
+              while (true) {
+                try {
+                  release.await();
+                  return null;
+                } catch (InterruptedException e) {
+                  // Keep waiting
+                }
+              }
+            })
+        .when(hung)
+        .persistSerialisedEvent(any(), any());
+    composite =
+        new CompositeEventPersistence(
+            Arrays.asList(
+                PersistenceTier.builder()
+                    .name("hung")
+                    .persistence(hung)
+                    .timeoutMillis(50)
+                    .maxConcurrentCalls(1)
+                    .maxQueuedCalls(0)
+                    .failureThreshold(100)
+                    .build(),
+                tier("overflow", overflow)));
+
+    try {
+      for (int i = 0; i < 3; i++) {
+        composite.persistEvent(EventType.FULFILMENT_REQUESTED, event);
+      }
+
+      verify(hung, times(1)).persistSerialisedEvent(any(), any());
+      assertEquals(3, overflow.size());
+    } finally {
+      release.countDown();
+    }
+  }
+
+  @Test
+  public void shouldSkipUnhealthyTier() throws Exception {
+    EventPersistence failing = mock(EventPersistence.class);
+    doThrow(new CTPException(Fault.SYSTEM_ERROR, "down"))
+        .when(failing)
+        .persistSerialisedEvent(any(), any());
+    composite =
+        new CompositeEventPersistence(
+            Arrays.asList(
+                PersistenceTier.builder()
+                    .name("failing")
+                    .persistence(failing)
+                    .failureThreshold(2)
+                    .skipMillis(60000)
+                    .build(),
+                tier("overflow", overflow)));
+
+    for (int i = 0; i < 5; i++) {
+      composite.persistEvent(EventType.FULFILMENT_REQUESTED, event);
+    }
+
+    verify(failing, times(2)).persistSerialisedEvent(any(), any());
+    assertEquals(5, overflow.size());
+  }
+
+  @Test
+  public void shouldThrowWhenNoTierStoresEvent() throws Exception {
+    composite = new CompositeEventPersistence(Arrays.asList(tier("memory", memory)));
+    composite.persistEvent(EventType.FULFILMENT_REQUESTED, event);
+
+    try {
+      composite.persistEvent(EventType.FULFILMENT_REQUESTED, event);
+      fail("Expected CTPException");
+    } catch (CTPException e) {
+      assertEquals(Fault.SYSTEM_ERROR, e.getFault());
+    }
+  }
+
+  private PersistenceTier tier(String name, EventPersistence persistence) {
+    return PersistenceTier.builder().name(name).persistence(persistence).build();
+  }
+
+  private List<EventBackupData> replayAll() throws CTPException {
+    List<EventBackupData> replayed = new ArrayList<>();
+    composite.replay(replayed::add);
+    return replayed;
+  }
+}
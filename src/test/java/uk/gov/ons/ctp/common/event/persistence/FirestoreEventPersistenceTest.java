@@ -1,6 +1,7 @@
 package uk.gov.ons.ctp.common.event.persistence;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.eq;
@@ -35,7 +36,6 @@ public class FirestoreEventPersistenceTest {
   public void setup() {
     ReflectionTestUtils.setField(persistence, "gcpProject", "testing");
     ReflectionTestUtils.setField(persistence, "eventBackupSchemaName", "backupcollection");
-    ReflectionTestUtils.setField(persistence, "objectMapper", objectMapper);
     persistence.init();
   }
 
@@ -69,6 +69,7 @@ public class FirestoreEventPersistenceTest {
     assertEquals(expectedTransactionId, storedData.getId());
 
     String eventJson = storedData.getEvent();
+    assertFalse("Stored JSON should be compact", eventJson.contains("\n"));
 
     FulfilmentRequestedEvent sentEvent =
         objectMapper.readValue(eventJson, FulfilmentRequestedEvent.class);
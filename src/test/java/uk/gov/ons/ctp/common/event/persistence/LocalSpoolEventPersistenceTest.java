@@ -0,0 +1,153 @@
+package uk.gov.ons.ctp.common.event.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import uk.gov.ons.ctp.common.FixtureHelper;
+import uk.gov.ons.ctp.common.event.EventPublisher.EventType;
+import uk.gov.ons.ctp.common.event.model.FulfilmentRequestedEvent;
+import uk.gov.ons.ctp.common.jackson.CustomObjectMapper;
+
+public class LocalSpoolEventPersistenceTest {
+
+  private static final long SEGMENT_SIZE = 4096;
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private Path directory;
+  private LocalSpoolEventPersistence spool;
+  private FulfilmentRequestedEvent event;
+
+  @Before
+  public void setup() throws Exception {
+    directory = folder.getRoot().toPath().resolve("spool");
+    spool = new LocalSpoolEventPersistence(directory, SEGMENT_SIZE, 0);
+    event = FixtureHelper.loadPackageFixtures(FulfilmentRequestedEvent[].class).get(0);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    spool.close();
+  }
+
+  @Test
+  public void shouldReplayPersistedEvent() throws Exception {
+    long startTime = System.currentTimeMillis();
+    spool.persistEvent(EventType.FULFILMENT_REQUESTED, event);
+
+    List<EventBackupData> replayed = replayAll();
+
+    assertEquals(1, replayed.size());
+    EventBackupData eventData = replayed.get(0);
+    assertEquals(EventType.FULFILMENT_REQUESTED, eventData.getEventType());
+    assertEquals(event.getEvent().getTransactionId(), eventData.getId());
+    assertTrue(eventData.getMessageFailureDateTimeInMillis() >= startTime);
+    FulfilmentRequestedEvent spooledEvent =
+        new CustomObjectMapper().readValue(eventData.getEvent(), FulfilmentRequestedEvent.class);
+    assertEquals(event, spooledEvent);
+    assertEquals(0, replayAll().size());
+  }
+
+  @Test
+  public void shouldRotateAndDeleteReplayedSegments() throws Exception {
+    for (int i = 0; i < 20; i++) {
+      spool.persistEvent(EventType.FULFILMENT_REQUESTED, event);
+    }
+    assertTrue(spool.getSegmentCount() > 1);
+
+    assertEquals(20, replayAll().size());
+
+    assertEquals(1, spool.getSegmentCount());
+    assertEquals(1, segmentFiles().size());
+  }
+
+  @Test
+  public void shouldResumeReplayWhereHandlerStopped() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      spool.persistEvent(EventType.FULFILMENT_REQUESTED, event);
+    }
+
+    List<EventBackupData> replayed = new ArrayList<>();
+    assertEquals(1, spool.replay(e -> replayed.add(e) && replayed.size() < 2));
+
+    assertEquals(2, replayAll().size());
+  }
+
+  @Test
+  public void shouldRecoverEventsAfterRestart() throws Exception {
+    for (int i = 0; i < 10; i++) {
+      spool.persistEvent(EventType.FULFILMENT_REQUESTED, event);
+    }
+    spool.close();
+
+    spool = new LocalSpoolEventPersistence(directory, SEGMENT_SIZE, 0);
+
+    assertEquals(10, replayAll().size());
+  }
+
+  @Test
+  public void shouldResumeReplayAfterRestart() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      spool.persistEvent(EventType.FULFILMENT_REQUESTED, event);
+    }
+    List<EventBackupData> replayed = new ArrayList<>();
+    assertEquals(1, spool.replay(e -> replayed.add(e) && replayed.size() < 2));
+    spool.close();
+
+    spool = new LocalSpoolEventPersistence(directory, SEGMENT_SIZE, 0);
+
+    assertEquals(2, replayAll().size());
+  }
+
+  @Test
+  public void shouldDiscardTornWriteOnRecovery() throws Exception {
+    spool.persistEvent(EventType.FULFILMENT_REQUESTED, event);
+    spool.persistEvent(EventType.FULFILMENT_REQUESTED, event);
+    spool.close();
+
+    // Corrupt the last byte of the second record, as if the process died while writing it
+    Path segment = segmentFiles().get(0);
+    try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+      int firstLength = file.readInt();
+      file.seek(8 + firstLength);
+      int secondLength = file.readInt();
+      long lastByte = 8 + firstLength + 8 + secondLength - 1;
+      file.seek(lastByte);
+      int value = file.read();
+      file.seek(lastByte);
+      file.write(value ^ 0xFF);
+    }
+
+    spool = new LocalSpoolEventPersistence(directory, SEGMENT_SIZE, 0);
+    spool.persistEvent(EventType.FULFILMENT_REQUESTED, event);
+
+    assertEquals(2, replayAll().size());
+  }
+
+  private List<EventBackupData> replayAll() throws Exception {
+    List<EventBackupData> replayed = new ArrayList<>();
+    spool.replay(replayed::add);
+    return replayed;
+  }
+
+  private List<Path> segmentFiles() throws Exception {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files
+          .filter(file -> file.getFileName().toString().endsWith(".log"))
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+}
@@ -0,0 +1,199 @@
+package uk.gov.ons.ctp.common.event.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import uk.gov.ons.ctp.common.FixtureHelper;
+import uk.gov.ons.ctp.common.event.EventPublishException;
+import uk.gov.ons.ctp.common.event.EventPublisher;
+import uk.gov.ons.ctp.common.event.EventPublisher.EventType;
+import uk.gov.ons.ctp.common.event.EventPublisher.RoutingKey;
+import uk.gov.ons.ctp.common.event.EventSender;
+import uk.gov.ons.ctp.common.event.InMemoryEventSender;
+import uk.gov.ons.ctp.common.event.SpringRabbitEventSender;
+import uk.gov.ons.ctp.common.event.model.FulfilmentRequestedEvent;
+import uk.gov.ons.ctp.common.jackson.CustomObjectMapper;
+
+public class ReplayEngineTest {
+
+  private CustomObjectMapper objectMapper = new CustomObjectMapper();
+  private ListBackupStore backupStore = new ListBackupStore();
+  private InMemoryEventSender sender = new InMemoryEventSender(100, false);
+
+  @Before
+  public void setup() {
+    backupStore.events.clear();
+  }
+
+  @Test
+  public void shouldReplayEveryPageAndMarkEventsSent() throws Exception {
+    for (int i = 0; i < 7; i++) {
+      backup(i, "case-" + i, "code-" + i);
+    }
+
+    ReplayEngine.ReplayResult result = engine(sender, 3, 2, 1000).replay();
+
+    assertEquals(7, result.getReplayed());
+    assertEquals(0, result.getFailed());
+    assertEquals(7, sender.getSentCount(RoutingKey.EVENT_FULFILMENT_REQUEST));
+    for (EventBackupData eventData : backupStore.events) {
+      assertNotNull(eventData.getMessageSentDateTimeInMillis());
+    }
+    assertEquals(0, engine(sender, 3, 2, 1000).replay().getReplayed());
+  }
+
+  @Test
+  public void shouldPublishEventsForACaseInOrder() throws Exception {
+    for (int i = 0; i < 40; i++) {
+      backup(i, "case-" + (i % 3), Integer.toString(i));
+    }
+
+    engine(sender, 7, 4, 1000).replay();
+
+    for (int c = 0; c < 3; c++) {
+      String caseId = "case-" + c;
+      List<Integer> codes =
+          sender.getCaptured().stream()
+              .map(e -> ((FulfilmentRequestedEvent) e.getGenericEvent()).getPayload())
+              .map(p -> p.getFulfilmentRequest())
+              .filter(r -> caseId.equals(r.getCaseId()))
+              .map(r -> Integer.valueOf(r.getFulfilmentCode()))
+              .collect(Collectors.toList());
+      List<Integer> sorted = new ArrayList<>(codes);
+      sorted.sort(Comparator.naturalOrder());
+      assertEquals(sorted, codes);
+    }
+  }
+
+  @Test
+  public void shouldSkipLaterEventsForCaseWhichFailed() throws Exception {
+    backup(0, "case-a", "ok");
+    backup(1, "case-a", "fail");
+    backup(2, "case-b", "ok");
+    backup(3, "case-a", "ok");
+    EventSender failingSender =
+        (routingKey, genericEvent) -> {
+          String code =
+              ((FulfilmentRequestedEvent) genericEvent)
+                  .getPayload()
+                  .getFulfilmentRequest()
+                  .getFulfilmentCode();
+          if (code.equals("fail")) {
+            throw new EventPublishException("Rabbit failed");
+          }
+        };
+
+    ReplayEngine.ReplayResult result = engine(failingSender, 10, 2, 1000).replay();
+
+    assertEquals(2, result.getReplayed());
+    assertEquals(1, result.getFailed());
+    assertEquals(1, result.getSkipped());
+    assertNotNull(backupStore.events.get(0).getMessageSentDateTimeInMillis());
+    assertNull(backupStore.events.get(1).getMessageSentDateTimeInMillis());
+    assertNotNull(backupStore.events.get(2).getMessageSentDateTimeInMillis());
+    assertNull(backupStore.events.get(3).getMessageSentDateTimeInMillis());
+  }
+
+  @Test
+  public void shouldRejectRawPassthroughWithoutRawSender() {
+    ReplayOptions options = ReplayOptions.builder().rawPassthrough(true).build();
+    EventPublisher eventPublisher =
+        EventPublisher.createWithoutEventPersistence(
+            new SpringRabbitEventSender(mock(RabbitTemplate.class)));
+
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> new ReplayEngine(eventPublisher, backupStore, options));
+  }
+
+  @Test
+  public void shouldReplayStoredBytesInRawPassthroughMode() throws Exception {
+    backup(0, "case-a", "code");
+    String stored = backupStore.events.get(0).getEvent();
+    ReplayOptions options =
+        ReplayOptions.builder().eventsPerSecond(1000).rawPassthrough(true).build();
+
+    new ReplayEngine(EventPublisher.createWithoutEventPersistence(sender), backupStore, options)
+        .replay();
+
+    InMemoryEventSender.CapturedEvent captured = sender.getCaptured().get(0);
+    assertNull(captured.getGenericEvent());
+    assertEquals(stored, new String(captured.getBody(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void shouldLimitReplayRate() throws Exception {
+    for (int i = 0; i < 21; i++) {
+      backup(i, "case-" + i, "code");
+    }
+
+    long start = System.nanoTime();
+    engine(sender, 5, 4, 100).replay();
+    long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+    // One token to start with, then 20 more at 100 per second
+    assertTrue("Replay took " + elapsedMillis + "ms", elapsedMillis >= 190);
+    assertEquals(21, sender.getSentCount());
+  }
+
+  private ReplayEngine engine(EventSender eventSender, int pageSize, int lanes, int rate) {
+    ReplayOptions options =
+        ReplayOptions.builder()
+            .pageSize(pageSize)
+            .lanes(lanes)
+            .eventsPerSecond(rate)
+            .burstSize(1)
+            .build();
+    return new ReplayEngine(
+        EventPublisher.createWithoutEventPersistence(eventSender), backupStore, options);
+  }
+
+  private void backup(long failureMillis, String caseId, String fulfilmentCode) throws Exception {
+    FulfilmentRequestedEvent event =
+        FixtureHelper.loadPackageFixtures(FulfilmentRequestedEvent[].class).get(0);
+    event.getPayload().getFulfilmentRequest().setCaseId(caseId);
+    event.getPayload().getFulfilmentRequest().setFulfilmentCode(fulfilmentCode);
+    EventBackupData eventData = new EventBackupData();
+    eventData.setEventType(EventType.FULFILMENT_REQUESTED);
+    eventData.setMessageFailureDateTimeInMillis(failureMillis);
+    eventData.setId("id-" + failureMillis);
+    eventData.setEvent(objectMapper.writeValueAsString(event));
+    backupStore.events.add(eventData);
+  }
+
+  /** Store holding events in a list, in failure time order. */
+  private static class ListBackupStore implements EventBackupStore {
+    private final List<EventBackupData> events = new ArrayList<>();
+
+    @Override
+    public List<EventBackupData> findUnsent(Long afterFailureMillis, String afterId, int limit) {
+      return events.stream()
+          .filter(e -> e.getMessageSentDateTimeInMillis() == null)
+          .filter(
+              e ->
+                  afterFailureMillis == null
+                      || e.getMessageFailureDateTimeInMillis() > afterFailureMillis
+                      || (e.getMessageFailureDateTimeInMillis().equals(afterFailureMillis)
+                          && e.getId().compareTo(afterId) > 0))
+          .limit(limit)
+          .collect(Collectors.toList());
+    }
+
+    @Override
+    public void markSent(List<EventBackupData> sent) {
+      // The engine sets the sent time on the events themselves
+    }
+  }
+}
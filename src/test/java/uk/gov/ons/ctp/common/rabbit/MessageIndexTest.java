@@ -0,0 +1,128 @@
+package uk.gov.ons.ctp.common.rabbit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import uk.gov.ons.ctp.common.event.EventPublisher.EventType;
+
+public class MessageIndexTest {
+
+  private final MessageIndex index = new MessageIndex();
+
+  @Test
+  public void shouldTakeOldestMessages() throws Exception {
+    ReceivedMessage first = add("1", EventType.CASE_UPDATED, "tx-1", "case-1");
+    ReceivedMessage second = add("2", EventType.CASE_UPDATED, "tx-2", "case-2");
+    add("3", EventType.CASE_UPDATED, "tx-3", "case-3");
+
+    List<ReceivedMessage> taken = index.take(2, 0, TimeUnit.MILLISECONDS);
+
+    assertEquals(List.of(first, second), taken);
+    assertEquals(1, index.size());
+  }
+
+  @Test
+  public void shouldReturnFewerMessagesWhenTimeoutExpires() throws Exception {
+    add("1", EventType.CASE_UPDATED, "tx-1", "case-1");
+
+    List<ReceivedMessage> taken = index.take(3, 20, TimeUnit.MILLISECONDS);
+
+    assertEquals(1, taken.size());
+    assertEquals(0, index.size());
+  }
+
+  @Test
+  public void shouldKeepMessagesWhichDoNotMatchPredicate() throws Exception {
+    ReceivedMessage uac = add("1", EventType.UAC_UPDATED, "tx-1", "case-1");
+    ReceivedMessage caseUpdate = add("2", EventType.CASE_UPDATED, "tx-2", "case-1");
+
+    ReceivedMessage taken =
+        index.take(m -> m.getEventType() == EventType.CASE_UPDATED, 0, TimeUnit.MILLISECONDS);
+
+    assertSame(caseUpdate, taken);
+    assertSame(uac, index.takeByTransactionId("tx-1", 0, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void shouldWaitForMessageWithTransactionId() throws Exception {
+    add("1", EventType.CASE_UPDATED, "tx-1", "case-1");
+    Thread producer = addLater("2", EventType.CASE_UPDATED, "tx-2", "case-1");
+
+    ReceivedMessage taken = index.takeByTransactionId("tx-2", 5, TimeUnit.SECONDS);
+    producer.join();
+
+    assertEquals("2", taken.getBody());
+    assertEquals(1, index.size());
+    assertNull(index.takeByTransactionId("tx-2", 0, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void shouldWaitForAllMessagesOfTypeForCase() throws Exception {
+    add("1", EventType.CASE_UPDATED, "tx-1", "case-1");
+    add("2", EventType.UAC_UPDATED, "tx-2", "case-1");
+    add("3", EventType.CASE_UPDATED, "tx-3", "case-2");
+    Thread producer = addLater("4", EventType.CASE_UPDATED, "tx-4", "case-1");
+
+    List<ReceivedMessage> taken =
+        index.takeByCaseId("case-1", EventType.CASE_UPDATED, 2, 5, TimeUnit.SECONDS);
+    producer.join();
+
+    assertEquals(2, taken.size());
+    assertEquals("1", taken.get(0).getBody());
+    assertEquals("4", taken.get(1).getBody());
+    assertEquals(2, index.size());
+  }
+
+  @Test
+  public void shouldClearMessagesAndIndexes() throws Exception {
+    add("1", EventType.CASE_UPDATED, "tx-1", "case-1");
+
+    assertEquals(1, index.clear());
+
+    assertNull(index.takeByTransactionId("tx-1", 0, TimeUnit.MILLISECONDS));
+    assertTrue(index.takeByCaseId("case-1", null, 1, 0, TimeUnit.MILLISECONDS).isEmpty());
+  }
+
+  @Test
+  public void shouldPassTakenAndClearedMessagesToListener() throws Exception {
+    List<ReceivedMessage> removed = new ArrayList<>();
+    MessageIndex listened = new MessageIndex(removed::add);
+    ReceivedMessage first = new ReceivedMessage("1", EventType.CASE_UPDATED, "tx-1", "case-1");
+    ReceivedMessage second = new ReceivedMessage("2", EventType.CASE_UPDATED, "tx-2", "case-2");
+    listened.add(first);
+    listened.add(second);
+
+    listened.takeByTransactionId("tx-2", 0, TimeUnit.MILLISECONDS);
+    assertEquals(List.of(second), removed);
+    listened.clear();
+    assertEquals(List.of(second, first), removed);
+  }
+
+  private ReceivedMessage add(
+      String body, EventType eventType, String transactionId, String caseId) {
+    ReceivedMessage message = new ReceivedMessage(body, eventType, transactionId, caseId);
+    index.add(message);
+    return message;
+  }
+
+  private Thread addLater(String body, EventType eventType, String transactionId, String caseId) {
+    Thread producer =
+        new Thread(
+            () -> {
+              try {
+                Thread.sleep(50);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+              add(body, eventType, transactionId, caseId);
+            });
+    producer.start();
+    return producer;
+  }
+}
@@ -0,0 +1,103 @@
+package uk.gov.ons.ctp.common.rabbit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.Envelope;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import uk.gov.ons.ctp.common.event.EventPublisher.EventType;
+
+@RunWith(MockitoJUnitRunner.class)
+public class QueueSubscriptionTest {
+
+  private static final String QUEUE = "event.case.update";
+  private static final String CASE_EVENT =
+      "{\"event\":{\"type\":\"CASE_UPDATED\",\"source\":\"CASE_SERVICE\",\"channel\":\"RM\","
+          + "\"transactionId\":\"tx-1\"},"
+          + "\"payload\":{\"collectionCase\":{\"id\":\"case-1\",\"caseRef\":\"10000000\"}}}";
+
+  @Mock private Connection connection;
+  @Mock private Channel channel;
+
+  private QueueSubscription subscription;
+
+  @Before
+  public void setup() throws Exception {
+    when(connection.createChannel()).thenReturn(channel);
+    subscription = QueueSubscription.start(connection, QUEUE, 50);
+  }
+
+  @Test
+  public void shouldConsumeWithPrefetchAndManualAcks() throws Exception {
+    verify(channel).basicQos(50);
+    verify(channel).basicConsume(QUEUE, false, subscription);
+  }
+
+  @Test
+  public void shouldIndexPushedMessageAndAcknowledgeItWhenRead() throws Exception {
+    deliver(7L, CASE_EVENT);
+
+    verify(channel, never()).basicAck(anyLong(), anyBoolean());
+    ReceivedMessage message =
+        subscription.getMessages().takeByTransactionId("tx-1", 0, TimeUnit.MILLISECONDS);
+    verify(channel).basicAck(7L, false);
+    assertEquals(CASE_EVENT, message.getBody());
+    assertEquals(EventType.CASE_UPDATED, message.getEventType());
+    assertEquals("case-1", message.getCaseId());
+  }
+
+  @Test
+  public void shouldKeepMessagesWhichAreNotEvents() throws Exception {
+    deliver(1L, "not json");
+
+    List<ReceivedMessage> messages = subscription.getMessages().take(1, 0, TimeUnit.MILLISECONDS);
+    assertEquals("not json", messages.get(0).getBody());
+    assertNull(messages.get(0).getTransactionId());
+    assertNull(messages.get(0).getCaseId());
+  }
+
+  @Test
+  public void shouldAcknowledgeClearedMessages() throws Exception {
+    deliver(1L, CASE_EVENT);
+    deliver(2L, "not json");
+
+    assertEquals(2, subscription.getMessages().clear());
+
+    verify(channel).basicAck(1L, false);
+    verify(channel).basicAck(2L, false);
+  }
+
+  @Test
+  public void shouldReturnHeldMessagesToQueueOnClose() throws Exception {
+    when(channel.isOpen()).thenReturn(true);
+    deliver(1L, CASE_EVENT);
+
+    subscription.close();
+
+    assertEquals(0, subscription.getMessages().size());
+    verify(channel, never()).basicAck(anyLong(), anyBoolean());
+    verify(channel).close();
+  }
+
+  private void deliver(long deliveryTag, String body) throws Exception {
+    subscription.handleDelivery(
+        "ctag",
+        new Envelope(deliveryTag, false, "events", QUEUE),
+        null,
+        body.getBytes(StandardCharsets.UTF_8));
+  }
+}